@@ -0,0 +1,57 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static expressionsimplifier.Pattern.*;
+
+/**
+ * The algebraic identities applied by {@link ExpressionSimplifier}, in priority order.
+ * <p>
+ * Each rule must be sound on its own, since {@link EqualitySaturation} applies every matching rule.
+ *
+ * @author Moussa
+ */
+final class AlgebraicIdentities {
+    public static final @NotNull List<@NotNull RewriteRule> RULES = List.of(
+            new RewriteRule("add-zero", op(Operator.ADD, any("a"), ZERO), any("a")),
+            new RewriteRule("sub-zero", op(Operator.SUB, any("a"), ZERO), any("a")),
+            new RewriteRule("sub-self", op(Operator.SUB, any("a"), any("a")), ZERO),
+            new RewriteRule("mul-zero", op(Operator.MUL, ZERO, any("a")), ZERO),
+            new RewriteRule("mul-one", op(Operator.MUL, ONE, any("a")), any("a")),
+            new RewriteRule("div-one", op(Operator.DIV, any("a"), ONE), any("a")),
+            new RewriteRule("div-self", op(Operator.DIV, any("a"), any("a")), ONE),
+            new RewriteRule("pow-one", op(Operator.POW, any("a"), ONE), any("a")),
+            new RewriteRule("zero-pow-zero", op(Operator.POW, ZERO, number("n")), ONE,
+                    new IsZero("n", true)),
+            new RewriteRule("zero-pow", op(Operator.POW, ZERO, number("n")), ZERO,
+                    new IsZero("n", false)),
+            new RewriteRule("pow-zero", op(Operator.POW, any("a"), ZERO), ONE)
+    );
+
+    public static final @NotNull RuleSet RULE_SET = new RuleSet(RULES);
+
+    private AlgebraicIdentities() {
+    }
+
+    /**
+     * A guard on whether a bound number is zero. It is a class rather than a lambda, as the rules are built at startup.
+     */
+    private static final class IsZero implements Predicate<Map<String, SyntaxTree>> {
+        private final @NotNull String name;
+        private final boolean expected;
+
+        IsZero(String name, boolean expected) {
+            this.name = name;
+            this.expected = expected;
+        }
+
+        @Override
+        public boolean test(Map<String, SyntaxTree> bindings) {
+            return Rational.parse(bindings.get(name).getToken()).isZero() == expected;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package expressionsimplifier;
+
+/**
+ * Applies one {@link EvaluationTape} instruction to a block of rows at once.
+ * <p>
+ * {@link ScalarKernel} works on any JDK. With the {@code vector} profile, a kernel using the incubating Vector API is
+ * also built into the versioned part of the jar, and {@link EvaluationTape#evaluateBatch} uses it when the
+ * {@code jdk.incubator.vector} module is present.
+ *
+ * @author Moussa
+ */
+interface BatchKernel {
+    /**
+     * Sets {@code work[result + i]} to {@code work[left + i]} and {@code work[right + i]} combined by the opcode,
+     * for each {@code i} below the length. The result range does not overlap the operand ranges.
+     */
+    void apply(byte opcode, double[] work, int left, int right, int result, int length);
+}
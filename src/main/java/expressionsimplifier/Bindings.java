@@ -0,0 +1,200 @@
+package expressionsimplifier;
+
+import expressionsimplifier.SymbolTable.Symbol;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Values substituted for variables, kept as number leaves sorted by the {@link SymbolTable} id of their variable, so
+ * that a set costs memory in the number of its variables only.
+ * <p>
+ * Bindings are immutable, so one set can be parsed once and reused for any number of expressions and threads.
+ * Substituting them shares every subtree without a bound variable, and the leaves for the values, with the original,
+ * and only walks the subtrees whose {@link SyntaxTree#getVariableMask} has the bit of a bound variable.
+ *
+ * @author Moussa
+ */
+final class Bindings {
+    public static final @NotNull Bindings EMPTY = new Bindings(new Symbol[0], new int[0], new SyntaxTree[0]);
+    private static final char DELIMITER = '=';
+
+    // The bound variables, which keeps their ids, and the ids in increasing order
+    private final @NotNull Symbol @NotNull [] symbols;
+    private final int @NotNull [] ids;
+    private final @NotNull SyntaxTree @NotNull [] values;
+    // The variable bits of the ids, so that subtrees without any of them are skipped
+    private final long variableMask;
+
+    private Bindings(Symbol[] symbols, int[] ids, SyntaxTree[] values) {
+        this.symbols = symbols;
+        this.ids = ids;
+        this.values = values;
+        long mask = 0;
+        for (var id : ids) {
+            mask |= SyntaxTree.variableBit(id);
+        }
+
+        this.variableMask = mask;
+    }
+
+    /**
+     * @param variableValues of the form {@code name=value}. A later value for a name replaces an earlier one.
+     * @throws IllegalArgumentException if an input has no name or no value.
+     */
+    @Contract(pure = true)
+    public static @NotNull Bindings parse(List<@NotNull String> variableValues) {
+        if (variableValues.isEmpty()) {
+            return EMPTY;
+        }
+
+        var builder = new Builder();
+        for (var input : variableValues) {
+            int delimiterIdx = input.indexOf(DELIMITER);
+            if (delimiterIdx <= 0 || delimiterIdx == input.length() - 1) {
+                throw new IllegalArgumentException("Invalid variable value: " + input);
+            }
+
+            builder.bind(input.substring(0, delimiterIdx), input.substring(delimiterIdx + 1));
+        }
+
+        return builder.build();
+    }
+
+    @Contract(pure = true)
+    public static @NotNull Bindings of(Map<@NotNull String, @NotNull String> variableToValue) {
+        if (variableToValue.isEmpty()) {
+            return EMPTY;
+        }
+
+        var builder = new Builder();
+        for (var entry : variableToValue.entrySet()) {
+            builder.bind(entry.getKey(), entry.getValue());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @return the number leaf bound to the variable with this id, or null if it is unbound.
+     */
+    @Contract(pure = true)
+    public @Nullable SyntaxTree get(int symbol) {
+        int idx = Arrays.binarySearch(ids, symbol);
+        return idx >= 0 ? values[idx] : null;
+    }
+
+    @Contract(pure = true)
+    public @Nullable String getValue(String name) {
+        SyntaxTree value = get(SymbolTable.lookup(name));
+        return value == null ? null : value.getToken();
+    }
+
+    /**
+     * @return the tree with the bound variables replaced by their values. Subtrees without bound variables are
+     * shared with the tree rather than copied, and the tree itself is returned if nothing is bound in it.
+     */
+    @Contract(pure = true)
+    public @NotNull SyntaxTree substitute(SyntaxTree tree) {
+        if ((tree.getVariableMask() & variableMask) == 0) {
+            return tree;
+        }
+
+        return new Substitution().substitute(tree);
+    }
+
+    private final class Substitution {
+        // The results of the subtrees where the walk splits, which are the only ones a shared subtree can be reached
+        // through again without it being repeated exponentially. Created for the first of them.
+        private @Nullable Map<SyntaxTree, SyntaxTree> splits;
+
+        @NotNull SyntaxTree substitute(SyntaxTree tree) {
+            if ((tree.getVariableMask() & variableMask) == 0) {
+                return tree;
+            }
+
+            if (tree.isLeaf()) {
+                SyntaxTree value = get(tree.node.symbol);
+                return value == null ? tree : value;
+            }
+
+            assert tree.left != null && tree.right != null;
+            boolean isSplit = (tree.left.getVariableMask() & variableMask) != 0
+                    && (tree.right.getVariableMask() & variableMask) != 0;
+            if (isSplit && splits != null) {
+                SyntaxTree cached = splits.get(tree);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+
+            SyntaxTree left = substitute(tree.left);
+            SyntaxTree right = substitute(tree.right);
+            SyntaxTree result = left == tree.left && right == tree.right ? tree : new SyntaxTree(tree.node, left, right);
+            if (isSplit) {
+                if (splits == null) {
+                    splits = new IdentityHashMap<>();
+                }
+
+                splits.put(tree, result);
+            }
+
+            return result;
+        }
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        var text = new StringBuilder("{");
+        for (int idx = 0; idx < symbols.length; idx++) {
+            if (idx > 0) {
+                text.append(", ");
+            }
+
+            text.append(symbols[idx].name).append(DELIMITER).append(values[idx].getToken());
+        }
+
+        return text.append('}').toString();
+    }
+
+    private static final class Builder {
+        private final @NotNull Map<Symbol, SyntaxTree> values = new HashMap<>();
+
+        void bind(String name, String value) {
+            values.put(SymbolTable.symbol(name), new SyntaxTree(new LexNode(value, TokenType.NUMBER)));
+        }
+
+        /**
+         * Sorts by id packed above the index, without a comparator.
+         */
+        @NotNull Bindings build() {
+            Symbol[] unsorted = values.keySet().toArray(new Symbol[0]);
+            var order = new long[unsorted.length];
+            for (int idx = 0; idx < unsorted.length; idx++) {
+                order[idx] = (long) unsorted[idx].id << Integer.SIZE | idx;
+            }
+
+            Arrays.sort(order);
+            var symbols = new Symbol[unsorted.length];
+            var ids = new int[unsorted.length];
+            var leaves = new SyntaxTree[unsorted.length];
+            for (int idx = 0; idx < order.length; idx++) {
+                symbols[idx] = unsorted[(int) order[idx]];
+                ids[idx] = symbols[idx].id;
+                leaves[idx] = values.get(symbols[idx]);
+            }
+
+            return new Bindings(symbols, ids, leaves);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package expressionsimplifier;
+
+/**
+ * Thrown when simplifying an expression exceeds a limit of its {@link SimplifierBudget}, or is cancelled.
+ */
+class BudgetExceededException extends RuntimeException {
+    BudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,117 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Tracks the resources used by one simplification against its {@link SimplifierBudget}. Not thread-safe.
+ *
+ * @author Moussa
+ */
+final class BudgetMeter {
+    // log2(10), to bound the bits of a decimal number from its digit count
+    private static final double BITS_PER_DIGIT = 3.33;
+
+    private final @NotNull SimplifierBudget budget;
+    private final long deadline;
+    private final @Nullable BooleanSupplier cancellation;
+    private long nodes;
+
+    BudgetMeter(SimplifierBudget budget, long deadline, @Nullable BooleanSupplier cancellation) {
+        this.budget = budget;
+        this.deadline = deadline;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Cooperative cancellation point, called regularly by the lexer, parser and rewrite loops.
+     */
+    public void checkpoint() {
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException("Time limit exceeded");
+        }
+
+        if (cancellation != null && cancellation.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+            throw new BudgetExceededException("Simplification cancelled");
+        }
+    }
+
+    public void checkInputLength(int length) {
+        if (length > budget.maxInputLength) {
+            throw new BudgetExceededException("Expression longer than " + budget.maxInputLength + " characters");
+        }
+    }
+
+    public void checkDepth(int depth) {
+        if (depth > budget.maxDepth) {
+            throw new BudgetExceededException("Expression nested deeper than " + budget.maxDepth + " levels");
+        }
+    }
+
+    /**
+     * Counts nodes allocated while parsing or rewriting.
+     */
+    public void addNodes(int count) {
+        nodes += count;
+        if (nodes > budget.maxNodes) {
+            throw new BudgetExceededException("Expression has more than " + budget.maxNodes + " nodes");
+        }
+    }
+
+    /**
+     * @return the nodes counted so far.
+     */
+    long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return a meter for part of this call done on another thread, with the same limits and deadline. The nodes it
+     * counts are only added to this meter by {@link #join}.
+     */
+    @NotNull BudgetMeter fork() {
+        return new BudgetMeter(budget, deadline, cancellation);
+    }
+
+    void join(BudgetMeter forked) {
+        nodes += forked.nodes;
+        if (nodes > budget.maxNodes) {
+            throw new BudgetExceededException("Expression has more than " + budget.maxNodes + " nodes");
+        }
+    }
+
+    public void checkNumberToken(String token) {
+        if (token.length() * BITS_PER_DIGIT > budget.maxNumberBits) {
+            throw new BudgetExceededException("Number larger than " + budget.maxNumberBits + " bits");
+        }
+    }
+
+    public void checkNumber(Rational number) {
+        if (number.bitLength() > budget.maxNumberBits) {
+            throw new BudgetExceededException("Number larger than " + budget.maxNumberBits + " bits");
+        }
+    }
+
+    /**
+     * Checks the size of {@code base^exponent} before it is computed.
+     */
+    public void checkPow(Rational base, Rational exponent) {
+        if (!allowsPow(base, exponent)) {
+            throw new BudgetExceededException("Number larger than " + budget.maxNumberBits + " bits");
+        }
+    }
+
+    public boolean allowsPow(Rational base, Rational exponent) {
+        // Powers of 0, 1 and -1 stay small, and non-integer powers are computed in floating point.
+        // Those are the integers of at most one bit, and a fraction like -1/3 is not one of them.
+        int baseBits = base.reduce().bitLength();
+        if (!exponent.isInteger() || base.isInteger() && baseBits <= 2) {
+            return true;
+        }
+
+        // Bits of the result are at most the bits of the base times the exponent.
+        return (double) baseBits * Math.abs(exponent.doubleValue()) <= budget.maxNumberBits;
+    }
+}
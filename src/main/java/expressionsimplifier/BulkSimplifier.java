@@ -0,0 +1,281 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Simplifies a file with one expression per line, writing one result per line in the same order.
+ * <p>
+ * The input is memory-mapped and split into line-aligned chunks, which are simplified in parallel. Each chunk is
+ * written to its own temporary file, which is appended to the output and deleted once it and the chunks before it are
+ * done. Only a few chunks per thread are mapped at a time, however large the input. A line that cannot be simplified
+ * is replaced by the error message, as on the command line.
+ *
+ * @author Moussa
+ */
+final class BulkSimplifier {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final @NotNull Bindings bindings;
+    private final @NotNull SimplifierBudget budget;
+    private final int threads;
+    private final int chunkSize;
+
+    private final @NotNull AtomicLong linesDone = new AtomicLong();
+    private final @NotNull AtomicLong bytesDone = new AtomicLong();
+
+    /**
+     * @param budget applies to each line separately.
+     */
+    public BulkSimplifier(List<@NotNull String> variableValues, SimplifierBudget budget, int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Threads and chunk size must be positive");
+        }
+
+        this.bindings = Bindings.parse(variableValues);
+        this.budget = budget;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param progress receives a progress report about once a second.
+     * @return the final report.
+     */
+    public @NotNull Report process(Path input, Path output, Consumer<@NotNull Report> progress) throws IOException {
+        long start = System.nanoTime();
+        linesDone.set(0);
+        bytesDone.set(0);
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, daemonThreads("bulk-simplifier"));
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(daemonThreads("bulk-progress"));
+        Deque<PendingChunk> pending = new ArrayDeque<>();
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            reporter.scheduleAtFixedRate(() -> progress.accept(report(start)),
+                    PROGRESS_INTERVAL_MILLIS, PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+            // Twice as many chunks as threads, so that the workers stay busy while the oldest one is appended.
+            int maxInFlight = 2 * threads;
+            for (long[] bounds : splitLines(in)) {
+                if (pending.size() >= maxInFlight) {
+                    appendChunk(pending.removeFirst(), out);
+                }
+
+                Path chunkFile = Files.createTempFile("bulk-simplifier", ".chunk");
+                var chunk = new PendingChunk(chunkFile);
+                pending.addLast(chunk);
+                MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, bounds[0], bounds[1] - bounds[0]);
+                chunk.future = workers.submit(() -> processChunk(mapped, chunkFile));
+            }
+
+            while (!pending.isEmpty()) {
+                appendChunk(pending.removeFirst(), out);
+            }
+        } finally {
+            reporter.shutdownNow();
+            workers.shutdownNow();
+            for (var chunk : pending) {
+                Files.deleteIfExists(chunk.file);
+            }
+        }
+
+        return report(start);
+    }
+
+    /**
+     * Waits for the chunk, then appends its file to the output and deletes it.
+     */
+    private static void appendChunk(PendingChunk chunk, FileChannel out) throws IOException {
+        try {
+            if (chunk.future != null) {
+                awaitChunk(chunk.future);
+            }
+
+            try (FileChannel in = FileChannel.open(chunk.file, StandardOpenOption.READ)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(chunk.file);
+        }
+    }
+
+    private static void awaitChunk(Future<?> chunk) throws IOException {
+        try {
+            chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static @NotNull ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private @NotNull Report report(long start) {
+        return new Report(linesDone.get(), bytesDone.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * @return the [start, end) offsets of chunks of about the chunk size, each ending just after a newline or at the
+     * end of the file.
+     */
+    private @NotNull List<long @NotNull []> splitLines(FileChannel in) throws IOException {
+        long size = in.size();
+        List<long[]> bounds = new ArrayList<>();
+        var scratch = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + chunkSize, size);
+            while (end < size) {
+                scratch.clear();
+                int read = in.read(scratch, end);
+                int newline = indexOf(scratch, read);
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+
+                end += read;
+            }
+
+            // Mappings are limited to 2 GiB, so lines that long are not supported.
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line too long at offset " + start);
+            }
+
+            bounds.add(new long[]{start, end});
+            start = end;
+        }
+
+        return bounds;
+    }
+
+    private static int indexOf(ByteBuffer buffer, int length) {
+        for (int idx = 0; idx < length; idx++) {
+            if (buffer.get(idx) == NEWLINE) {
+                return idx;
+            }
+        }
+
+        return -1;
+    }
+
+    private void processChunk(ByteBuffer chunk, Path chunkFile) {
+        try (Writer out = new BufferedWriter(Channels.newWriter(FileChannel.open(chunkFile, StandardOpenOption.WRITE), StandardCharsets.UTF_8), 1 << 16)) {
+            int lineStart = 0;
+            int limit = chunk.limit();
+            while (lineStart < limit) {
+                int lineEnd = lineStart;
+                while (lineEnd < limit && chunk.get(lineEnd) != NEWLINE) {
+                    lineEnd++;
+                }
+
+                int exprEnd = lineEnd > lineStart && chunk.get(lineEnd - 1) == CARRIAGE_RETURN ? lineEnd - 1 : lineEnd;
+                String result = simplifyLine(line(chunk, lineStart, exprEnd));
+                if (result != null) {
+                    out.write(result);
+                }
+
+                out.write(NEWLINE);
+
+                int next = Math.min(lineEnd + 1, limit);
+                linesDone.incrementAndGet();
+                bytesDone.addAndGet(next - lineStart);
+                lineStart = next;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private @Nullable String simplifyLine(CharSequence expr) {
+        if (expr.length() == 0) {
+            return null;
+        }
+
+        try {
+            return ExpressionSimplifier.simplifyExpr(expr, bindings, budget.start());
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+
+    @Contract(pure = true)
+    private static @NotNull CharSequence line(ByteBuffer chunk, int start, int end) {
+        ByteBuffer utf8 = chunk.duplicate();
+        utf8.position(start).limit(end);
+        return StandardCharsets.UTF_8.decode(utf8);
+    }
+
+    /**
+     * A chunk submitted to the workers, and the temporary file it is written to.
+     */
+    private static final class PendingChunk {
+        private final @NotNull Path file;
+        private @Nullable Future<?> future;
+
+        PendingChunk(Path file) {
+            this.file = file;
+        }
+    }
+
+    static final class Report {
+        public final long lines;
+        public final long bytes;
+        public final long elapsedNanos;
+
+        Report(long lines, long bytes, long elapsedNanos) {
+            this.lines = lines;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            double seconds = Math.max(elapsedNanos, 1) / 1e9;
+            double megabytes = bytes / (double) (1 << 20);
+            return String.format("%d lines, %.1f MiB in %.2f s (%.0f lines/s, %.1f MiB/s)",
+                    lines, megabytes, seconds, lines / seconds, megabytes / seconds);
+        }
+    }
+}
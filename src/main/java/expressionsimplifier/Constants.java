@@ -7,8 +7,6 @@ import java.util.List;
 import java.util.Set;
 
 public final class Constants {
-    public static final @NotNull Set<String> OPERATOR_TOKENS = Collections.unmodifiableSet(Operator.getOperatorTokens());
-    public static final @NotNull List<@NotNull Set<String>> OPERATOR_TOKENS_GROUPED_BY_PRECEDENCE = List.copyOf(Operator.tokensGroupedByPrecedence());
     public static final String NEGATIVE_ONE = "-1";
     public static final String NEGATIVE_SIGN = "-";
     public static final String LEFT_PAREN = "(";
@@ -21,4 +19,23 @@ public final class Constants {
 
     private Constants() {
     }
+
+    public static @NotNull Set<String> operatorTokens() {
+        return OperatorTokens.ALL;
+    }
+
+    public static @NotNull List<@NotNull Set<String>> operatorTokensGroupedByPrecedence() {
+        return OperatorTokens.GROUPED_BY_PRECEDENCE;
+    }
+
+    /**
+     * Built on first use rather than when the string constants are, which most classes use without needing these.
+     */
+    private static final class OperatorTokens {
+        static final @NotNull Set<String> ALL = Collections.unmodifiableSet(Operator.getOperatorTokens());
+        static final @NotNull List<@NotNull Set<String>> GROUPED_BY_PRECEDENCE = List.copyOf(Operator.tokensGroupedByPrecedence());
+
+        private OperatorTokens() {
+        }
+    }
 }
@@ -0,0 +1,335 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Evaluates one expression for every row of a CSV or TSV file, whose header names the variables.
+ * <p>
+ * The expression is compiled to an {@link EvaluationTape} once. Rows are then read through a fixed buffer and
+ * parsed straight into doubles, evaluated a batch at a time with {@link EvaluationTape#evaluateBatch}, and one
+ * result per row is streamed to the output, so memory use does not grow with the file. Columns the expression does
+ * not use are not parsed, so they need not be numbers. Fields are not quoted, and blank lines are skipped.
+ *
+ * @author Moussa
+ */
+final class CsvEvaluator {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BATCH_ROWS = 4 * EvaluationTape.BLOCK_SIZE;
+    private static final byte NEWLINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final int MAX_FAST_EXPONENT = 22;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[MAX_FAST_EXPONENT + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int exponent = 1; exponent <= MAX_FAST_EXPONENT; exponent++) {
+            POWERS_OF_TEN[exponent] = POWERS_OF_TEN[exponent - 1] * 10;
+        }
+    }
+
+    private final @NotNull SyntaxTree tree;
+    private final byte delimiter;
+
+    /**
+     * @param tree      already simplified, since it is only compiled.
+     * @param delimiter the field separator, usually {@code ','} or {@code '\t'}.
+     */
+    public CsvEvaluator(SyntaxTree tree, char delimiter) {
+        if (delimiter > Byte.MAX_VALUE || delimiter == NEWLINE || delimiter == CARRIAGE_RETURN) {
+            throw new IllegalArgumentException("Delimiter must be an ASCII character other than a line break");
+        }
+
+        this.tree = tree;
+        this.delimiter = (byte) delimiter;
+    }
+
+    /**
+     * @return the delimiter for the file's extension: a tab for {@code .tsv} files, and a comma otherwise.
+     */
+    @Contract(pure = true)
+    public static char delimiterFor(Path file) {
+        return file.toString().endsWith(".tsv") ? '\t' : ',';
+    }
+
+    /**
+     * @return the number of rows evaluated.
+     * @throws InvalidExpressionException if the expression uses a variable that is not a column.
+     * @throws IOException                if the file cannot be read, or a used field is not a number.
+     */
+    public long evaluate(Path input, Path output) throws IOException, InvalidExpressionException {
+        try (InputStream in = Files.newInputStream(input);
+             Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(output), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            return evaluate(in, out);
+        }
+    }
+
+    public long evaluate(InputStream in, Writer out) throws IOException, InvalidExpressionException {
+        var reader = new LineReader(in);
+        if (!reader.nextLine()) {
+            throw new IOException("Missing header");
+        }
+
+        List<String> columns = reader.header(delimiter);
+        EvaluationTape tape = EvaluationTape.compile(tree, columns);
+        boolean[] isUsed = usedColumns(columns);
+
+        // Unused columns share one batch of values, which is never written.
+        double[][] values = new double[columns.size()][];
+        double[] unused = new double[BATCH_ROWS];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = isUsed[column] ? new double[BATCH_ROWS] : unused;
+        }
+
+        double[] results = new double[BATCH_ROWS];
+        double[] work = tape.newBatchBuffer();
+        long rows = 0;
+        int batchRows = 0;
+        while (reader.nextLine()) {
+            if (reader.lineStart == reader.lineEnd) {
+                continue;
+            }
+
+            rows++;
+            try {
+                reader.parseRow(delimiter, isUsed, values, batchRows, rows);
+            } catch (IOException e) {
+                // The rows before the invalid one are still written.
+                writeBatch(tape, values, batchRows, results, work, out);
+                throw e;
+            }
+
+            batchRows++;
+            if (batchRows == BATCH_ROWS) {
+                writeBatch(tape, values, batchRows, results, work, out);
+                batchRows = 0;
+            }
+        }
+
+        writeBatch(tape, values, batchRows, results, work, out);
+        return rows;
+    }
+
+    private static void writeBatch(EvaluationTape tape, double[][] values, int rows, double[] results, double[] work, Writer out) throws IOException {
+        tape.evaluateBatch(values, rows, results, work);
+        for (int row = 0; row < rows; row++) {
+            out.write(Double.toString(results[row]));
+            out.write(NEWLINE);
+        }
+    }
+
+    private boolean @NotNull [] usedColumns(List<String> columns) {
+        Set<String> used = new HashSet<>();
+        collectVariables(tree, used);
+        boolean[] isUsed = new boolean[columns.size()];
+        for (int column = 0; column < columns.size(); column++) {
+            // Only the first of several columns with the same name is read, as in the tape.
+            isUsed[column] = used.contains(columns.get(column)) && columns.indexOf(columns.get(column)) == column;
+        }
+
+        return isUsed;
+    }
+
+    private static void collectVariables(SyntaxTree tree, Set<String> variables) {
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            variables.add(tree.getToken());
+        } else if (!tree.isLeaf()) {
+            assert tree.left != null && tree.right != null;
+            collectVariables(tree.left, variables);
+            collectVariables(tree.right, variables);
+        }
+    }
+
+    /**
+     * Parses a decimal number, using exact double arithmetic when the digits and exponent are small enough that
+     * the result is correctly rounded, and {@link Double#parseDouble} otherwise.
+     *
+     * @throws NumberFormatException if the bytes are not a number.
+     */
+    @Contract(pure = true)
+    static double parseDouble(byte[] bytes, int start, int end) {
+        while (start < end && bytes[start] == ' ') {
+            start++;
+        }
+
+        while (end > start && bytes[end - 1] == ' ') {
+            end--;
+        }
+
+        int idx = start;
+        boolean isNegative = false;
+        if (idx < end && (bytes[idx] == '-' || bytes[idx] == '+')) {
+            isNegative = bytes[idx] == '-';
+            idx++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        boolean isExact = true;
+        boolean isAfterPoint = false;
+        for (; idx < end; idx++) {
+            byte chr = bytes[idx];
+            if (chr >= '0' && chr <= '9') {
+                digits++;
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = 10 * mantissa + (chr - '0');
+                    if (isAfterPoint) {
+                        exponent--;
+                    }
+                } else {
+                    isExact = false;
+                }
+            } else if (chr == '.' && !isAfterPoint) {
+                isAfterPoint = true;
+            } else {
+                break;
+            }
+        }
+
+        if (idx < end && (bytes[idx] == 'e' || bytes[idx] == 'E') && digits > 0) {
+            idx++;
+            boolean isNegativeExponent = false;
+            if (idx < end && (bytes[idx] == '-' || bytes[idx] == '+')) {
+                isNegativeExponent = bytes[idx] == '-';
+                idx++;
+            }
+
+            int exponentStart = idx;
+            int explicitExponent = 0;
+            for (; idx < end && bytes[idx] >= '0' && bytes[idx] <= '9'; idx++) {
+                explicitExponent = Math.min(10 * explicitExponent + (bytes[idx] - '0'), 1 << 20);
+            }
+
+            isExact &= idx > exponentStart;
+            exponent += isNegativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        boolean isFast = isExact && digits > 0 && idx == end && mantissa <= MAX_EXACT_MANTISSA
+                && Math.abs(exponent) <= MAX_FAST_EXPONENT;
+        if (!isFast) {
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return isNegative ? -value : value;
+    }
+
+    /**
+     * Reads lines into a buffer that only grows to fit the longest line.
+     */
+    private static final class LineReader {
+        private final @NotNull InputStream in;
+        private byte[] buffer = new byte[BUFFER_SIZE];
+        private int filled = 0;
+        private int nextLineStart = 0;
+        private boolean isEndOfInput = false;
+        int lineStart = 0;
+        // Excludes the line break
+        int lineEnd = 0;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        boolean nextLine() throws IOException {
+            int scanned = nextLineStart;
+            while (true) {
+                for (int idx = scanned; idx < filled; idx++) {
+                    if (buffer[idx] == NEWLINE) {
+                        setLine(nextLineStart, idx);
+                        nextLineStart = idx + 1;
+                        return true;
+                    }
+                }
+
+                if (isEndOfInput) {
+                    if (nextLineStart == filled) {
+                        return false;
+                    }
+
+                    setLine(nextLineStart, filled);
+                    nextLineStart = filled;
+                    return true;
+                }
+
+                scanned = filled - nextLineStart;
+                fill();
+            }
+        }
+
+        private void setLine(int start, int end) {
+            lineStart = start;
+            lineEnd = end > start && buffer[end - 1] == CARRIAGE_RETURN ? end - 1 : end;
+        }
+
+        /**
+         * Moves the partial line to the front of the buffer and reads more after it.
+         */
+        private void fill() throws IOException {
+            int partial = filled - nextLineStart;
+            if (partial == buffer.length) {
+                buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+            } else {
+                System.arraycopy(buffer, nextLineStart, buffer, 0, partial);
+            }
+
+            nextLineStart = 0;
+            filled = partial;
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read < 0) {
+                isEndOfInput = true;
+            } else {
+                filled += read;
+            }
+        }
+
+        @NotNull List<String> header(byte delimiter) {
+            List<String> columns = new ArrayList<>();
+            int fieldStart = lineStart;
+            for (int idx = lineStart; idx <= lineEnd; idx++) {
+                if (idx == lineEnd || buffer[idx] == delimiter) {
+                    columns.add(new String(buffer, fieldStart, idx - fieldStart, StandardCharsets.UTF_8).strip());
+                    fieldStart = idx + 1;
+                }
+            }
+
+            return columns;
+        }
+
+        /**
+         * @param values receives the used fields, at the index in the batch of each column.
+         */
+        void parseRow(byte delimiter, boolean[] isUsed, double[][] values, int index, long row) throws IOException {
+            int column = 0;
+            int fieldStart = lineStart;
+            for (int idx = lineStart; idx <= lineEnd; idx++) {
+                if (idx < lineEnd && buffer[idx] != delimiter) {
+                    continue;
+                }
+
+                if (column < isUsed.length && isUsed[column]) {
+                    try {
+                        values[column][index] = parseDouble(buffer, fieldStart, idx);
+                    } catch (NumberFormatException e) {
+                        throw new IOException(String.format("Invalid number in row %d, column %d", row, column + 1), e);
+                    }
+                }
+
+                column++;
+                fieldStart = idx + 1;
+            }
+
+            if (column != isUsed.length) {
+                throw new IOException(String.format("Row %d has %d fields, but the header has %d", row, column, isUsed.length));
+            }
+        }
+    }
+}
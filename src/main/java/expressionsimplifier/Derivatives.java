@@ -0,0 +1,150 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Symbolic partial derivatives of syntax trees.
+ * <p>
+ * The partial derivatives of a tree are derived and simplified together: each distinct subexpression is
+ * differentiated once per variable, simplification results are shared, and the results are hash-consed so that
+ * the subterms they have in common are the same instances. {@link LetProgram#of} can then compute them once.
+ *
+ * @author Moussa
+ */
+final class Derivatives {
+    private Derivatives() {
+    }
+
+    /**
+     * @return the simplified partial derivative with respect to each variable, in order.
+     * @throws InvalidExpressionException if a variable appears in an exponent, since there is no logarithm to
+     *                                    express the derivative with. {@link EvaluationTape#gradient} has no such limit.
+     */
+    @Contract(pure = true, value = "_, _ -> new")
+    public static @NotNull List<@NotNull SyntaxTree> gradient(SyntaxTree tree, List<@NotNull String> variables) throws InvalidExpressionException {
+        return gradient(tree, variables, SimplifierBudget.UNLIMITED.start());
+    }
+
+    @Contract(pure = true, value = "_, _, _ -> new")
+    public static @NotNull List<@NotNull SyntaxTree> gradient(SyntaxTree tree, List<@NotNull String> variables, BudgetMeter meter) throws InvalidExpressionException {
+        var dag = new ExpressionDag();
+        SyntaxTree interned = dag.intern(tree);
+        Map<SyntaxTree, SyntaxTree> simplified = new HashMap<>();
+
+        List<SyntaxTree> partials = new ArrayList<>(variables.size());
+        for (var variable : variables) {
+            SyntaxTree derivative = derive(interned, variable, new IdentityHashMap<>());
+            partials.add(dag.intern(ExpressionSimplifier.simplify(derivative, meter, simplified)));
+        }
+
+        return partials;
+    }
+
+    /**
+     * @param derived the derivatives of the subtrees already differentiated, by identity.
+     */
+    private static @NotNull SyntaxTree derive(SyntaxTree tree, String variable, Map<SyntaxTree, SyntaxTree> derived) throws InvalidExpressionException {
+        if (tree.isLeaf()) {
+            boolean isVariable = tree.tokenTypeEquals(TokenType.VARIABLE) && tree.getToken().equals(variable);
+            return isVariable ? SyntaxTree.ONE : SyntaxTree.ZERO;
+        }
+
+        SyntaxTree done = derived.get(tree);
+        if (done != null) {
+            return done;
+        }
+
+        SyntaxTree left = tree.left;
+        SyntaxTree right = tree.right;
+        assert left != null && right != null;
+
+        SyntaxTree leftDerivative = derive(left, variable, derived);
+        SyntaxTree rightDerivative = derive(right, variable, derived);
+        SyntaxTree derivative;
+        switch (Operator.fromToken(tree.getToken())) {
+            case ADD:
+                derivative = add(leftDerivative, rightDerivative);
+                break;
+            case SUB:
+                derivative = subtract(leftDerivative, rightDerivative);
+                break;
+            case MUL:
+                derivative = add(multiply(leftDerivative, right), multiply(left, rightDerivative));
+                break;
+            case DIV:
+                if (rightDerivative.equals(SyntaxTree.ZERO)) {
+                    derivative = divide(leftDerivative, right);
+                    break;
+                }
+
+                SyntaxTree numerator = subtract(multiply(leftDerivative, right), multiply(left, rightDerivative));
+                derivative = divide(numerator, new SyntaxTree(LexNode.POW, right, SyntaxTree.TWO));
+                break;
+            default:
+                if (!rightDerivative.equals(SyntaxTree.ZERO)) {
+                    throw new InvalidExpressionException("Cannot differentiate a variable exponent: " + tree);
+                }
+
+                // The power rule, with the exponent lowered by one.
+                SyntaxTree lowered = new SyntaxTree(LexNode.POW, left, new SyntaxTree(LexNode.SUB, right, SyntaxTree.ONE));
+                derivative = multiply(multiply(right, lowered), leftDerivative);
+                break;
+        }
+
+        derived.put(tree, derivative);
+        return derivative;
+    }
+
+    // These drop the zeros and ones the rules produce, before they can multiply.
+
+    private static @NotNull SyntaxTree add(SyntaxTree left, SyntaxTree right) {
+        if (left.equals(SyntaxTree.ZERO)) {
+            return right;
+        }
+
+        if (right.equals(SyntaxTree.ZERO)) {
+            return left;
+        }
+
+        return new SyntaxTree(LexNode.ADD, left, right);
+    }
+
+    private static @NotNull SyntaxTree subtract(SyntaxTree left, SyntaxTree right) {
+        if (right.equals(SyntaxTree.ZERO)) {
+            return left;
+        }
+
+        if (left.equals(SyntaxTree.ZERO)) {
+            return multiply(SyntaxTree.NEGATIVE_ONE, right);
+        }
+
+        return new SyntaxTree(LexNode.SUB, left, right);
+    }
+
+    private static @NotNull SyntaxTree multiply(SyntaxTree left, SyntaxTree right) {
+        if (left.equals(SyntaxTree.ZERO) || right.equals(SyntaxTree.ZERO)) {
+            return SyntaxTree.ZERO;
+        }
+
+        if (left.equals(SyntaxTree.ONE)) {
+            return right;
+        }
+
+        if (right.equals(SyntaxTree.ONE)) {
+            return left;
+        }
+
+        return new SyntaxTree(LexNode.MUL, left, right);
+    }
+
+    private static @NotNull SyntaxTree divide(SyntaxTree left, SyntaxTree right) {
+        if (left.equals(SyntaxTree.ZERO)) {
+            return SyntaxTree.ZERO;
+        }
+
+        return new SyntaxTree(LexNode.DIV, left, right);
+    }
+}
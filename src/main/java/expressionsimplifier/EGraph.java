@@ -0,0 +1,488 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * An e-graph: a compact representation of many equivalent {@link SyntaxTree}s.
+ * <p>
+ * Nodes are grouped into equivalence classes, tracked with a union-find. Every node refers to its children by
+ * class, so merging two classes makes every expression built from them equivalent as well. Congruence is restored
+ * lazily by {@link #rebuild()}. Each class also tracks its constant value, if it has one, so that constant
+ * subexpressions are folded as they are built.
+ *
+ * @author Moussa
+ */
+final class EGraph {
+    private static final int NO_CHILD = -1;
+
+    private static final class ENode {
+        final @NotNull LexNode node;
+        final int left;
+        final int right;
+        private final int hash;
+
+        ENode(LexNode node, int left, int right) {
+            this.node = node;
+            this.left = left;
+            this.right = right;
+            this.hash = Objects.hash(node, left, right);
+        }
+
+        boolean isLeaf() {
+            return left == NO_CHILD;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            ENode that = (ENode) o;
+            return left == that.left && right == that.right && node.equals(that.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Parent {
+        final @NotNull ENode node;
+        final int classId;
+
+        Parent(ENode node, int classId) {
+            this.node = node;
+            this.classId = classId;
+        }
+    }
+
+    private static final class EClass {
+        @NotNull List<@NotNull ENode> nodes = new ArrayList<>();
+        @NotNull List<@NotNull Parent> parents = new ArrayList<>();
+        @Nullable Rational constant;
+    }
+
+    private int[] unionFind = new int[64];
+    private int classCount;
+    private final @NotNull Map<Integer, EClass> classes = new HashMap<>();
+    private final @NotNull Map<ENode, Integer> hashcons = new HashMap<>();
+    private final @NotNull List<Integer> pending = new ArrayList<>();
+    private final @NotNull BudgetMeter meter;
+
+    EGraph(BudgetMeter meter) {
+        this.meter = meter;
+    }
+
+    /**
+     * @return the number of distinct nodes in the graph.
+     */
+    public int nodeCount() {
+        return hashcons.size();
+    }
+
+    public @NotNull Set<Integer> classIds() {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    public int find(int classId) {
+        int root = classId;
+        while (unionFind[root] != root) {
+            root = unionFind[root];
+        }
+
+        // Path compression
+        while (unionFind[classId] != root) {
+            int next = unionFind[classId];
+            unionFind[classId] = root;
+            classId = next;
+        }
+
+        return root;
+    }
+
+    private int makeClass() {
+        if (classCount == unionFind.length) {
+            unionFind = Arrays.copyOf(unionFind, classCount * 2);
+        }
+
+        unionFind[classCount] = classCount;
+        return classCount++;
+    }
+
+    private @NotNull ENode canonicalize(ENode node) {
+        if (node.isLeaf()) {
+            return node;
+        }
+
+        return new ENode(node.node, find(node.left), find(node.right));
+    }
+
+    public int add(SyntaxTree tree) {
+        if (tree.isLeaf()) {
+            return add(new ENode(tree.node, NO_CHILD, NO_CHILD));
+        }
+
+        assert tree.left != null && tree.right != null;
+        int left = add(tree.left);
+        int right = add(tree.right);
+        return add(new ENode(tree.node, left, right));
+    }
+
+    private int add(LexNode node, int left, int right) {
+        return add(new ENode(node, left, right));
+    }
+
+    private int add(ENode node) {
+        ENode canonical = canonicalize(node);
+        Integer existing = hashcons.get(canonical);
+        if (existing != null) {
+            return find(existing);
+        }
+
+        int id = makeClass();
+        var eClass = new EClass();
+        eClass.nodes.add(canonical);
+        if (!canonical.isLeaf()) {
+            classes.get(canonical.left).parents.add(new Parent(canonical, id));
+            classes.get(canonical.right).parents.add(new Parent(canonical, id));
+        }
+
+        hashcons.put(canonical, id);
+        classes.put(id, eClass);
+
+        Rational constant = evaluate(canonical);
+        eClass.constant = constant;
+        if (constant != null && !canonical.isLeaf()) {
+            var folded = new LexNode(constant.toString(), TokenType.NUMBER);
+            union(id, add(folded, NO_CHILD, NO_CHILD));
+        }
+
+        return find(id);
+    }
+
+    private @Nullable Rational evaluate(ENode node) {
+        try {
+            if (node.isLeaf()) {
+                return node.node.type == TokenType.NUMBER ? Rational.parse(node.node.token) : null;
+            }
+
+            Rational left = classes.get(find(node.left)).constant;
+            Rational right = classes.get(find(node.right)).constant;
+            if (left == null || right == null) {
+                return null;
+            }
+
+            Operator operator = Operator.fromToken(node.node.token);
+            if (operator == Operator.POW && !meter.allowsPow(left, right)) {
+                return null;
+            }
+
+            return operator.apply(left, right);
+        } catch (ArithmeticException | NumberFormatException e) {
+            // Invalid operations such as division by zero are not folded.
+            return null;
+        }
+    }
+
+    /**
+     * Merges two classes. {@link #rebuild()} must be called before the graph is searched again.
+     *
+     * @return the id of the merged class.
+     */
+    public int union(int first, int second) {
+        int a = find(first);
+        int b = find(second);
+        if (a == b) {
+            return a;
+        }
+
+        EClass classA = classes.get(a);
+        EClass classB = classes.get(b);
+        if (classA.nodes.size() + classA.parents.size() < classB.nodes.size() + classB.parents.size()) {
+            int tmpId = a;
+            a = b;
+            b = tmpId;
+            EClass tmpClass = classA;
+            classA = classB;
+            classB = tmpClass;
+        }
+
+        unionFind[b] = a;
+        classA.nodes.addAll(classB.nodes);
+        classA.parents.addAll(classB.parents);
+        if (classA.constant == null) {
+            classA.constant = classB.constant;
+        }
+
+        classes.remove(b);
+        pending.add(a);
+        return a;
+    }
+
+    /**
+     * Restores the congruence invariant: nodes whose children are in the same classes are in the same class.
+     */
+    public void rebuild() {
+        while (!pending.isEmpty()) {
+            Set<Integer> todo = new LinkedHashSet<>();
+            for (int id : pending) {
+                todo.add(find(id));
+            }
+
+            pending.clear();
+            for (int id : todo) {
+                repair(find(id));
+            }
+        }
+    }
+
+    private void repair(int id) {
+        EClass eClass = classes.get(id);
+        List<Parent> parents = eClass.parents;
+        eClass.parents = new ArrayList<>();
+
+        for (var parent : parents) {
+            hashcons.remove(parent.node);
+            hashcons.put(canonicalize(parent.node), find(parent.classId));
+        }
+
+        // Parents that became congruent are merged.
+        Map<ENode, Integer> uniqueParents = new LinkedHashMap<>();
+        for (var parent : parents) {
+            ENode canonical = canonicalize(parent.node);
+            Integer congruent = uniqueParents.get(canonical);
+            int parentId = congruent != null ? union(congruent, parent.classId) : find(parent.classId);
+            uniqueParents.put(canonical, parentId);
+        }
+
+        EClass repaired = classes.get(find(id));
+        for (var entry : uniqueParents.entrySet()) {
+            repaired.parents.add(new Parent(entry.getKey(), find(entry.getValue())));
+        }
+
+        repaired.nodes = new ArrayList<>(new LinkedHashSet<>(canonicalizeAll(repaired.nodes)));
+
+        // If the class is constant, its parents may now be foldable too.
+        if (repaired.constant != null) {
+            for (int parentId : uniqueParents.values()) {
+                foldConstant(find(parentId));
+            }
+        }
+    }
+
+    private @NotNull List<ENode> canonicalizeAll(List<ENode> nodes) {
+        List<ENode> canonical = new ArrayList<>(nodes.size());
+        for (var node : nodes) {
+            canonical.add(canonicalize(node));
+        }
+
+        return canonical;
+    }
+
+    private void foldConstant(int id) {
+        EClass eClass = classes.get(id);
+        if (eClass == null || eClass.constant != null) {
+            return;
+        }
+
+        for (var node : new ArrayList<>(eClass.nodes)) {
+            Rational constant = evaluate(canonicalize(node));
+            if (constant != null) {
+                eClass.constant = constant;
+                var folded = new LexNode(constant.toString(), TokenType.NUMBER);
+                union(id, add(folded, NO_CHILD, NO_CHILD));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds every way the pattern matches an expression in the class.
+     *
+     * @return the bindings of each match, from pattern names to class ids.
+     */
+    public @NotNull List<Map<String, Integer>> match(Pattern pattern, int classId) {
+        List<Map<String, Integer>> matches = new ArrayList<>();
+        match(pattern, find(classId), Collections.emptyMap(), matches);
+        return matches;
+    }
+
+    private void match(Pattern pattern, int classId, Map<String, Integer> bindings, List<Map<String, Integer>> matches) {
+        EClass eClass = classes.get(classId);
+        switch (pattern.kind) {
+            case ANY:
+                bind(pattern, classId, bindings, matches);
+                return;
+            case NUMBER:
+            case VARIABLE:
+                TokenType type = pattern.kind == Pattern.Kind.NUMBER ? TokenType.NUMBER : TokenType.VARIABLE;
+                for (var node : eClass.nodes) {
+                    if (node.node.type == type) {
+                        bind(pattern, classId, bindings, matches);
+                        return;
+                    }
+                }
+                return;
+            case LITERAL:
+                for (var node : eClass.nodes) {
+                    if (node.isLeaf() && node.node.equals(pattern.getNode())) {
+                        matches.add(bindings);
+                        return;
+                    }
+                }
+                return;
+            default:
+                assert pattern.left != null && pattern.right != null;
+                for (var node : eClass.nodes) {
+                    if (node.isLeaf() || !node.node.equals(pattern.getNode())) {
+                        continue;
+                    }
+
+                    List<Map<String, Integer>> leftMatches = new ArrayList<>();
+                    match(pattern.left, find(node.left), bindings, leftMatches);
+                    for (var leftBindings : leftMatches) {
+                        match(pattern.right, find(node.right), leftBindings, matches);
+                    }
+                }
+        }
+    }
+
+    private void bind(Pattern pattern, int classId, Map<String, Integer> bindings, List<Map<String, Integer>> matches) {
+        String name = pattern.getName();
+        Integer bound = bindings.get(name);
+        if (bound != null) {
+            if (find(bound) == classId) {
+                matches.add(bindings);
+            }
+
+            return;
+        }
+
+        Map<String, Integer> extended = new HashMap<>(bindings);
+        extended.put(name, classId);
+        matches.add(extended);
+    }
+
+    /**
+     * Adds the expression described by the pattern, with names replaced by their bound classes.
+     *
+     * @return the id of the class containing it.
+     */
+    public int instantiate(Pattern pattern, Map<String, Integer> bindings) {
+        if (pattern.kind == Pattern.Kind.LITERAL) {
+            LexNode node = pattern.getNode();
+            assert node != null;
+            return add(node, NO_CHILD, NO_CHILD);
+        }
+
+        if (pattern.kind == Pattern.Kind.OPERATOR) {
+            assert pattern.left != null && pattern.right != null && pattern.getNode() != null;
+            int left = instantiate(pattern.left, bindings);
+            int right = instantiate(pattern.right, bindings);
+            return add(pattern.getNode(), left, right);
+        }
+
+        Integer bound = bindings.get(pattern.getName());
+        if (bound == null) {
+            throw new IllegalStateException("Unbound pattern variable: " + pattern.getName());
+        }
+
+        return find(bound);
+    }
+
+    /**
+     * @return a number leaf in the class, if there is one.
+     */
+    public @Nullable SyntaxTree numberLeaf(int classId) {
+        for (var node : classes.get(find(classId)).nodes) {
+            if (node.isLeaf() && node.node.type == TokenType.NUMBER) {
+                return new SyntaxTree(node.node);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Computes the cheapest expression represented by each class.
+     *
+     * @return a function from class ids to their cheapest expressions.
+     */
+    @Contract(pure = true)
+    public @NotNull Extraction extract() {
+        return new Extraction();
+    }
+
+    final class Extraction {
+        private final Map<Integer, Long> costs = new HashMap<>();
+        private final Map<Integer, ENode> bestNodes = new HashMap<>();
+        private final Map<Integer, SyntaxTree> trees = new HashMap<>();
+
+        private Extraction() {
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (var entry : classes.entrySet()) {
+                    for (var node : entry.getValue().nodes) {
+                        Long cost = nodeCost(node);
+                        Long best = costs.get(entry.getKey());
+                        if (cost != null && (best == null || cost < best)) {
+                            costs.put(entry.getKey(), cost);
+                            bestNodes.put(entry.getKey(), node);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        private @Nullable Long nodeCost(ENode node) {
+            if (node.isLeaf()) {
+                return EqualitySaturation.leafCost(node.node);
+            }
+
+            Long left = costs.get(find(node.left));
+            Long right = costs.get(find(node.right));
+            if (left == null || right == null) {
+                return null;
+            }
+
+            return EqualitySaturation.operatorCost(node.node) + left + right;
+        }
+
+        public long cost(int classId) {
+            return costs.get(find(classId));
+        }
+
+        /**
+         * Subexpressions shared between classes are shared between the returned trees.
+         */
+        public @NotNull SyntaxTree tree(int classId) {
+            int id = find(classId);
+            SyntaxTree tree = trees.get(id);
+            if (tree != null) {
+                return tree;
+            }
+
+            ENode node = bestNodes.get(id);
+            if (node.isLeaf()) {
+                tree = new SyntaxTree(node.node);
+            } else {
+                tree = new SyntaxTree(node.node, tree(node.left), tree(node.right));
+            }
+
+            trees.put(id, tree);
+            return tree;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Duration;
+import java.util.*;
+
+import static expressionsimplifier.Pattern.*;
+
+/**
+ * Simplifies expressions by equality saturation: rewrite rules are applied in every possible way at once in an
+ * {@link EGraph}, so the result does not depend on the order in which they are tried. The cheapest expression to
+ * evaluate is then extracted.
+ * <p>
+ * Saturation stops when no rule adds anything new, or when the time, node or iteration budget runs out. The
+ * extracted expression is never more expensive than any of the input forms.
+ *
+ * @author Moussa
+ */
+final class EqualitySaturation implements Simplifier {
+    public static final @NotNull List<@NotNull RewriteRule> SATURATION_RULES = List.of(
+            new RewriteRule("add-comm", op(Operator.ADD, any("a"), any("b")), op(Operator.ADD, any("b"), any("a"))),
+            new RewriteRule("mul-comm", op(Operator.MUL, any("a"), any("b")), op(Operator.MUL, any("b"), any("a"))),
+            new RewriteRule("add-assoc", op(Operator.ADD, op(Operator.ADD, any("a"), any("b")), any("c")),
+                    op(Operator.ADD, any("a"), op(Operator.ADD, any("b"), any("c")))),
+            new RewriteRule("add-assoc-rev", op(Operator.ADD, any("a"), op(Operator.ADD, any("b"), any("c"))),
+                    op(Operator.ADD, op(Operator.ADD, any("a"), any("b")), any("c"))),
+            new RewriteRule("mul-assoc", op(Operator.MUL, op(Operator.MUL, any("a"), any("b")), any("c")),
+                    op(Operator.MUL, any("a"), op(Operator.MUL, any("b"), any("c")))),
+            new RewriteRule("mul-assoc-rev", op(Operator.MUL, any("a"), op(Operator.MUL, any("b"), any("c"))),
+                    op(Operator.MUL, op(Operator.MUL, any("a"), any("b")), any("c"))),
+            new RewriteRule("sub-add-neg", op(Operator.SUB, any("a"), any("b")),
+                    op(Operator.ADD, any("a"), op(Operator.MUL, literal(SyntaxTree.NEGATIVE_ONE), any("b")))),
+            new RewriteRule("add-neg-sub", op(Operator.ADD, any("a"), op(Operator.MUL, literal(SyntaxTree.NEGATIVE_ONE), any("b"))),
+                    op(Operator.SUB, any("a"), any("b"))),
+            new RewriteRule("factor-add", op(Operator.ADD, op(Operator.MUL, any("a"), any("b")), op(Operator.MUL, any("a"), any("c"))),
+                    op(Operator.MUL, any("a"), op(Operator.ADD, any("b"), any("c")))),
+            new RewriteRule("factor-sub", op(Operator.SUB, op(Operator.MUL, any("a"), any("b")), op(Operator.MUL, any("a"), any("c"))),
+                    op(Operator.MUL, any("a"), op(Operator.SUB, any("b"), any("c")))),
+            new RewriteRule("add-self", op(Operator.ADD, any("a"), any("a")), op(Operator.MUL, literal(SyntaxTree.TWO), any("a"))),
+            new RewriteRule("mul-self", op(Operator.MUL, any("a"), any("a")), op(Operator.POW, any("a"), literal(SyntaxTree.TWO))),
+            new RewriteRule("mul-pow", op(Operator.MUL, op(Operator.POW, any("a"), number("m")), any("a")),
+                    op(Operator.POW, any("a"), op(Operator.ADD, number("m"), ONE))),
+            new RewriteRule("mul-pows", op(Operator.MUL, op(Operator.POW, any("a"), number("m")), op(Operator.POW, any("a"), number("n"))),
+                    op(Operator.POW, any("a"), op(Operator.ADD, number("m"), number("n")))),
+            new RewriteRule("mul-div", op(Operator.DIV, op(Operator.MUL, any("a"), any("b")), any("c")),
+                    op(Operator.MUL, any("a"), op(Operator.DIV, any("b"), any("c")))),
+            new RewriteRule("mul-div-rev", op(Operator.MUL, any("a"), op(Operator.DIV, any("b"), any("c"))),
+                    op(Operator.DIV, op(Operator.MUL, any("a"), any("b")), any("c")))
+    );
+
+    public static final @NotNull EqualitySaturation DEFAULT = new EqualitySaturation(Duration.ofMillis(200), 20_000);
+
+    // Keeps the node count as a tie-breaker below the operator costs.
+    private static final long OPERATOR_COST_SCALE = 1024;
+    private static final int MAX_ITERATIONS = 64;
+
+    private final @NotNull Duration timeLimit;
+    private final int nodeLimit;
+    private final @NotNull List<@NotNull RewriteRule> rules;
+
+    public EqualitySaturation(Duration timeLimit, int nodeLimit) {
+        this(timeLimit, nodeLimit, defaultRules());
+    }
+
+    public EqualitySaturation(Duration timeLimit, int nodeLimit, List<@NotNull RewriteRule> rules) {
+        this.timeLimit = timeLimit;
+        this.nodeLimit = nodeLimit;
+        this.rules = List.copyOf(rules);
+    }
+
+    private static @NotNull List<@NotNull RewriteRule> defaultRules() {
+        List<RewriteRule> rules = new ArrayList<>(AlgebraicIdentities.RULES);
+        rules.addAll(SATURATION_RULES);
+        return rules;
+    }
+
+    static long leafCost(LexNode node) {
+        return 1;
+    }
+
+    static long operatorCost(LexNode node) {
+        return Operator.fromToken(node.token).cost * OPERATOR_COST_SCALE + 1;
+    }
+
+    /**
+     * @return the cost of evaluating the tree, counting shared subtrees once per occurrence.
+     */
+    public static long cost(SyntaxTree tree) {
+        if (tree.isLeaf()) {
+            return leafCost(tree.node);
+        }
+
+        assert tree.left != null && tree.right != null;
+        return operatorCost(tree.node) + cost(tree.left) + cost(tree.right);
+    }
+
+    @Override
+    @Contract(pure = true)
+    public SyntaxTree simplify(SyntaxTree tree) {
+        return saturate(List.of(tree), SimplifierBudget.UNLIMITED.start());
+    }
+
+    /**
+     * @param equivalentForms trees known to be equal, used together as the starting point.
+     * @param meter            checked between rule applications, and limits the size of folded constants.
+     * @return the cheapest expression found.
+     */
+    @Contract(pure = true)
+    public @NotNull SyntaxTree saturate(List<@NotNull SyntaxTree> equivalentForms, BudgetMeter meter) {
+        long deadline = System.nanoTime() + timeLimit.toNanos();
+        var graph = new EGraph(meter);
+
+        int root = graph.add(equivalentForms.get(0));
+        for (var form : equivalentForms.subList(1, equivalentForms.size())) {
+            root = graph.union(root, graph.add(form));
+        }
+
+        graph.rebuild();
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            if (!applyRules(graph, deadline, meter)) {
+                break;
+            }
+        }
+
+        return graph.extract().tree(root);
+    }
+
+    /**
+     * Runs one round of rule applications.
+     *
+     * @return whether the graph changed and the budget allows another round.
+     */
+    private boolean applyRules(EGraph graph, long deadline, BudgetMeter meter) {
+        int nodeCount = graph.nodeCount();
+        int classCount = graph.classIds().size();
+
+        // All matches are found before any are applied, so the round does not depend on the rule order.
+        List<RewriteRule> matchedRules = new ArrayList<>();
+        List<Map<String, Integer>> matchedBindings = new ArrayList<>();
+        List<Integer> matchedClasses = new ArrayList<>();
+        for (var rule : rules) {
+            for (int classId : new ArrayList<>(graph.classIds())) {
+                for (var bindings : graph.match(rule.pattern, classId)) {
+                    matchedRules.add(rule);
+                    matchedBindings.add(bindings);
+                    matchedClasses.add(classId);
+                }
+            }
+
+            meter.checkpoint();
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+        }
+
+        for (int idx = 0; idx < matchedRules.size(); idx++) {
+            meter.checkpoint();
+            if (graph.nodeCount() >= nodeLimit || System.nanoTime() > deadline) {
+                graph.rebuild();
+                return false;
+            }
+
+            RewriteRule rule = matchedRules.get(idx);
+            Map<String, Integer> bindings = matchedBindings.get(idx);
+            if (rule.hasGuard() && !guard(rule, bindings, graph)) {
+                continue;
+            }
+
+            int rewritten = graph.instantiate(rule.replacement, bindings);
+            graph.union(matchedClasses.get(idx), rewritten);
+        }
+
+        graph.rebuild();
+        return graph.nodeCount() != nodeCount || graph.classIds().size() != classCount;
+    }
+
+    private static boolean guard(RewriteRule rule, Map<String, Integer> bindings, EGraph graph) {
+        Map<String, SyntaxTree> trees = new HashMap<>();
+        EGraph.Extraction extraction = null;
+        for (var entry : bindings.entrySet()) {
+            SyntaxTree tree = graph.numberLeaf(entry.getValue());
+            if (tree == null) {
+                if (extraction == null) {
+                    extraction = graph.extract();
+                }
+
+                tree = extraction.tree(entry.getValue());
+            }
+
+            trees.put(entry.getKey(), tree);
+        }
+
+        return rule.test(trees);
+    }
+}
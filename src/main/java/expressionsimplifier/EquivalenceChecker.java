@@ -0,0 +1,420 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Decides with high probability whether two expressions are equal, by evaluating them at random points, each in the
+ * field of integers modulo its own random prime between 2^61 and 2^62.
+ * <p>
+ * Sums, differences, products, quotients and integer powers are computed exactly in the field. Two different
+ * rational functions of degree at most d agree at a random point with probability at most about d/2^61, so a few
+ * points separate them almost surely. Other powers cannot be computed in the field, so they are evaluated as a random
+ * function of their operands' values: expressions that agree on their operands still agree, but identities such as
+ * {@code x^0.5*x^0.5 = x} are not recognized. Constant subexpressions are computed exactly while they are small, and
+ * one whose denominator is a multiple of a prime is given a random value of the constant there rather than being
+ * undefined. The check may therefore miss equivalences, but almost never reports different expressions as
+ * equivalent. Constants that differ by a multiple of every prime, and integer exponents that differ by a multiple of
+ * every prime less one, look equal, but the primes come from the seed, so no fixed expressions do.
+ * <p>
+ * The primes and points depend only on the seed and the variable names, so fingerprints from checkers with the same
+ * seed and number of points can be compared and used as hash keys across expressions, runs and machines.
+ *
+ * @author Moussa
+ */
+final class EquivalenceChecker {
+    public static final @NotNull EquivalenceChecker DEFAULT = new EquivalenceChecker(4, 0x5EED_F1E1DL);
+    // A value that is undefined at a point, because of a division by zero there. It is not a field element.
+    static final long UNDEFINED = -1;
+    // The certainty of the primality test, whose chance of accepting a composite is below 2^-100.
+    private static final int PRIME_CERTAINTY = 100;
+    // Larger constant powers are not computed exactly, to bound the size of the numbers.
+    private static final BigInteger MAX_CONSTANT_EXPONENT = BigInteger.valueOf(64);
+    // Larger constants are computed in the fields, as repeated powers would grow them exponentially.
+    private static final int MAX_CONSTANT_BITS = 1 << 12;
+
+    private final int points;
+    private final long seed;
+    // The field of each point
+    private final Field @NotNull [] fields;
+
+    public EquivalenceChecker(int points, long seed) {
+        if (points < 1) {
+            throw new IllegalArgumentException("At least one point is needed");
+        }
+
+        this.points = points;
+        this.seed = seed;
+        this.fields = new Field[points];
+        for (int point = 0; point < points; point++) {
+            fields[point] = new Field(prime(mix(seed ^ mix(point + 0x2545F4914F6CDD1DL))));
+        }
+    }
+
+    /**
+     * @return the prime of the field of a point.
+     */
+    long getModulus(int point) {
+        return fields[point].modulus;
+    }
+
+    /**
+     * @return the first prime from a random start between 2^61 and 2^62.
+     */
+    private static long prime(long random) {
+        long candidate = (random >>> 3 | 1L << 61) | 1;
+        while (!BigInteger.valueOf(candidate).isProbablePrime(PRIME_CERTAINTY)) {
+            candidate += 2;
+        }
+
+        return candidate;
+    }
+
+    /**
+     * @return whether the expressions are probably equal, and undefined at the same points.
+     */
+    @Contract(pure = true)
+    public boolean probablyEquivalent(SyntaxTree first, SyntaxTree second) {
+        return fingerprint(first).agreesWith(fingerprint(second));
+    }
+
+    /**
+     * @return the values of the expression at the points of this checker.
+     */
+    @Contract(pure = true)
+    public @NotNull Fingerprint fingerprint(SyntaxTree tree) {
+        return new Fingerprint(evaluate(tree, new IdentityHashMap<>(), new IdentityHashMap<>()));
+    }
+
+    /**
+     * @param constants the exact values of the subtrees evaluated so far that are constants.
+     */
+    private long @NotNull [] evaluate(SyntaxTree tree, Map<SyntaxTree, long[]> values, Map<SyntaxTree, Rational> constants) {
+        long[] cached = values.get(tree);
+        if (cached != null) {
+            return cached;
+        }
+
+        var result = new long[points];
+        Rational constant = null;
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            for (int point = 0; point < points; point++) {
+                result[point] = variableValue(tree.getToken(), point);
+            }
+        } else if (tree.isNumber()) {
+            constant = Rational.parse(tree.getToken());
+        } else {
+            assert tree.left != null && tree.right != null;
+            long[] left = evaluate(tree.left, values, constants);
+            long[] right = evaluate(tree.right, values, constants);
+            Operator operator = Operator.fromToken(tree.getToken());
+            Rational leftConstant = constants.get(tree.left);
+            Rational rightConstant = constants.get(tree.right);
+            if (leftConstant != null && rightConstant != null) {
+                constant = fold(operator, leftConstant, rightConstant);
+            }
+
+            if (constant == null && operator == Operator.POW) {
+                for (int point = 0; point < points; point++) {
+                    result[point] = power(left[point], right[point], rightConstant, point);
+                }
+            } else if (constant == null) {
+                for (int point = 0; point < points; point++) {
+                    result[point] = apply(fields[point], operator, left[point], right[point]);
+                }
+            }
+        }
+
+        if (constant != null) {
+            constants.put(tree, constant);
+            for (int point = 0; point < points; point++) {
+                result[point] = constantValue(constant, point);
+            }
+        }
+
+        values.put(tree, result);
+        return result;
+    }
+
+    private static long apply(Field field, Operator operator, long left, long right) {
+        if (left == UNDEFINED || right == UNDEFINED) {
+            return UNDEFINED;
+        }
+
+        switch (operator) {
+            case ADD:
+                return field.add(left, right);
+            case SUB:
+                return field.subtract(left, right);
+            case MUL:
+                return field.multiply(left, right);
+            default:
+                return right == 0 ? UNDEFINED : field.multiply(left, field.inverse(right));
+        }
+    }
+
+    /**
+     * A constant whose denominator is a multiple of the prime has no value in the field, though it is defined, so it
+     * is given a random value of the constant.
+     */
+    private long constantValue(Rational value, int point) {
+        long residue = fields[point].residue(value);
+        if (residue != UNDEFINED) {
+            return residue;
+        }
+
+        long hash = mix(seed ^ mix(point + 0x3C6EF372FE94F82AL));
+        for (byte chr : value.getNumerator().toByteArray()) {
+            hash = mix(hash ^ chr);
+        }
+
+        hash = mix(hash ^ 0x2F);
+        for (byte chr : value.getDenominator().toByteArray()) {
+            hash = mix(hash ^ chr);
+        }
+
+        return Long.remainderUnsigned(hash, fields[point].modulus);
+    }
+
+    /**
+     * Constants are computed exactly, so that one whose denominator is a multiple of a prime is still defined there.
+     *
+     * @return the exact value, or null if it is undefined, not rational or too large.
+     */
+    private static @Nullable Rational fold(Operator operator, Rational left, Rational right) {
+        boolean isExactPower = right.isInteger() && right.getNumerator().abs().compareTo(MAX_CONSTANT_EXPONENT) <= 0;
+        if (operator == Operator.DIV && right.isZero()) {
+            return null;
+        }
+
+        // 0 to a negative power divides by zero.
+        if (operator == Operator.POW && (!isExactPower || left.isZero() && right.signum() < 0)) {
+            return null;
+        }
+
+        Rational value = operator.apply(left, right);
+        return value.bitLength() <= MAX_CONSTANT_BITS ? value : null;
+    }
+
+    /**
+     * @param exponent the exponent if it is constant, or null.
+     */
+    private long power(long base, long exponentValue, @Nullable Rational exponent, int point) {
+        if (base == UNDEFINED || exponentValue == UNDEFINED) {
+            return UNDEFINED;
+        }
+
+        if (exponent == null || !exponent.isInteger()) {
+            return unknownPower(base, exponentValue, point);
+        }
+
+        Field field = fields[point];
+        BigInteger integerExponent = exponent.getNumerator();
+        if (base == 0) {
+            int sign = integerExponent.signum();
+            // 0^0 is 1, as the simplifier has it.
+            return sign > 0 ? 0 : sign == 0 ? field.one : UNDEFINED;
+        }
+
+        // The nonzero elements form a group of order modulus - 1, which also handles negative exponents.
+        return field.pow(base, integerExponent.mod(BigInteger.valueOf(field.modulus - 1)).longValue());
+    }
+
+    private long unknownPower(long base, long exponent, int point) {
+        long hash = mix(seed ^ mix(point + 0x9E3779B97F4A7C15L));
+        hash = mix(hash ^ base);
+        hash = mix(hash ^ exponent);
+        return Long.remainderUnsigned(hash, fields[point].modulus);
+    }
+
+    private long variableValue(String name, int point) {
+        long hash = mix(seed + 0x632BE59BD9B4E019L * (point + 1));
+        for (int idx = 0; idx < name.length(); idx++) {
+            hash = mix(hash ^ name.charAt(idx));
+        }
+
+        return Long.remainderUnsigned(hash, fields[point].modulus);
+    }
+
+    /**
+     * The finalizer of SplitMix64, which spreads every input bit over the output.
+     */
+    private static long mix(long value) {
+        long mixed = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+        return mixed ^ (mixed >>> 31);
+    }
+
+    /**
+     * The integers modulo an odd prime below 2^62. Elements are kept multiplied by R = 2^64, as in Montgomery
+     * multiplication, which reduces a product with multiplications rather than a division. Sums and equality are not
+     * affected, and every value in this class is such an element, so the factor never has to be removed.
+     */
+    static final class Field {
+        final long modulus;
+        // The element 1, which is R
+        final long one;
+        // -1/modulus modulo R
+        private final long negativeInverse;
+        // R^2, which turns an integer into an element
+        private final long rSquared;
+
+        Field(long modulus) {
+            if (modulus < 3 || modulus >= 1L << 62 || (modulus & 1) == 0) {
+                throw new IllegalArgumentException("Not an odd modulus below 2^62: " + modulus);
+            }
+
+            this.modulus = modulus;
+            // Each step of Newton's iteration doubles the correct low bits, from the 3 of an odd number.
+            long inverse = modulus;
+            for (int step = 0; step < 5; step++) {
+                inverse *= 2 - modulus * inverse;
+            }
+
+            this.negativeInverse = -inverse;
+            this.one = Long.remainderUnsigned(-modulus, modulus);
+            this.rSquared = BigInteger.ONE.shiftLeft(2 * Long.SIZE).mod(BigInteger.valueOf(modulus)).longValue();
+        }
+
+        /**
+         * @return the element of an integer in [0, modulus).
+         */
+        long element(long value) {
+            return multiply(value, rSquared);
+        }
+
+        /**
+         * @return the element of the value, or {@link #UNDEFINED} if its denominator is a multiple of the modulus.
+         */
+        long residue(Rational value) {
+            var bigModulus = BigInteger.valueOf(modulus);
+            long numerator = element(value.getNumerator().mod(bigModulus).longValue());
+            long denominator = element(value.getDenominator().mod(bigModulus).longValue());
+            return denominator == 0 ? UNDEFINED : multiply(numerator, inverse(denominator));
+        }
+
+        long add(long left, long right) {
+            long sum = left + right;
+            return sum >= modulus ? sum - modulus : sum;
+        }
+
+        long subtract(long left, long right) {
+            long difference = left - right;
+            return difference < 0 ? difference + modulus : difference;
+        }
+
+        /**
+         * Adds the multiple of the modulus that clears the low 64 bits of the product, and keeps the high ones.
+         */
+        long multiply(long left, long right) {
+            long low = left * right;
+            long high = Math.multiplyHigh(left, right);
+            long factor = low * negativeInverse;
+            // The high bits of the unsigned factor times the modulus
+            long correction = Math.multiplyHigh(factor, modulus) + (factor >> 63 & modulus);
+            long result = high + correction + (low == 0 ? 0 : 1);
+            return result >= modulus ? result - modulus : result;
+        }
+
+        long pow(long base, long exponent) {
+            long result = one;
+            for (long exp = exponent; exp > 0; exp >>= 1) {
+                if ((exp & 1) == 1) {
+                    result = multiply(result, base);
+                }
+
+                base = multiply(base, base);
+            }
+
+            return result;
+        }
+
+        /**
+         * @param value a nonzero element.
+         */
+        long inverse(long value) {
+            return pow(value, modulus - 2);
+        }
+    }
+
+    /**
+     * The values of an expression at the points of a checker. Equal expressions that are defined at the points have
+     * equal fingerprints.
+     */
+    public static final class Fingerprint {
+        private final long @NotNull [] values;
+        private final int hash;
+
+        Fingerprint(long[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        public long @NotNull [] getValues() {
+            return values.clone();
+        }
+
+        /**
+         * An undefined value only agrees with another undefined value, since a rational function is undefined at a
+         * random point almost only when it is undefined everywhere, and such an expression is not equal to any
+         * defined one.
+         *
+         * @return whether the values are equal at every point.
+         */
+        public boolean agreesWith(Fingerprint other) {
+            if (values.length != other.values.length) {
+                throw new IllegalArgumentException("Fingerprints from different checkers");
+            }
+
+            return Arrays.equals(values, other.values);
+        }
+
+        public boolean isDefined() {
+            for (var value : values) {
+                if (value == UNDEFINED) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean equals(@Nullable Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            return Arrays.equals(values, ((Fingerprint) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            var text = new StringBuilder();
+            for (var value : values) {
+                if (text.length() > 0) {
+                    text.append(':');
+                }
+
+                text.append(value == UNDEFINED ? "undefined" : Long.toHexString(value));
+            }
+
+            return text.toString();
+        }
+    }
+}
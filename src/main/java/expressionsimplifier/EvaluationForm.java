@@ -0,0 +1,444 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rewrites simplified expressions into forms that are cheaper to evaluate.
+ * <p>
+ * Polynomials in one variable are put in Horner form, and integer powers become chains of multiplications, as
+ * few as possible, in which the powers of a base are computed once and reused. The results are meant to be
+ * evaluated through a DAG, such as {@link EvaluationTape} or {@link LetProgram}, so that the reused powers are
+ * shared. Floating point results may differ in the last bits from the original form.
+ *
+ * @author Moussa
+ */
+final class EvaluationForm {
+    // Larger exponents are left to Math.pow, which is then cheaper.
+    private static final int MAX_CHAIN_EXPONENT = 64;
+    private static final int MAX_POLYNOMIAL_DEGREE = 64;
+    private static final Map<Integer, int[]> SHORTEST_CHAINS = new ConcurrentHashMap<>();
+
+    private EvaluationForm() {
+    }
+
+    /**
+     * The number of operations needed to evaluate an expression, counting each distinct subexpression once.
+     */
+    static final class Cost {
+        public final int additions;
+        public final int multiplications;
+        public final int divisions;
+        public final int powers;
+
+        Cost(int additions, int multiplications, int divisions, int powers) {
+            this.additions = additions;
+            this.multiplications = multiplications;
+            this.divisions = divisions;
+            this.powers = powers;
+        }
+
+        /**
+         * @return the operation counts weighted by {@link Operator#cost}.
+         */
+        public int total() {
+            return additions * Operator.ADD.cost + multiplications * Operator.MUL.cost
+                    + divisions * Operator.DIV.cost + powers * Operator.POW.cost;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return String.format("%d additions, %d multiplications, %d divisions, %d powers (cost %d)",
+                    additions, multiplications, divisions, powers, total());
+        }
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public static @NotNull Cost cost(SyntaxTree tree) {
+        int[] counts = new int[Operator.values().length];
+        countOperations(new ExpressionDag().intern(tree), counts, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return new Cost(counts[Operator.ADD.ordinal()] + counts[Operator.SUB.ordinal()], counts[Operator.MUL.ordinal()],
+                counts[Operator.DIV.ordinal()], counts[Operator.POW.ordinal()]);
+    }
+
+    private static void countOperations(SyntaxTree tree, int[] counts, Set<SyntaxTree> counted) {
+        if (tree.isLeaf() || !counted.add(tree)) {
+            return;
+        }
+
+        assert tree.left != null && tree.right != null;
+        counts[Operator.fromToken(tree.getToken()).ordinal()]++;
+        countOperations(tree.left, counts, counted);
+        countOperations(tree.right, counts, counted);
+    }
+
+    /**
+     * @return the cheapest of the tree and its optimized form, by {@link Cost#total()}.
+     */
+    @Contract(pure = true)
+    public static @NotNull SyntaxTree optimize(SyntaxTree tree) {
+        SyntaxTree optimized = reducePowers(toHorner(tree));
+        return cost(optimized).total() < cost(tree).total() ? optimized : tree;
+    }
+
+    /**
+     * Puts the largest subtrees that are polynomials in one variable in Horner form, where that is cheaper.
+     */
+    @Contract(pure = true)
+    static @NotNull SyntaxTree toHorner(SyntaxTree tree) {
+        if (tree.isLeaf()) {
+            return tree;
+        }
+
+        String variable = singleVariable(tree);
+        if (variable != null) {
+            SortedMap<Integer, Rational> coefficients = coefficients(tree, variable);
+            if (coefficients != null) {
+                SyntaxTree horner = horner(coefficients, new SyntaxTree(new LexNode(variable, TokenType.VARIABLE)));
+                if (cost(reducePowers(horner)).total() < cost(reducePowers(tree)).total()) {
+                    return horner;
+                }
+            }
+        }
+
+        assert tree.left != null && tree.right != null;
+        SyntaxTree left = toHorner(tree.left);
+        SyntaxTree right = toHorner(tree.right);
+        return left == tree.left && right == tree.right ? tree : new SyntaxTree(tree.node, left, right);
+    }
+
+    /**
+     * @return the only variable in the tree, or null if there are none or several.
+     */
+    private static @Nullable String singleVariable(SyntaxTree tree) {
+        Set<String> variables = new HashSet<>();
+        collectVariables(tree, variables);
+        return variables.size() == 1 ? variables.iterator().next() : null;
+    }
+
+    private static void collectVariables(SyntaxTree tree, Set<String> variables) {
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            variables.add(tree.getToken());
+        } else if (!tree.isLeaf()) {
+            assert tree.left != null && tree.right != null;
+            collectVariables(tree.left, variables);
+            collectVariables(tree.right, variables);
+        }
+    }
+
+    /**
+     * @return the nonzero coefficients by degree, or null if the tree is not a polynomial of small degree.
+     */
+    private static @Nullable SortedMap<Integer, Rational> coefficients(SyntaxTree tree, String variable) {
+        if (tree.isNumber()) {
+            return monomial(0, Rational.parse(tree.getToken()));
+        }
+
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            return tree.getToken().equals(variable) ? monomial(1, Rational.ONE) : null;
+        }
+
+        assert tree.left != null && tree.right != null;
+        SortedMap<Integer, Rational> left = coefficients(tree.left, variable);
+        if (left == null) {
+            return null;
+        }
+
+        Operator operator = Operator.fromToken(tree.getToken());
+        if (operator == Operator.POW) {
+            Integer exponent = integerExponent(tree.right);
+            if (exponent == null || exponent < 0 || exponent * degree(left) > MAX_POLYNOMIAL_DEGREE) {
+                return null;
+            }
+
+            SortedMap<Integer, Rational> power = monomial(0, Rational.ONE);
+            for (int idx = 0; idx < exponent; idx++) {
+                power = multiply(power, left);
+            }
+
+            return power;
+        }
+
+        SortedMap<Integer, Rational> right = coefficients(tree.right, variable);
+        if (right == null) {
+            return null;
+        }
+
+        switch (operator) {
+            case ADD:
+                return add(left, right, false);
+            case SUB:
+                return add(left, right, true);
+            case MUL:
+                return degree(left) + degree(right) > MAX_POLYNOMIAL_DEGREE ? null : multiply(left, right);
+            default:
+                // Only division by a nonzero constant keeps a polynomial.
+                if (degree(right) != 0 || right.isEmpty()) {
+                    return null;
+                }
+
+                SortedMap<Integer, Rational> quotient = new TreeMap<>();
+                Rational divisor = right.get(0);
+                left.forEach((degree, coefficient) -> quotient.put(degree, coefficient.divide(divisor)));
+                return quotient;
+        }
+    }
+
+    private static @NotNull SortedMap<Integer, Rational> monomial(int degree, Rational coefficient) {
+        SortedMap<Integer, Rational> polynomial = new TreeMap<>();
+        if (!coefficient.isZero()) {
+            polynomial.put(degree, coefficient);
+        }
+
+        return polynomial;
+    }
+
+    private static int degree(SortedMap<Integer, Rational> polynomial) {
+        return polynomial.isEmpty() ? 0 : polynomial.lastKey();
+    }
+
+    private static @NotNull SortedMap<Integer, Rational> add(SortedMap<Integer, Rational> left, SortedMap<Integer, Rational> right, boolean isSubtraction) {
+        SortedMap<Integer, Rational> sum = new TreeMap<>(left);
+        right.forEach((degree, coefficient) -> {
+            Rational term = isSubtraction ? coefficient.negate() : coefficient;
+            Rational total = sum.getOrDefault(degree, Rational.ZERO).add(term);
+            if (total.isZero()) {
+                sum.remove(degree);
+            } else {
+                sum.put(degree, total);
+            }
+        });
+
+        return sum;
+    }
+
+    private static @NotNull SortedMap<Integer, Rational> multiply(SortedMap<Integer, Rational> left, SortedMap<Integer, Rational> right) {
+        SortedMap<Integer, Rational> product = new TreeMap<>();
+        left.forEach((leftDegree, leftCoefficient) -> right.forEach((rightDegree, rightCoefficient) ->
+                product.merge(leftDegree + rightDegree, leftCoefficient.multiply(rightCoefficient), Rational::add)));
+        product.values().removeIf(Rational::isZero);
+        return product;
+    }
+
+    /**
+     * Builds {@code ((a_n x^(n-m) + a_m) x^(m-k) + a_k) ... x^j}, where {@code n, m, k, ..., j} are the degrees of
+     * the nonzero coefficients.
+     */
+    private static @NotNull SyntaxTree horner(SortedMap<Integer, Rational> coefficients, SyntaxTree variable) {
+        if (coefficients.isEmpty()) {
+            return SyntaxTree.ZERO;
+        }
+
+        List<Integer> degrees = new ArrayList<>(coefficients.keySet());
+        Collections.reverse(degrees);
+
+        int previousDegree = degrees.get(0);
+        SyntaxTree horner = number(coefficients.get(previousDegree));
+        for (int degree : degrees.subList(1, degrees.size())) {
+            horner = multiply(horner, power(variable, previousDegree - degree));
+            Rational coefficient = coefficients.get(degree);
+            if (coefficient.signum() < 0) {
+                horner = new SyntaxTree(LexNode.SUB, horner, number(coefficient.negate()));
+            } else {
+                horner = new SyntaxTree(LexNode.ADD, horner, number(coefficient));
+            }
+
+            previousDegree = degree;
+        }
+
+        return multiply(horner, power(variable, previousDegree));
+    }
+
+    private static @NotNull SyntaxTree number(Rational value) {
+        return new SyntaxTree(new LexNode(value.toString(), TokenType.NUMBER));
+    }
+
+    private static @NotNull SyntaxTree power(SyntaxTree base, int exponent) {
+        if (exponent == 0) {
+            return SyntaxTree.ONE;
+        }
+
+        if (exponent == 1) {
+            return base;
+        }
+
+        return new SyntaxTree(LexNode.POW, base, number(Rational.valueOf(exponent)));
+    }
+
+    private static @NotNull SyntaxTree multiply(SyntaxTree left, SyntaxTree right) {
+        if (left.equals(SyntaxTree.ONE)) {
+            return right;
+        }
+
+        if (right.equals(SyntaxTree.ONE)) {
+            return left;
+        }
+
+        return new SyntaxTree(LexNode.MUL, left, right);
+    }
+
+    private static @Nullable Integer integerExponent(SyntaxTree exponent) {
+        if (!exponent.isNumber()) {
+            return null;
+        }
+
+        Rational value = Rational.parse(exponent.getToken());
+        if (!value.isInteger() || Math.abs(value.doubleValue()) > MAX_CHAIN_EXPONENT) {
+            return null;
+        }
+
+        return (int) value.doubleValue();
+    }
+
+    /**
+     * Replaces integer powers by multiplications. Powers of the same base are built from each other where one
+     * multiplication does, and otherwise along a shortest addition chain whose steps are reused in turn.
+     */
+    @Contract(pure = true)
+    static @NotNull SyntaxTree reducePowers(SyntaxTree tree) {
+        Map<SyntaxTree, SortedSet<Integer>> exponents = new HashMap<>();
+        collectPowers(tree, exponents);
+        return replacePowers(tree, exponents, new HashMap<>());
+    }
+
+    private static void collectPowers(SyntaxTree tree, Map<SyntaxTree, SortedSet<Integer>> exponents) {
+        if (tree.isLeaf()) {
+            return;
+        }
+
+        assert tree.left != null && tree.right != null;
+        Integer exponent = tree.node.equals(LexNode.POW) ? integerExponent(tree.right) : null;
+        if (exponent != null && Math.abs(exponent) >= 2) {
+            exponents.computeIfAbsent(tree.left, base -> new TreeSet<>()).add(Math.abs(exponent));
+        }
+
+        collectPowers(tree.left, exponents);
+        collectPowers(tree.right, exponents);
+    }
+
+    private static @NotNull Map<Integer, SyntaxTree> powerChains(SyntaxTree base, SortedSet<Integer> exponents) {
+        Map<Integer, SyntaxTree> powers = new HashMap<>();
+        powers.put(1, base);
+        for (int exponent : exponents) {
+            if (powers.containsKey(exponent)) {
+                continue;
+            }
+
+            int[] step = oneStep(powers.keySet(), exponent);
+            if (step != null) {
+                powers.put(exponent, new SyntaxTree(LexNode.MUL, powers.get(step[0]), powers.get(step[1])));
+                continue;
+            }
+
+            int[] chain = shortestChain(exponent);
+            for (int idx = 1; idx < chain.length; idx++) {
+                int element = chain[idx];
+                if (powers.containsKey(element)) {
+                    continue;
+                }
+
+                int[] pair = oneStep(powers.keySet(), element);
+                assert pair != null;
+                powers.put(element, new SyntaxTree(LexNode.MUL, powers.get(pair[0]), powers.get(pair[1])));
+            }
+        }
+
+        return powers;
+    }
+
+    /**
+     * @return two of the known exponents that sum to the target, the larger first, or null if there are none.
+     */
+    private static int @Nullable [] oneStep(Set<Integer> known, int target) {
+        int[] best = null;
+        for (int exponent : known) {
+            int other = target - exponent;
+            if (other >= 1 && other <= exponent && known.contains(other) && (best == null || exponent > best[0])) {
+                best = new int[]{exponent, other};
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @param powers the powers of each base that has been reached, built lazily so that the bases' own powers are
+     *               replaced first.
+     */
+    private static @NotNull SyntaxTree replacePowers(SyntaxTree tree, Map<SyntaxTree, SortedSet<Integer>> exponents,
+                                                     Map<SyntaxTree, Map<Integer, SyntaxTree>> powers) {
+        if (tree.isLeaf()) {
+            return tree;
+        }
+
+        assert tree.left != null && tree.right != null;
+        Integer exponent = tree.node.equals(LexNode.POW) ? integerExponent(tree.right) : null;
+        if (exponent != null && Math.abs(exponent) >= 2) {
+            Map<Integer, SyntaxTree> basePowers = powers.get(tree.left);
+            if (basePowers == null) {
+                SyntaxTree base = replacePowers(tree.left, exponents, powers);
+                basePowers = powerChains(base, exponents.get(tree.left));
+                powers.put(tree.left, basePowers);
+            }
+
+            SyntaxTree power = basePowers.get(Math.abs(exponent));
+            return exponent > 0 ? power : new SyntaxTree(LexNode.DIV, SyntaxTree.ONE, power);
+        }
+
+        SyntaxTree left = replacePowers(tree.left, exponents, powers);
+        SyntaxTree right = replacePowers(tree.right, exponents, powers);
+        return left == tree.left && right == tree.right ? tree : new SyntaxTree(tree.node, left, right);
+    }
+
+    /**
+     * @return a shortest addition chain for the exponent: an increasing sequence from 1 to the exponent, in which
+     * each element is the sum of two earlier ones.
+     */
+    static int @NotNull [] shortestChain(int exponent) {
+        return SHORTEST_CHAINS.computeIfAbsent(exponent, target -> {
+            var chain = new int[Integer.SIZE];
+            chain[0] = 1;
+            // Iterative deepening, starting from the lower bound of log2(exponent) steps.
+            for (int length = 31 - Integer.numberOfLeadingZeros(target); ; length++) {
+                if (extendChain(chain, 0, length, target)) {
+                    return Arrays.copyOf(chain, length + 1);
+                }
+            }
+        }).clone();
+    }
+
+    private static boolean extendChain(int[] chain, int last, int length, int target) {
+        if (chain[last] == target) {
+            return true;
+        }
+
+        // Even doubling at every remaining step cannot reach the target.
+        if (last == length || (long) chain[last] << (length - last) < target) {
+            return false;
+        }
+
+        for (int idx = last; idx >= 0; idx--) {
+            for (int other = idx; other >= 0; other--) {
+                int next = chain[idx] + chain[other];
+                if (next <= chain[last]) {
+                    break;
+                }
+
+                if (next > target) {
+                    continue;
+                }
+
+                chain[last + 1] = next;
+                if (extendChain(chain, last + 1, length, target)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+}
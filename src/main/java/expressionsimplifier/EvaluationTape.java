@@ -0,0 +1,363 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * A syntax tree compiled to straight-line code over doubles, for evaluating it many times.
+ * <p>
+ * Each value lives in a slot of a work buffer: first the variables, then the constants, then the result of each
+ * instruction in order. Every instruction reads two earlier slots, so the tape is in static single assignment form.
+ * Equal subexpressions are compiled once.
+ * <p>
+ * {@link #gradient} also computes the partial derivatives with respect to every variable, by a forward sweep
+ * followed by one reverse sweep over the tape. {@link #evaluateBatch} evaluates many rows at once, running each
+ * instruction over a block of rows with a {@link BatchKernel}.
+ *
+ * @author Moussa
+ */
+final class EvaluationTape {
+    static final byte ADD = 0;
+    static final byte SUB = 1;
+    static final byte MUL = 2;
+    static final byte DIV = 3;
+    static final byte POW = 4;
+    // The rows evaluated together by evaluateBatch, small enough that the operands of an instruction stay in cache
+    static final int BLOCK_SIZE = 256;
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL = "expressionsimplifier.VectorKernel";
+
+    public final @NotNull List<@NotNull String> variables;
+    final double @NotNull [] constants;
+    final byte @NotNull [] opcodes;
+    final int @NotNull [] leftSlots;
+    final int @NotNull [] rightSlots;
+    final int resultSlot;
+
+    private EvaluationTape(List<String> variables, double[] constants, byte[] opcodes, int[] leftSlots, int[] rightSlots, int resultSlot) {
+        this.variables = List.copyOf(variables);
+        this.constants = constants;
+        this.opcodes = opcodes;
+        this.leftSlots = leftSlots;
+        this.rightSlots = rightSlots;
+        this.resultSlot = resultSlot;
+    }
+
+    /**
+     * @param variables the order in which variable values are given. It may include variables the tree does not use.
+     * @throws InvalidExpressionException if the tree uses a variable that is not listed.
+     */
+    @Contract(pure = true, value = "_, _ -> new")
+    public static @NotNull EvaluationTape compile(SyntaxTree tree, List<@NotNull String> variables) throws InvalidExpressionException {
+        return new Compiler(variables).compile(new ExpressionDag().intern(tree));
+    }
+
+    public int slotCount() {
+        return variables.size() + constants.length + opcodes.length;
+    }
+
+    int firstInstructionSlot() {
+        return variables.size() + constants.length;
+    }
+
+    /**
+     * @return a work buffer for {@link #evaluate}, which may be reused across calls on one thread.
+     */
+    @Contract(pure = true, value = "-> new")
+    public double @NotNull [] newWorkBuffer() {
+        return new double[slotCount()];
+    }
+
+    /**
+     * Evaluates the tape with IEEE arithmetic, so division by zero gives an infinity or NaN rather than failing.
+     *
+     * @param variableValues in the order of {@link #variables}.
+     * @param work           a buffer from {@link #newWorkBuffer()}, overwritten.
+     */
+    public double evaluate(double[] variableValues, double[] work) {
+        int variableCount = variables.size();
+        System.arraycopy(variableValues, 0, work, 0, variableCount);
+        System.arraycopy(constants, 0, work, variableCount, constants.length);
+
+        int slot = firstInstructionSlot();
+        for (int idx = 0; idx < opcodes.length; idx++, slot++) {
+            double left = work[leftSlots[idx]];
+            double right = work[rightSlots[idx]];
+            double result;
+            switch (opcodes[idx]) {
+                case ADD:
+                    result = left + right;
+                    break;
+                case SUB:
+                    result = left - right;
+                    break;
+                case MUL:
+                    result = left * right;
+                    break;
+                case DIV:
+                    result = left / right;
+                    break;
+                default:
+                    result = Math.pow(left, right);
+                    break;
+            }
+
+            work[slot] = result;
+        }
+
+        return work[resultSlot];
+    }
+
+    /**
+     * @return a work buffer for {@link #evaluateBatch}, with a block of rows per slot, which may be reused across
+     * calls on one thread.
+     */
+    @Contract(pure = true, value = "-> new")
+    public double @NotNull [] newBatchBuffer() {
+        return new double[slotCount() * BLOCK_SIZE];
+    }
+
+    /**
+     * Evaluates the tape for many rows, with the same results as {@link #evaluate} on each row, using the vector
+     * kernel when it is available.
+     *
+     * @param columns the values of each variable, in the order of {@link #variables}, indexed by row.
+     * @param rows    the number of rows, counted from the start of each column.
+     * @param results receives the value of each row.
+     * @param work    a buffer from {@link #newBatchBuffer()}, overwritten.
+     */
+    public void evaluateBatch(double[][] columns, int rows, double[] results, double[] work) {
+        evaluateBatch(bestKernel(), columns, rows, results, work);
+    }
+
+    void evaluateBatch(BatchKernel kernel, double[][] columns, int rows, double[] results, double[] work) {
+        int variableCount = variables.size();
+        for (int idx = 0; idx < constants.length; idx++) {
+            int offset = (variableCount + idx) * BLOCK_SIZE;
+            Arrays.fill(work, offset, offset + BLOCK_SIZE, constants[idx]);
+        }
+
+        for (int start = 0; start < rows; start += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, rows - start);
+            for (int variable = 0; variable < variableCount; variable++) {
+                System.arraycopy(columns[variable], start, work, variable * BLOCK_SIZE, length);
+            }
+
+            int slot = firstInstructionSlot();
+            for (int idx = 0; idx < opcodes.length; idx++, slot++) {
+                kernel.apply(opcodes[idx], work, leftSlots[idx] * BLOCK_SIZE, rightSlots[idx] * BLOCK_SIZE,
+                        slot * BLOCK_SIZE, length);
+            }
+
+            System.arraycopy(work, resultSlot * BLOCK_SIZE, results, start, length);
+        }
+    }
+
+    /**
+     * @return the vector kernel if it was built and its module is present, and the scalar kernel otherwise.
+     */
+    static @NotNull BatchKernel bestKernel() {
+        return Kernels.BEST;
+    }
+
+    /**
+     * @return a work buffer for {@link #gradient}, which holds both the values and their adjoints, and may be reused
+     * across calls on one thread.
+     */
+    @Contract(pure = true, value = "-> new")
+    public double @NotNull [] newGradientBuffer() {
+        return new double[2 * slotCount()];
+    }
+
+    /**
+     * Evaluates the tape, and computes the partial derivative with respect to each variable by reverse-mode
+     * automatic differentiation. Nothing is allocated.
+     *
+     * @param work     a buffer from {@link #newGradientBuffer()}, overwritten.
+     * @param gradient receives the partial derivatives, in the order of {@link #variables}.
+     * @return the value.
+     */
+    public double gradient(double[] variableValues, double[] work, double[] gradient) {
+        double value = evaluate(variableValues, work);
+
+        int slotCount = slotCount();
+        Arrays.fill(work, slotCount, 2 * slotCount, 0);
+        work[slotCount + resultSlot] = 1;
+
+        int firstInstructionSlot = firstInstructionSlot();
+        for (int idx = opcodes.length - 1; idx >= 0; idx--) {
+            int slot = firstInstructionSlot + idx;
+            double adjoint = work[slotCount + slot];
+            if (adjoint == 0) {
+                continue;
+            }
+
+            int leftSlot = leftSlots[idx];
+            int rightSlot = rightSlots[idx];
+            double left = work[leftSlot];
+            double right = work[rightSlot];
+            switch (opcodes[idx]) {
+                case ADD:
+                    work[slotCount + leftSlot] += adjoint;
+                    work[slotCount + rightSlot] += adjoint;
+                    break;
+                case SUB:
+                    work[slotCount + leftSlot] += adjoint;
+                    work[slotCount + rightSlot] -= adjoint;
+                    break;
+                case MUL:
+                    work[slotCount + leftSlot] += adjoint * right;
+                    work[slotCount + rightSlot] += adjoint * left;
+                    break;
+                case DIV:
+                    work[slotCount + leftSlot] += adjoint / right;
+                    work[slotCount + rightSlot] -= adjoint * work[slot] / right;
+                    break;
+                default:
+                    work[slotCount + leftSlot] += adjoint * right * Math.pow(left, right - 1);
+                    // The derivative of a constant exponent is not needed, and would be NaN for negative bases.
+                    if (!isConstant(rightSlot)) {
+                        work[slotCount + rightSlot] += adjoint * work[slot] * Math.log(left);
+                    }
+                    break;
+            }
+        }
+
+        System.arraycopy(work, slotCount, gradient, 0, variables.size());
+        return value;
+    }
+
+    private boolean isConstant(int slot) {
+        return slot >= variables.size() && slot < firstInstructionSlot();
+    }
+
+    static byte opcode(String operator) {
+        switch (Operator.fromToken(operator)) {
+            case ADD:
+                return ADD;
+            case SUB:
+                return SUB;
+            case MUL:
+                return MUL;
+            case DIV:
+                return DIV;
+            default:
+                return POW;
+        }
+    }
+
+    /**
+     * Looked up on first use, so that evaluating rows one at a time never loads a kernel.
+     */
+    private static final class Kernels {
+        static final @NotNull BatchKernel BEST = load();
+
+        private Kernels() {
+        }
+
+        private static @NotNull BatchKernel load() {
+            if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+                try {
+                    return (BatchKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // Built without the vector profile, or run from the classes of an older JDK.
+                }
+            }
+
+            return ScalarKernel.INSTANCE;
+        }
+    }
+
+    private static final class Compiler {
+        private final @NotNull List<String> variables;
+        // The slot of each variable by symbol id, or -1 if it is not listed
+        private int @NotNull [] variableSlots;
+        private final @NotNull Map<SyntaxTree, Integer> constantIndices = new IdentityHashMap<>();
+        private final @NotNull Map<SyntaxTree, Integer> instructionIndices = new IdentityHashMap<>();
+        private final @NotNull List<SyntaxTree> instructions = new ArrayList<>();
+        private double[] constants = new double[8];
+
+        Compiler(List<String> variables) {
+            this.variables = variables;
+            this.variableSlots = new int[0];
+            for (int slot = 0; slot < variables.size(); slot++) {
+                int symbol = SymbolTable.intern(variables.get(slot));
+                if (symbol >= variableSlots.length) {
+                    int oldLength = variableSlots.length;
+                    variableSlots = Arrays.copyOf(variableSlots, Math.max(symbol + 1, 2 * oldLength));
+                    Arrays.fill(variableSlots, oldLength, variableSlots.length, -1);
+                }
+
+                if (variableSlots[symbol] < 0) {
+                    variableSlots[symbol] = slot;
+                }
+            }
+        }
+
+        @NotNull EvaluationTape compile(SyntaxTree tree) throws InvalidExpressionException {
+            order(tree);
+
+            // Slots are only known once the number of constants is.
+            int firstInstructionSlot = variables.size() + constantIndices.size();
+            var opcodes = new byte[instructions.size()];
+            var leftSlots = new int[instructions.size()];
+            var rightSlots = new int[instructions.size()];
+            for (int idx = 0; idx < instructions.size(); idx++) {
+                SyntaxTree instruction = instructions.get(idx);
+                assert instruction.left != null && instruction.right != null;
+                opcodes[idx] = opcode(instruction.getToken());
+                leftSlots[idx] = slot(instruction.left, firstInstructionSlot);
+                rightSlots[idx] = slot(instruction.right, firstInstructionSlot);
+            }
+
+            return new EvaluationTape(variables, Arrays.copyOf(constants, constantIndices.size()),
+                    opcodes, leftSlots, rightSlots, slot(tree, firstInstructionSlot));
+        }
+
+        /**
+         * Numbers the constants and instructions, putting each instruction after its operands.
+         */
+        private void order(SyntaxTree tree) throws InvalidExpressionException {
+            if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+                if (variableSlot(tree) < 0) {
+                    throw new InvalidExpressionException("Unknown variable: " + tree.getToken());
+                }
+            } else if (tree.isNumber()) {
+                if (!constantIndices.containsKey(tree)) {
+                    int index = constantIndices.size();
+                    if (index == constants.length) {
+                        constants = Arrays.copyOf(constants, 2 * index);
+                    }
+
+                    constants[index] = Rational.parse(tree.getToken()).doubleValue();
+                    constantIndices.put(tree, index);
+                }
+            } else if (!instructionIndices.containsKey(tree)) {
+                assert tree.left != null && tree.right != null;
+                order(tree.left);
+                order(tree.right);
+                instructionIndices.put(tree, instructions.size());
+                instructions.add(tree);
+            }
+        }
+
+        private int variableSlot(SyntaxTree tree) {
+            int symbol = tree.node.symbol;
+            return symbol < variableSlots.length ? variableSlots[symbol] : -1;
+        }
+
+        private int slot(SyntaxTree tree, int firstInstructionSlot) {
+            if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+                return variableSlot(tree);
+            }
+
+            if (tree.isNumber()) {
+                return variables.size() + constantIndices.get(tree);
+            }
+
+            return firstInstructionSlot + instructionIndices.get(tree);
+        }
+    }
+}
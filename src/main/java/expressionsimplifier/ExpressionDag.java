@@ -0,0 +1,47 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash-conses syntax trees, so that equal subexpressions of every interned tree are the same instance.
+ * The interned trees together form a directed acyclic graph in which each distinct subexpression appears once.
+ *
+ * @author Moussa
+ */
+final class ExpressionDag {
+    private final @NotNull Map<SyntaxTree, SyntaxTree> canonicalTrees = new HashMap<>();
+
+    /**
+     * @return a tree equal to the given one, built from the canonical instances of its subexpressions.
+     */
+    @Contract(pure = false)
+    public @NotNull SyntaxTree intern(SyntaxTree tree) {
+        SyntaxTree canonical = canonicalTrees.get(tree);
+        if (canonical != null) {
+            return canonical;
+        }
+
+        if (tree.isLeaf()) {
+            canonicalTrees.put(tree, tree);
+            return tree;
+        }
+
+        assert tree.left != null && tree.right != null;
+        SyntaxTree left = intern(tree.left);
+        SyntaxTree right = intern(tree.right);
+        canonical = left == tree.left && right == tree.right ? tree : new SyntaxTree(tree.node, left, right);
+        canonicalTrees.put(canonical, canonical);
+        return canonical;
+    }
+
+    /**
+     * @return the number of distinct subexpressions interned.
+     */
+    public int size() {
+        return canonicalTrees.size();
+    }
+}
@@ -5,8 +5,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.function.Predicate;
 
 import static expressionsimplifier.Constants.*;
 
@@ -16,12 +16,90 @@ import static expressionsimplifier.Constants.*;
 final class ExpressionLexer {
     private final @NotNull List<@NotNull LexNode> lexNodes = new ArrayList<>();
     private final @NotNull String expr;
+    // Where the lexed part of the text ends, which is before the end of the text for a subexpression
+    private final int end;
+    private final @NotNull BudgetMeter meter;
+    // Nesting depth of the parentheses enclosing the expression
+    private final int depth;
+    // Whether a subexpression token holds its text, rather than only its position for subExprLexer
+    private final boolean keepsSubExprText;
+    // Matched once for the whole text when first needed, and shared with the lexers of subexpressions
+    private @Nullable Parens parens;
     private @NotNull String token = "";
     private @Nullable TokenType prevTokenType;
     private int currPos;
+    private int[] tokenStarts = new int[16];
+    private int[] tokenEnds = new int[16];
 
     public ExpressionLexer(String expr) {
-        this.expr = expr.replaceAll("\\s+", "");
+        this(expr, SimplifierBudget.UNLIMITED.start(), 1);
+    }
+
+    /**
+     * @param expr read once, so it may be a view of a larger buffer.
+     */
+    public ExpressionLexer(CharSequence expr, BudgetMeter meter, int depth) {
+        this(expr, meter, depth, true);
+    }
+
+    private ExpressionLexer(CharSequence expr, BudgetMeter meter, int depth, boolean keepsSubExprText) {
+        meter.checkInputLength(expr.length());
+        this.expr = removeWhitespace(expr);
+        this.end = this.expr.length();
+        this.meter = meter;
+        this.depth = depth;
+        this.keepsSubExprText = keepsSubExprText;
+    }
+
+    private ExpressionLexer(ExpressionLexer parent, int start, int end) {
+        this.expr = parent.expr;
+        this.end = end;
+        this.meter = parent.meter;
+        this.depth = parent.depth + 1;
+        this.keepsSubExprText = false;
+        this.parens = parent.parens;
+        this.currPos = start;
+    }
+
+    /**
+     * @return a lexer of the whole expression whose subexpressions are lexed with {@link #subExprLexer}, in the same
+     * text, so that nested parentheses are neither copied nor scanned again at each level.
+     */
+    static @NotNull ExpressionLexer forNesting(CharSequence expr, BudgetMeter meter) {
+        return new ExpressionLexer(expr, meter, 1, false);
+    }
+
+    /**
+     * @param index of a subexpression token lexed by this lexer.
+     * @return a lexer of the text inside its parentheses.
+     */
+    @NotNull ExpressionLexer subExprLexer(int index) {
+        assert lexNodes.get(index).type == TokenType.SUBEXPR;
+        return new ExpressionLexer(this, tokenStarts[index] + 1, tokenEnds[index] - 1);
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    @Contract(pure = true)
+    static @NotNull String removeWhitespace(CharSequence expr) {
+        var stripped = new StringBuilder(expr.length());
+        for (int idx = 0; idx < expr.length(); idx++) {
+            char chr = expr.charAt(idx);
+            if (!isWhitespace(chr)) {
+                stripped.append(chr);
+            }
+        }
+
+        return stripped.toString();
+    }
+
+    /**
+     * @return whether the character is whitespace matched by the regex \s, which the lexer ignores.
+     */
+    static boolean isWhitespace(char chr) {
+        return chr == ' ' || (chr >= '\t' && chr <= '\r');
     }
 
     public @NotNull List<@NotNull LexNode> getLexNodes() {
@@ -32,48 +110,113 @@ final class ExpressionLexer {
         return String.valueOf(expr.charAt(index));
     }
 
-    @SuppressWarnings("AlibabaAvoidComplexCondition")
     public void lexExpression() throws InvalidExpressionException {
-        while (currPos < expr.length()) {
-            String chr = charAt(currPos);
-            boolean isAtBeginning = prevTokenType == null;
-            boolean isPrevOperator = prevTokenType == TokenType.OPERATOR;
-
-            if (chr.equals(LEFT_PAREN)) {
-                lexSubExpr();
-            } else if (chr.equals(RIGHT_PAREN)) {
-                throw new InvalidExpressionException("Unmatched closing parenthesis");
-            } else if (chr.equals(NEGATIVE_SIGN) && (isPrevOperator || isAtBeginning)) {
-                handleNegativeSign(chr);
-            } else if (OPERATOR_TOKENS.contains(chr)) {
-                lexOperator(chr);
-            } else if (Character.isDigit(chr.charAt(0))) {
-                lexNumber();
-            } else if (Character.isAlphabetic(chr.charAt(0))) {
-                lexVariable();
-            } else {
-                throw new InvalidExpressionException("Invalid character: " + chr);
-            }
+        while (lexToken()) {
+            // Lex to the end.
+        }
+    }
+
+    /**
+     * Lexes the next token, after the implicit multiplication before it if there is one.
+     *
+     * @return false if the end of the expression had already been reached.
+     */
+    @SuppressWarnings("AlibabaAvoidComplexCondition")
+    boolean lexToken() throws InvalidExpressionException {
+        if (currPos >= end) {
+            return false;
+        }
+
+        meter.checkpoint();
+        int start = currPos;
+        String chr = charAt(currPos);
+        boolean isAtBeginning = prevTokenType == null;
+        boolean isPrevOperator = prevTokenType == TokenType.OPERATOR;
+
+        if (chr.equals(LEFT_PAREN)) {
+            lexSubExpr();
+        } else if (chr.equals(RIGHT_PAREN)) {
+            throw new InvalidExpressionException("Unmatched closing parenthesis");
+        } else if (chr.equals(NEGATIVE_SIGN) && (isPrevOperator || isAtBeginning)) {
+            handleNegativeSign(chr);
+        } else if (operatorTokens().contains(chr)) {
+            lexOperator(chr);
+        } else if (Character.isDigit(chr.charAt(0))) {
+            lexNumber();
+        } else if (Character.isAlphabetic(chr.charAt(0))) {
+            lexVariable();
+        } else {
+            throw new InvalidExpressionException("Invalid character: " + chr);
+        }
+
+        assert prevTokenType != null;
+        addLexNode(new LexNode(token, prevTokenType), start);
+        token = "";
+        return true;
+    }
+
+    /**
+     * Continues lexing from a position, as if the tokens before it had been lexed and the last had the given type.
+     */
+    void resumeAt(int position, @Nullable TokenType prevTokenType) {
+        this.currPos = position;
+        this.prevTokenType = prevTokenType;
+    }
+
+    /**
+     * @return the position in the expression without whitespace where the next token starts.
+     */
+    int getPosition() {
+        return currPos;
+    }
+
+    @Nullable TokenType getPrevTokenType() {
+        return prevTokenType;
+    }
+
+    /**
+     * @return the start of the text of a lexed token in the expression without whitespace. Implicit multiplications
+     * are empty, and start where the token after them does.
+     */
+    int getTokenStart(int index) {
+        return tokenStarts[index];
+    }
+
+    int getTokenEnd(int index) {
+        return tokenEnds[index];
+    }
 
-            assert prevTokenType != null;
-            lexNodes.add(new LexNode(token, prevTokenType));
-            token = "";
+    private void addLexNode(LexNode node, int start) {
+        int index = lexNodes.size();
+        if (index == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, 2 * index);
+            tokenEnds = Arrays.copyOf(tokenEnds, 2 * index);
         }
+
+        tokenStarts[index] = start;
+        tokenEnds[index] = currPos;
+        lexNodes.add(node);
     }
 
     private void lexSubExpr() throws InvalidExpressionException {
         if (hasImplicitMultiplication()) {
             appendMultiplicationOp();
         } else if (prevTokenType == TokenType.VARIABLE) {
-            throw new InvalidExpressionException("Invalid expression.");
+            throw new InvalidExpressionException("Invalid expression");
+        }
+
+        if (parens == null) {
+            parens = new Parens(expr);
         }
 
-        int endIdx = findClosingParen(currPos);
-        if (endIdx == -1) {
+        // Rejects deep nesting before any of it is parsed.
+        meter.checkDepth(depth + parens.nesting[currPos]);
+        int endIdx = parens.closing[currPos];
+        if (endIdx == -1 || endIdx >= end) {
             throw new InvalidExpressionException("Unmatched opening parenthesis");
         }
 
-        token = expr.substring(currPos, endIdx + 1);
+        token = keepsSubExprText ? expr.substring(currPos, endIdx + 1) : "";
         prevTokenType = TokenType.SUBEXPR;
         currPos = endIdx + 1;
     }
@@ -84,29 +227,14 @@ final class ExpressionLexer {
 
     private void appendMultiplicationOp() {
         prevTokenType = TokenType.OPERATOR;
-        lexNodes.add(new LexNode(MUL, prevTokenType));
+        addLexNode(LexNode.MUL, currPos);
     }
 
-    @Contract(pure = true)
-    private int findClosingParen(int startIdx) {
-        int parenCount = 0;
-        for (int idx = startIdx; idx < expr.length(); idx++) {
-            String chr = charAt(idx);
-            if (LEFT_PAREN.equals(chr)) {
-                parenCount++;
-            } else if (RIGHT_PAREN.equals(chr)) {
-                parenCount--;
-            }
-
-            if (parenCount == 0) {
-                return idx;
-            }
+    private void handleNegativeSign(String chr) throws InvalidExpressionException {
+        if (currPos + 1 == end) {
+            throw new InvalidExpressionException("Invalid expression");
         }
 
-        return -1;
-    }
-
-    private void handleNegativeSign(String chr) {
         boolean isNextTokenNumber = Character.isDigit(expr.charAt(currPos + 1));
         currPos++;
         if (isNextTokenNumber) {
@@ -144,11 +272,11 @@ final class ExpressionLexer {
 
     @Contract(pure = true)
     private int findEndOfNumber(int startIdx) {
-        return findEndOfExprComponent(startIdx, chr -> Character.isDigit(chr) || chr == '.');
+        return findEndOfExprComponent(startIdx, true);
     }
 
     private void lexVariable() {
-        if (prevTokenType == TokenType.NUMBER) {
+        if (hasImplicitMultiplication()) {
             appendMultiplicationOp();
         }
 
@@ -160,18 +288,133 @@ final class ExpressionLexer {
 
     @Contract(pure = true)
     private int findEndOfVariable(int startIdx) {
-        return findEndOfExprComponent(startIdx, chr -> Character.isAlphabetic(chr) || Character.isDigit(chr));
+        return findEndOfExprComponent(startIdx, false);
     }
 
     @Contract(pure = true)
-    private int findEndOfExprComponent(int startIdx, Predicate<Character> predicate) {
-        for (int idx = startIdx; idx < expr.length(); idx++) {
+    private int findEndOfExprComponent(int startIdx, boolean isNumber) {
+        for (int idx = startIdx; idx < end; idx++) {
             char chr = expr.charAt(idx);
-            if (!predicate.test(chr)) {
+            if (!(isNumber ? isNumberChar(chr) : isVariableChar(chr))) {
                 return idx - 1;
             }
         }
 
-        return expr.length() - 1;
+        return end - 1;
+    }
+
+    /**
+     * @return whether the token is a number the lexer reads, optionally negative, or a fraction of one over a positive
+     * integer as simplification writes it.
+     */
+    static boolean isNumberToken(String token) {
+        int start = token.startsWith(NEGATIVE_SIGN) ? 1 : 0;
+        int bar = token.indexOf(DIV);
+        int end = bar == -1 ? token.length() : bar;
+        if (start == end || !Character.isDigit(token.charAt(start))) {
+            return false;
+        }
+
+        int points = 0;
+        for (int idx = start; idx < end; idx++) {
+            char chr = token.charAt(idx);
+            if (!isNumberChar(chr)) {
+                return false;
+            }
+
+            if (chr == '.') {
+                points++;
+            }
+        }
+
+        if (points > 1) {
+            return false;
+        }
+
+        if (bar == -1) {
+            return true;
+        }
+
+        boolean isZero = true;
+        for (int idx = bar + 1; idx < token.length(); idx++) {
+            char chr = token.charAt(idx);
+            if (!Character.isDigit(chr)) {
+                return false;
+            }
+
+            isZero &= chr == '0';
+        }
+
+        return points == 0 && bar + 1 < token.length() && !isZero;
+    }
+
+    /**
+     * @return whether the token is a variable name the lexer reads.
+     */
+    static boolean isVariableToken(String token) {
+        if (token.isEmpty() || !Character.isAlphabetic(token.charAt(0))) {
+            return false;
+        }
+
+        for (int idx = 1; idx < token.length(); idx++) {
+            if (!isVariableChar(token.charAt(idx))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isNumberChar(char chr) {
+        return Character.isDigit(chr) || chr == '.';
+    }
+
+    private static boolean isVariableChar(char chr) {
+        return Character.isAlphabetic(chr) || Character.isDigit(chr);
+    }
+
+    /**
+     * The matching parenthesis of each opening one in a text, found in one pass.
+     */
+    private static final class Parens {
+        // The position of the closing parenthesis, or -1 if there is none
+        final int @NotNull [] closing;
+        // The most parentheses open at once from the opening one to the closing one, counting it
+        final int @NotNull [] nesting;
+
+        Parens(String expr) {
+            closing = new int[expr.length()];
+            nesting = new int[expr.length()];
+            // The open parentheses, and the most open at once since each was opened
+            var open = new int[16];
+            var peak = new int[16];
+            int count = 0;
+            for (int idx = 0; idx < expr.length(); idx++) {
+                char chr = expr.charAt(idx);
+                if (chr == LEFT_PAREN.charAt(0)) {
+                    if (count == open.length) {
+                        open = Arrays.copyOf(open, 2 * count);
+                        peak = Arrays.copyOf(peak, 2 * count);
+                    }
+
+                    open[count] = idx;
+                    peak[count] = ++count;
+                } else if (chr == RIGHT_PAREN.charAt(0) && count > 0) {
+                    close(open, peak, --count, idx);
+                }
+            }
+
+            while (count > 0) {
+                close(open, peak, --count, -1);
+            }
+        }
+
+        private void close(int[] open, int[] peak, int index, int position) {
+            closing[open[index]] = position;
+            nesting[open[index]] = peak[index] - index;
+            if (index > 0) {
+                peak[index - 1] = Math.max(peak[index - 1], peak[index]);
+            }
+        }
     }
 }
@@ -4,7 +4,9 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -14,42 +16,351 @@ import static expressionsimplifier.Constants.*;
  * @author Moussa
  */
 public final class ExpressionSimplifier {
+    private static final String SATURATE_FLAG = "--saturate";
+    private static final String BATCH_FLAG = "--batch";
+    private static final String CSE_FLAG = "--cse";
+    private static final String BULK_FLAG = "--bulk";
+    private static final String CSV_FLAG = "--csv";
+    private static final String FILE_FLAG = "--file";
+    private static final String JAVA_FLAG = "--java";
+    private static final String OPTIMIZE_FLAG = "--optimize";
+    private static final String SERVE_FLAG = "--serve";
+    private static final String CLIENT_FLAG = "--client";
+    private static final int SIMPLIFIER_STEPS = 3;
+
     private ExpressionSimplifier() {}
 
     @Contract(pure = true)
     public static void main(String... args) {
+        String output = run(args);
+        if (output != null) {
+            //NOPMD - suppressed SystemPrintln
+            System.out.println(output);
+        }
+    }
+
+    /**
+     * Runs the command line interface.
+     * <p>
+     * {@code expr [var=value...]} simplifies one expression, and {@code --saturate} may be given first to simplify it
+     * by equality saturation. {@code --batch expr... [var=value...]} simplifies several expressions together, one
+     * result per line, and {@code --cse expr... [var=value...]} prints them as a program that computes each shared
+     * subexpression once. {@code --bulk input output [var=value...]} simplifies a file with one expression per line,
+     * reporting progress on standard error. {@code --file input [var=value...]} simplifies one expression read from a
+     * file, which is streamed rather than loaded, and is not limited in length. {@code --csv expr input output
+     * [var=value...]} evaluates the expression for each row of a CSV or TSV file whose header names the remaining
+     * variables. {@code --java ClassName expr... [var=value...]} prints a Java class with a method {@code f1},
+     * {@code f2}, ... for each simplified expression. {@code --optimize expr... [var=value...]} prints the expressions
+     * in a form that is cheap to evaluate, followed by the operation counts before and after.
+     * <p>
+     * {@code --serve port [threads]} runs a {@link SimplifierDaemon} until it is killed, and {@code --client port
+     * args...} runs the remaining arguments on that daemon, printing the same output as running them directly. Only
+     * the user running the daemon can use it.
+     *
+     * @return the text to print, or null if there is nothing to print.
+     */
+    @Contract(pure = true)
+    static @Nullable String run(String... args) {
         if (args.length == 0) {
-            return;
+            return null;
+        }
+
+        try {
+            if (args[0].equals(SERVE_FLAG)) {
+                return runServe(Arrays.asList(args).subList(1, args.length));
+            }
+
+            if (args[0].equals(CLIENT_FLAG)) {
+                return runClient(Arrays.asList(args).subList(1, args.length));
+            }
+        } catch (Exception e) {
+            return e.getMessage();
         }
 
-        @NotNull String[] variableValues = Arrays.copyOfRange(args, 1, args.length);
+        return runCommand(args);
+    }
+
+    /**
+     * Runs every mode except the daemon ones, so that a daemon cannot be asked to start another.
+     */
+    @Contract(pure = true)
+    static @Nullable String runCommand(String... args) {
+        if (args.length == 0 || args[0].equals(SERVE_FLAG) || args[0].equals(CLIENT_FLAG)) {
+            return null;
+        }
 
-        String expr = args[0];
-        if (expr.isEmpty()) {
-            return;
+        String mode = args[0];
+        boolean isBatch = mode.equals(BATCH_FLAG) || mode.equals(CSE_FLAG) || mode.equals(OPTIMIZE_FLAG);
+        boolean saturate = mode.equals(SATURATE_FLAG);
+        int exprIdx = isBatch || saturate ? 1 : 0;
+        if (args.length <= exprIdx) {
+            return null;
         }
 
-        String simplifiedExpr;
         try {
-            simplifiedExpr = simplifyExpr(expr, variableValues);
+            if (mode.equals(BULK_FLAG)) {
+                return runBulk(Arrays.asList(args).subList(1, args.length));
+            }
+
+            if (mode.equals(FILE_FLAG)) {
+                return runFile(Arrays.asList(args).subList(1, args.length));
+            }
+
+            if (mode.equals(CSV_FLAG)) {
+                return runCsv(Arrays.asList(args).subList(1, args.length));
+            }
+
+            if (mode.equals(JAVA_FLAG)) {
+                return runJava(Arrays.asList(args).subList(1, args.length));
+            }
+
+            if (isBatch) {
+                return runBatch(mode, Arrays.asList(args).subList(exprIdx, args.length));
+            }
+
+            String expr = args[exprIdx];
+            if (expr.isEmpty()) {
+                return null;
+            }
+
+            List<@NotNull String> variableValues = Arrays.asList(args).subList(exprIdx + 1, args.length);
+            if (saturate) {
+                return simplifyExpr(expr, variableValues, EqualitySaturation.DEFAULT, SimplifierBudget.DEFAULT);
+            }
+
+            return simplifyExpr(expr, variableValues, SimplifierBudget.DEFAULT);
         } catch (Exception e) {
-            System.out.println(e.getMessage());
-            return;
+            return e.getMessage();
         }
+    }
 
+    private static @Nullable String runServe(List<@NotNull String> args) throws IOException, InterruptedException {
+        if (args.isEmpty()) {
+            return null;
+        }
+
+        int port = Integer.parseInt(args.get(0));
+        int threads = args.size() > 1 ? Integer.parseInt(args.get(1)) : Runtime.getRuntime().availableProcessors();
+        try (var daemon = new SimplifierDaemon(ExpressionSimplifier::runCommand, port, threads,
+                SimplifierDaemon.DEFAULT_QUEUE_CAPACITY, SimplifierDaemon.DEFAULT_MAX_BATCH)) {
+            //NOPMD - suppressed SystemPrintln
+            System.err.println("Listening on port " + daemon.getPort());
+            daemon.awaitClose();
+        }
+
+        return null;
+    }
+
+    private static @Nullable String runClient(List<@NotNull String> args) throws IOException {
+        if (args.size() < 2) {
+            return null;
+        }
+
+        return SimplifierDaemon.request(Integer.parseInt(args.get(0)), withAbsolutePaths(args.subList(1, args.size())));
+    }
+
+    /**
+     * @return the command with its file arguments resolved against the working directory here, rather than that of
+     * the daemon.
+     */
+    private static @NotNull List<@NotNull String> withAbsolutePaths(List<@NotNull String> args) {
+        int first;
+        int last;
+        if (args.get(0).equals(FILE_FLAG)) {
+            first = 1;
+            last = 1;
+        } else if (args.get(0).equals(BULK_FLAG)) {
+            first = 1;
+            last = 2;
+        } else if (args.get(0).equals(CSV_FLAG)) {
+            first = 2;
+            last = 3;
+        } else {
+            return args;
+        }
+
+        List<@NotNull String> absolute = new ArrayList<>(args);
+        for (int idx = first; idx <= Math.min(last, args.size() - 1); idx++) {
+            absolute.set(idx, Path.of(args.get(idx)).toAbsolutePath().toString());
+        }
+
+        return absolute;
+    }
+
+    private static @Nullable String runBulk(List<@NotNull String> args) throws IOException {
+        if (args.size() < 2) {
+            return null;
+        }
+
+        var bulk = new BulkSimplifier(args.subList(2, args.size()), SimplifierBudget.DEFAULT,
+                Runtime.getRuntime().availableProcessors(), BulkSimplifier.DEFAULT_CHUNK_SIZE);
         //NOPMD - suppressed SystemPrintln
-        System.out.println(simplifiedExpr);
+        BulkSimplifier.Report report = bulk.process(Path.of(args.get(0)), Path.of(args.get(1)), System.err::println);
+        return report.toString();
+    }
+
+    private static @Nullable String runFile(List<@NotNull String> args) throws IOException, InvalidExpressionException {
+        if (args.isEmpty()) {
+            return null;
+        }
+
+        // Only the depth and number size are limited, since the simplifier recurses and folds numbers exactly.
+        SimplifierBudget budget = SimplifierBudget.UNLIMITED.withMaxDepth(SimplifierBudget.DEFAULT.maxDepth)
+                .withMaxNumberBits(SimplifierBudget.DEFAULT.maxNumberBits);
+        BudgetMeter meter = budget.start();
+        SyntaxTree tree;
+        try (var channel = FileChannel.open(Path.of(args.get(0)))) {
+            tree = StreamingParser.parse(channel, meter);
+        }
+
+        Bindings bindings = Bindings.parse(args.subList(1, args.size()));
+        return simplify(bindings.substitute(tree), meter).toString();
+    }
+
+    private static @Nullable String runCsv(List<@NotNull String> args) throws IOException, InvalidExpressionException {
+        if (args.size() < 3) {
+            return null;
+        }
+
+        Bindings bindings = Bindings.parse(args.subList(3, args.size()));
+        SyntaxTree tree = simplifyTree(args.get(0), bindings, SimplifierBudget.DEFAULT.start());
+        Path input = Path.of(args.get(1));
+        var evaluator = new CsvEvaluator(tree, CsvEvaluator.delimiterFor(input));
+        long rows = evaluator.evaluate(input, Path.of(args.get(2)));
+        return rows + " rows";
+    }
+
+    private static @Nullable String runJava(List<@NotNull String> args) throws InvalidExpressionException {
+        if (args.size() < 2) {
+            return null;
+        }
+
+        List<String> exprs = new ArrayList<>();
+        List<String> variableValues = new ArrayList<>();
+        splitBatchArgs(args.subList(1, args.size()), exprs, variableValues);
+
+        List<SyntaxTree> trees = simplifyTrees(exprs, variableValues, SimplifierBudget.DEFAULT.start());
+        List<String> methodNames = new ArrayList<>(trees.size());
+        for (int idx = 1; idx <= trees.size(); idx++) {
+            methodNames.add("f" + idx);
+        }
+
+        return JavaSourceGenerator.generate(null, args.get(0), methodNames, trees);
+    }
+
+    private static @NotNull String optimize(List<@NotNull SyntaxTree> trees) {
+        List<SyntaxTree> optimizedTrees = new ArrayList<>(trees.size());
+        for (var tree : trees) {
+            optimizedTrees.add(EvaluationForm.optimize(tree));
+        }
+
+        // The trees are costed together, since the program computes their shared subexpressions once.
+        SyntaxTree before = trees.stream().reduce((left, right) -> new SyntaxTree(LexNode.ADD, left, right)).orElseThrow();
+        SyntaxTree after = optimizedTrees.stream().reduce((left, right) -> new SyntaxTree(LexNode.ADD, left, right)).orElseThrow();
+        int joins = trees.size() - 1;
+        return String.join(System.lineSeparator(),
+                LetProgram.of(optimizedTrees).toString(),
+                "before: " + withoutJoins(EvaluationForm.cost(before), joins),
+                "after: " + withoutJoins(EvaluationForm.cost(after), joins));
+    }
+
+    private static @NotNull EvaluationForm.Cost withoutJoins(EvaluationForm.Cost cost, int joins) {
+        return new EvaluationForm.Cost(cost.additions - joins, cost.multiplications, cost.divisions, cost.powers);
+    }
+
+    private static void splitBatchArgs(List<@NotNull String> args, List<String> exprs, List<String> variableValues) {
+        for (var arg : args) {
+            if (arg.contains("=")) {
+                variableValues.add(arg);
+            } else if (!arg.isEmpty()) {
+                exprs.add(arg);
+            }
+        }
+    }
+
+    private static @NotNull String runBatch(String mode, List<@NotNull String> args) throws InvalidExpressionException {
+        List<String> exprs = new ArrayList<>();
+        List<String> variableValues = new ArrayList<>();
+        splitBatchArgs(args, exprs, variableValues);
+
+        if (mode.equals(OPTIMIZE_FLAG)) {
+            return optimize(simplifyTrees(exprs, variableValues, SimplifierBudget.DEFAULT.start()));
+        }
+
+        if (mode.equals(CSE_FLAG)) {
+            return simplifyToProgram(exprs, variableValues, SimplifierBudget.DEFAULT).toString();
+        }
+
+        return String.join(System.lineSeparator(), simplifyExprs(exprs, variableValues, SimplifierBudget.DEFAULT));
     }
 
     @Contract(pure = true, value = "_, _ -> new")
     static @NotNull String simplifyExpr(String expr, List<@NotNull String> variableValues) throws InvalidExpressionException {
-        SyntaxTree syntaxTree = parseExpr(expr);
-        Map<@NotNull String, @NotNull String> variableToValue = parseInputVariablesValues(variableValues);
+        return simplifyExpr(expr, variableValues, SimplifierBudget.UNLIMITED);
+    }
+
+    /**
+     * @throws BudgetExceededException if the budget is exceeded or the call is cancelled.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull String simplifyExpr(String expr, List<@NotNull String> variableValues, SimplifierBudget budget) throws InvalidExpressionException {
+        return simplifyExpr(expr, Bindings.parse(variableValues), budget.start());
+    }
 
-        SyntaxTree subbedTree = makeSubstitutions(syntaxTree, variableToValue);
-        SyntaxTree simplifiedTree = simplify(subbedTree);
+    /**
+     * @param expr may be a view of a larger buffer, since it is only read while lexing.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull String simplifyExpr(CharSequence expr, Bindings bindings, BudgetMeter meter) throws InvalidExpressionException {
+        return simplifyTree(expr, bindings, meter).toString();
+    }
 
-        return simplifiedTree.toString();
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull SyntaxTree simplifyTree(CharSequence expr, Bindings bindings, BudgetMeter meter) throws InvalidExpressionException {
+        SyntaxTree syntaxTree = parseExpr(expr, meter);
+
+        SyntaxTree subbedTree = bindings.substitute(syntaxTree);
+        return simplify(subbedTree, meter);
+    }
+
+    /**
+     * Simplifies the expressions together, so that each subexpression they share is simplified once.
+     *
+     * @throws BudgetExceededException if the budget, which covers the whole batch, is exceeded or the call is cancelled.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull List<@NotNull String> simplifyExprs(List<@NotNull String> exprs, List<@NotNull String> variableValues, SimplifierBudget budget) throws InvalidExpressionException {
+        List<SyntaxTree> simplifiedTrees = simplifyTrees(exprs, variableValues, budget.start());
+        List<String> simplifiedExprs = new ArrayList<>(simplifiedTrees.size());
+        for (var tree : simplifiedTrees) {
+            simplifiedExprs.add(tree.toString());
+        }
+
+        return simplifiedExprs;
+    }
+
+    /**
+     * Simplifies the expressions together, and binds the subexpressions their results share to temporaries.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull LetProgram simplifyToProgram(List<@NotNull String> exprs, List<@NotNull String> variableValues, SimplifierBudget budget) throws InvalidExpressionException {
+        return LetProgram.of(simplifyTrees(exprs, variableValues, budget.start()));
+    }
+
+    @Contract(pure = true, value = "_, _, _ -> new")
+    private static @NotNull List<@NotNull SyntaxTree> simplifyTrees(List<@NotNull String> exprs, List<@NotNull String> variableValues, BudgetMeter meter) throws InvalidExpressionException {
+        Bindings bindings = Bindings.parse(variableValues);
+        var dag = new ExpressionDag();
+        Map<SyntaxTree, SyntaxTree> simplified = new HashMap<>();
+
+        List<SyntaxTree> simplifiedTrees = new ArrayList<>(exprs.size());
+        for (var expr : exprs) {
+            SyntaxTree subbedTree = bindings.substitute(parseExpr(expr, meter));
+            SyntaxTree simplifiedTree = simplify(dag.intern(subbedTree), meter, simplified);
+            simplifiedTrees.add(simplifiedTree);
+        }
+
+        return simplifiedTrees;
     }
 
     @Contract(pure = true, value = "_, _ -> new")
@@ -57,56 +368,77 @@ public final class ExpressionSimplifier {
         return simplifyExpr(expr, Arrays.asList(variableValues));
     }
 
-    @Contract(pure = true, value = "_ -> new")
-    private static @NotNull SyntaxTree parseExpr(String expr) throws InvalidExpressionException {
-        var lexer = new ExpressionLexer(expr);
-        lexer.lexExpression();
-        List<@NotNull LexNode> lexNodes = lexer.getLexNodes();
-        return buildTree(lexNodes);
+    /**
+     * Simplifies by equality saturation, starting from both the input and the result of the usual simplification.
+     * The result is never more expensive to evaluate than the usual simplification.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull String simplifyExpr(String expr, List<@NotNull String> variableValues, EqualitySaturation saturation) throws InvalidExpressionException {
+        return simplifyExpr(expr, variableValues, saturation, SimplifierBudget.UNLIMITED);
     }
 
-    @Contract(pure = true)
-    private static @NotNull Map<@NotNull String, @NotNull String> parseInputVariablesValues(List<@NotNull String> variableValues) {
-        if (variableValues.isEmpty()) {
-            return Collections.emptyMap();
-        }
+    @Contract(pure = true, value = "_, _, _, _ -> new")
+    static @NotNull String simplifyExpr(String expr, List<@NotNull String> variableValues, EqualitySaturation saturation, SimplifierBudget budget) throws InvalidExpressionException {
+        BudgetMeter meter = budget.start();
+        SyntaxTree syntaxTree = parseExpr(expr, meter);
+        Bindings bindings = Bindings.parse(variableValues);
 
-        Map<String, String> variableToValue = new HashMap<>(variableValues.size());
-        String delimiter = "=";
-        for (var input : variableValues) {
-            String[] split = input.split(delimiter);
-            variableToValue.put(split[0], split[1]);
+        SyntaxTree subbedTree = bindings.substitute(syntaxTree);
+        SyntaxTree simplifiedTree = simplify(subbedTree, meter);
+
+        SyntaxTree saturatedTree = saturation.saturate(List.of(simplifiedTree, subbedTree), meter);
+        // Puts the cheapest form back in the standard order.
+        SyntaxTree standardTree = simplify(saturatedTree, meter);
+        if (EqualitySaturation.cost(standardTree) <= EqualitySaturation.cost(simplifiedTree)) {
+            return standardTree.toString();
         }
 
-        return variableToValue;
+        return simplifiedTree.toString();
     }
 
-    @Contract(pure = true, value = "null, _ -> null; !null, _ -> new")
-    private static @Nullable SyntaxTree makeSubstitutions(@Nullable SyntaxTree tree, Map<@NotNull String, @NotNull String> variableToValue) {
-        if (tree == null) {
-            return null;
-        }
+    @Contract(pure = true, value = "_ -> new")
+    static @NotNull SyntaxTree parseExpr(String expr) throws InvalidExpressionException {
+        return parseExpr(expr, SimplifierBudget.UNLIMITED.start());
+    }
 
-        SyntaxTree subbedLeft = makeSubstitutions(tree.left, variableToValue);
-        SyntaxTree subbedRight = makeSubstitutions(tree.right, variableToValue);
-        String token = tree.getToken();
-        LexNode node;
-        if (variableToValue.containsKey(token)) {
-            String newToken = variableToValue.get(token);
-            node = new LexNode(newToken, TokenType.NUMBER);
-        } else {
-            node = tree.node;
+    @Contract(pure = true, value = "_, _ -> new")
+    static @NotNull SyntaxTree parseExpr(CharSequence expr, BudgetMeter meter) throws InvalidExpressionException {
+        return parseExpr(ExpressionLexer.forNesting(expr, meter), meter);
+    }
+
+    /**
+     * Parses the part of the expression the lexer reads, lexing each subexpression in place.
+     */
+    @Contract(pure = true, value = "_, _ -> new")
+    private static @NotNull SyntaxTree parseExpr(ExpressionLexer lexer, BudgetMeter meter) throws InvalidExpressionException {
+        meter.checkDepth(lexer.getDepth());
+        lexer.lexExpression();
+        return combineSubTrees(makeSubTrees(lexer, meter), meter);
+    }
+
+    /**
+     * Lexes the top level of an expression and parses its parenthesized subexpressions, without combining them.
+     *
+     * @param isAfterOperator whether the text follows an operator, as when it is a part of a longer expression.
+     * @return the operands and operator leaves, in order.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    static @NotNull List<@NotNull SyntaxTree> parseOperands(CharSequence expr, boolean isAfterOperator, BudgetMeter meter) throws InvalidExpressionException {
+        var lexer = ExpressionLexer.forNesting(expr, meter);
+        if (isAfterOperator) {
+            lexer.resumeAt(0, TokenType.OPERATOR);
         }
 
-        return new SyntaxTree(node, subbedLeft, subbedRight);
+        lexer.lexExpression();
+        return makeSubTrees(lexer, meter);
     }
 
     private static boolean equalsZero(String token) {
-        return BigDecimal.ZERO.compareTo(new BigDecimal(token)) == 0;
+        return Rational.parse(token).isZero();
     }
 
     private static boolean isNegative(String token) {
-        return (new BigDecimal(token)).compareTo(BigDecimal.ZERO) < 0;
+        return Rational.parse(token).signum() < 0;
     }
 
     @Contract(pure = true)
@@ -123,54 +455,98 @@ public final class ExpressionSimplifier {
         }
 
         String leftToken = left.getToken();
-        if (operator.equals(POW) && left.isNumber() && equalsZero(leftToken) && isNegative(rightToken)) {
+        boolean isNumericPow = operator.equals(POW) && left.isNumber() && right.isNumber();
+        if (isNumericPow && equalsZero(leftToken) && isNegative(rightToken)) {
             throw new InvalidExpressionException("Division by zero");
         }
 
-        if (operator.equals(POW) && left.isNumber() && isNegative(leftToken)) {
-            var power = new BigDecimal(rightToken);
-            if (power.stripTrailingZeros().scale() > 0) {
+        if (isNumericPow && isNegative(leftToken)) {
+            var power = Rational.parse(rightToken);
+            if (!power.isInteger()) {
                 throw new InvalidExpressionException("Negative number raised to non-integer exponent.");
             }
         }
+
+        // Non-integer powers are computed in floating point, which overflows long before the number bits budget.
+        if (isNumericPow && !Rational.parse(rightToken).isInteger()) {
+            double power = Math.pow(Rational.parse(leftToken).doubleValue(), Rational.parse(rightToken).doubleValue());
+            if (!Double.isFinite(power)) {
+                throw new InvalidExpressionException("Non-integer power out of range.");
+            }
+        }
     }
 
     @Contract(pure = true)
-    private static @NotNull SyntaxTree simplify(SyntaxTree tree) throws InvalidExpressionException {
-        SyntaxTree simplifiedTree = tree;
+    private static @NotNull SyntaxTree simplify(SyntaxTree tree, BudgetMeter meter) throws InvalidExpressionException {
+        return simplify(tree, meter, new HashMap<>());
+    }
+
+    /**
+     * Simplifies bottom-up: the children are simplified before the steps run on a node, and the steps only simplify
+     * the children again when a step has replaced them with new subtrees. Each result is remembered as simplified, so
+     * the children a step keeps are looked up rather than simplified again.
+     *
+     * @param simplified the results for subtrees already simplified, which are reused for equal subtrees.
+     */
+    @Contract(pure = false)
+    static @NotNull SyntaxTree simplify(SyntaxTree tree, BudgetMeter meter, Map<SyntaxTree, SyntaxTree> simplified) throws InvalidExpressionException {
+        meter.checkpoint();
+        if (tree.isLeaf()) {
+            return tree;
+        }
 
-        List<@NotNull Simplifier> simplifiers = List.of(
-                ExpressionSimplifier::standardizeOrder,
-                ExpressionSimplifier::foldConstants,
-                ExpressionSimplifier::applyAlgebraicIdentities
-//                ExpressionSimplifier::foldMul
-        );
+        SyntaxTree cached = simplified.get(tree);
+        if (cached != null) {
+            return cached;
+        }
+
+        SyntaxTree simplifiedTree = tree;
 
-        for (var simplifier : simplifiers) {
+        for (int step = 0; step < SIMPLIFIER_STEPS; step++) {
             if (simplifiedTree.isLeaf()) {
-                return simplifiedTree;
+                break;
             }
 
             SyntaxTree left = simplifiedTree.left;
             SyntaxTree right = simplifiedTree.right;
             assert left != null && right != null;
 
-            LexNode node = simplifiedTree.node;
-            SyntaxTree simplifiedLeft = simplify(left);
-            SyntaxTree simplifiedRight = simplify(right);
+            SyntaxTree simplifiedLeft = simplify(left, meter, simplified);
+            SyntaxTree simplifiedRight = simplify(right, meter, simplified);
 
-            var newTree = new SyntaxTree(node, simplifiedLeft, simplifiedRight);
+            // Keeps the node when the step before left it unchanged, so that it is not rebuilt.
+            SyntaxTree newTree = simplifiedLeft == left && simplifiedRight == right
+                    ? simplifiedTree
+                    : new SyntaxTree(simplifiedTree.node, simplifiedLeft, simplifiedRight);
 
             checkInvalidExpr(newTree);
 
-            simplifiedTree = simplifier.simplify(newTree);
+            simplifiedTree = applyStep(step, newTree, meter);
         }
 
+        simplified.put(tree, simplifiedTree);
+        simplified.putIfAbsent(simplifiedTree, simplifiedTree);
         return simplifiedTree;
     }
 
+    /**
+     * The steps are a switch rather than a list of lambdas, for startup time (see {@link StartupTraining}).
+     */
+    private static @NotNull SyntaxTree applyStep(int step, SyntaxTree tree, BudgetMeter meter) {
+        switch (step) {
+            case 0:
+                return standardizeOrder(tree);
+            case 1:
+                return foldConstants(tree, meter);
+            default:
+                return applyAlgebraicIdentities(tree);
+//            case 3:
+//                return foldMul(tree);
+        }
+    }
+
     @Contract(pure = true)
-    private static @NotNull SyntaxTree foldConstants(SyntaxTree tree) {
+    private static @NotNull SyntaxTree foldConstants(SyntaxTree tree, BudgetMeter meter) {
         String operator = tree.getToken();
         SyntaxTree left = tree.left;
         SyntaxTree right = tree.right;
@@ -178,11 +554,16 @@ public final class ExpressionSimplifier {
         assert left != null && right != null;
 
         if (left.isNumber() && right.isNumber()) {
-            var leftNum = new BigDecimal(left.getToken());
-            var rightNum = new BigDecimal(right.getToken());
+            var leftNum = Rational.parse(left.getToken());
+            var rightNum = Rational.parse(right.getToken());
 
-            BigDecimal result = Operator.getFunction(operator).apply(leftNum, rightNum);
-            String newToken = result.toPlainString();
+            if (operator.equals(POW)) {
+                meter.checkPow(leftNum, rightNum);
+            }
+
+            Rational result = Operator.getFunction(operator).apply(leftNum, rightNum);
+            meter.checkNumber(result);
+            String newToken = result.toString();
             var resultNode = new LexNode(newToken, TokenType.NUMBER);
             return new SyntaxTree(resultNode);
         }
@@ -233,8 +614,8 @@ public final class ExpressionSimplifier {
             return tree;
         }
 
-        BigDecimal leftNum = left.right != null ? new BigDecimal(left.right.getToken()) : BigDecimal.ONE;
-        BigDecimal rightNum = right.right != null ? new BigDecimal(right.right.getToken()) : BigDecimal.ONE;
+        Rational leftNum = left.right != null ? Rational.parse(left.right.getToken()) : Rational.ONE;
+        Rational rightNum = right.right != null ? Rational.parse(right.right.getToken()) : Rational.ONE;
 
         if (leftNum.compareTo(rightNum) < 0) {
             return new SyntaxTree(node, right, left);
@@ -243,66 +624,9 @@ public final class ExpressionSimplifier {
         return tree;
     }
 
-    @SuppressWarnings("java:S3776")
     @Contract(pure = true)
     private static @NotNull SyntaxTree applyAlgebraicIdentities(SyntaxTree tree) {
-        String operator = tree.getToken();
-        SyntaxTree left = tree.left;
-        SyntaxTree right = tree.right;
-
-        assert left != null && right != null;
-
-        boolean rightEqualsZero = right.equals(SyntaxTree.ZERO);
-        if (operator.equals(ADD) && rightEqualsZero) {
-            return left;
-        }
-
-        if (operator.equals(SUB) && rightEqualsZero) {
-            return left;
-        }
-
-        if (operator.equals(SUB) && left.equals(right)) {
-            return SyntaxTree.ZERO;
-        }
-
-        boolean leftEqualsZero = left.equals(SyntaxTree.ZERO);
-        if (operator.equals(MUL) && leftEqualsZero) {
-            return SyntaxTree.ZERO;
-        }
-
-        boolean leftEqualsOne = left.equals(SyntaxTree.ONE);
-        if (operator.equals(MUL) && leftEqualsOne) {
-            return right;
-        }
-
-        boolean rightEqualsOne = right.equals(SyntaxTree.ONE);
-        if (operator.equals(DIV) && rightEqualsOne) {
-            return left;
-        }
-
-        if (operator.equals(DIV) && left.equals(right)) {
-            return SyntaxTree.ONE;
-        }
-
-        if (operator.equals(POW) && rightEqualsOne) {
-            return left;
-        }
-
-        if (operator.equals(POW) && leftEqualsZero) {
-            String rightToken = right.getToken();
-            var power = new BigDecimal(rightToken);
-            if (power.compareTo(BigDecimal.ZERO) == 0) {
-                return SyntaxTree.ONE;
-            }
-
-            return SyntaxTree.ZERO;
-        }
-
-        if (operator.equals(POW) && rightEqualsZero) {
-            return SyntaxTree.ONE;
-        }
-
-        return tree;
+        return AlgebraicIdentities.RULE_SET.simplify(tree);
     }
 
     @Contract(pure = true)
@@ -313,9 +637,9 @@ public final class ExpressionSimplifier {
 
         List<SyntaxTree> constants = constantsAndExprs.get(true);
 
-        BigDecimal constant = constants.stream()
-                .map(factor -> new BigDecimal(factor.getToken()))
-                .reduce(BigDecimal.ONE, BigDecimal::multiply);
+        Rational constant = constants.stream()
+                .map(factor -> Rational.parse(factor.getToken()))
+                .reduce(Rational.ONE, Rational::multiply);
 
         var constTree = new SyntaxTree(new LexNode(constant.toString(), TokenType.NUMBER));
 
@@ -357,26 +681,26 @@ public final class ExpressionSimplifier {
     }
 
     private static @NotNull List<SyntaxTree> collectLikePowers(List<SyntaxTree> exprs) {
-        Map<SyntaxTree, BigDecimal> baseToPower = new LinkedHashMap<>();
+        Map<SyntaxTree, Rational> baseToPower = new LinkedHashMap<>();
 
         for (SyntaxTree expr : exprs) {
             if (expr.node.equals(LexNode.POW)) {
                 assert expr.left != null && expr.right != null;
-                BigDecimal power = new BigDecimal(expr.right.getToken());
-                baseToPower.merge(expr.left, power, BigDecimal::add);
+                Rational power = Rational.parse(expr.right.getToken());
+                baseToPower.merge(expr.left, power, Rational::add);
             } else if (expr.node.equals(LexNode.DIV)) {
                 assert expr.left != null && expr.right != null;
 
             } else {
-                baseToPower.merge(expr, BigDecimal.ONE, BigDecimal::add);
+                baseToPower.merge(expr, Rational.ONE, Rational::add);
             }
         }
 
         return baseToPower.entrySet().stream().map(
                 entry -> {
                     SyntaxTree base = entry.getKey();
-                    BigDecimal pow = entry.getValue();
-                    if (pow.compareTo(BigDecimal.ONE) == 0) {
+                    Rational pow = entry.getValue();
+                    if (pow.equals(Rational.ONE)) {
                         return base;
                     }
 
@@ -385,14 +709,20 @@ public final class ExpressionSimplifier {
                 }).collect(Collectors.toList());
     }
 
-    @Contract(pure = true, value = "_ -> new")
-    private static @NotNull List<@NotNull SyntaxTree> makeSubTrees(List<@NotNull LexNode> lexNodes) throws InvalidExpressionException {
+    @Contract(pure = true, value = "_, _ -> new")
+    private static @NotNull List<@NotNull SyntaxTree> makeSubTrees(ExpressionLexer lexer, BudgetMeter meter) throws InvalidExpressionException {
+        List<@NotNull LexNode> lexNodes = lexer.getLexNodes();
         List<SyntaxTree> subTrees = new ArrayList<>();
-        for (var lexNode : lexNodes) {
+        for (int idx = 0; idx < lexNodes.size(); idx++) {
+            var lexNode = lexNodes.get(idx);
             if (lexNode.type == TokenType.SUBEXPR) {
-                String subExpr = Utils.removeParens(lexNode.token);
-                subTrees.add(parseExpr(subExpr));
+                subTrees.add(parseExpr(lexer.subExprLexer(idx), meter));
             } else {
+                if (lexNode.type == TokenType.NUMBER) {
+                    meter.checkNumberToken(lexNode.token);
+                }
+
+                meter.addNodes(1);
                 subTrees.add(new SyntaxTree(lexNode));
             }
         }
@@ -400,17 +730,26 @@ public final class ExpressionSimplifier {
         return subTrees;
     }
 
+    /**
+     * Joins the operands and operators of one level of parentheses into a tree, respecting operator precedence.
+     *
+     * @param subTrees the parsed subexpressions and the leaves of the other tokens, in order.
+     */
     @Contract(pure = true)
-    private static @NotNull SyntaxTree buildTree(List<@NotNull LexNode> lexNodes) throws InvalidExpressionException {
-        List<@NotNull SyntaxTree> subTrees = makeSubTrees(lexNodes);
+    static @NotNull SyntaxTree combineSubTrees(List<@NotNull SyntaxTree> subTrees, BudgetMeter meter) throws InvalidExpressionException {
         if (subTrees.size() == 1) {
-            return subTrees.get(0);
+            SyntaxTree tree = subTrees.get(0);
+            if (tree.isLeaf() && tree.tokenTypeEquals(TokenType.OPERATOR)) {
+                throw new InvalidExpressionException("Invalid expression");
+            }
+
+            return tree;
         }
 
         List<@NotNull SyntaxTree> newSubTrees = new ArrayList<>(subTrees);
-        for (Set<@NotNull String> operators : OPERATOR_TOKENS_GROUPED_BY_PRECEDENCE) {
+        for (Set<@NotNull String> operators : operatorTokensGroupedByPrecedence()) {
             // Building the complete tree from subtrees must respect operator precedence.
-            newSubTrees = buildTree(newSubTrees, operators);
+            newSubTrees = buildTree(newSubTrees, operators, meter);
         }
 
         if (newSubTrees.size() != 1) {
@@ -420,8 +759,8 @@ public final class ExpressionSimplifier {
         return newSubTrees.get(0);
     }
 
-    @Contract(pure = true, value = "_, _ -> new")
-    private static @NotNull List<@NotNull SyntaxTree> buildTree(List<@NotNull SyntaxTree> trees, Set<@NotNull String> operators) throws InvalidExpressionException {
+    @Contract(pure = true, value = "_, _, _ -> new")
+    private static @NotNull List<@NotNull SyntaxTree> buildTree(List<@NotNull SyntaxTree> trees, Set<@NotNull String> operators, BudgetMeter meter) throws InvalidExpressionException {
         Deque<SyntaxTree> subTreesStack = new ArrayDeque<>();
         SyntaxTree operatorTree = null;
         for (var tree : trees) {
@@ -431,8 +770,14 @@ public final class ExpressionSimplifier {
             if (isOperator && isCorrectOperator && tree.isLeaf()) {
                 operatorTree = tree;
             } else if (operatorTree != null) {
+                if (subTreesStack.isEmpty()) {
+                    throw new InvalidExpressionException("Invalid expression");
+                }
+
                 SyntaxTree leftTree = subTreesStack.removeLast();
                 var newTree = new SyntaxTree(operatorTree.node, leftTree, tree);
+                meter.addNodes(1);
+                meter.checkDepth(newTree.getDepth());
                 subTreesStack.addLast(newTree);
                 operatorTree = null;
             } else {
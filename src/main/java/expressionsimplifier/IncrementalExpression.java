@@ -0,0 +1,342 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * One version of an expression being edited, which is re-parsed and re-simplified incrementally after each edit.
+ * <p>
+ * After an edit, the top-level tokens are lexed again from the token the edit touches up to the first token
+ * boundary where the lexer is back in step with the previous version; the tokens before and after are reused.
+ * Parenthesized subexpressions are parsed once per distinct text, so those the edit did not touch reuse their trees.
+ * Simplified subtrees are remembered across versions, so only the path from the edited subtree to the root is
+ * simplified again.
+ * <p>
+ * Each version gives the same result as parsing and simplifying its text from scratch. Versions are immutable, but
+ * the versions derived from one another share caches, so they must only be used from one thread at a time.
+ *
+ * @author Moussa
+ */
+final class IncrementalExpression {
+    private static final int CACHE_CAPACITY = 1 << 14;
+
+    private final @NotNull Session session;
+    private final @NotNull String text;
+    // The text without whitespace, which the token positions refer to.
+    private final @NotNull String stripped;
+    // The top-level tokens and their [start, end) positions, or null if the text could not be lexed.
+    private final @Nullable List<@NotNull LexNode> tokens;
+    private final int @Nullable [] tokenStarts;
+    private final int @Nullable [] tokenEnds;
+    private final int relexedTokens;
+    private final @Nullable SyntaxTree tree;
+    private final @Nullable InvalidExpressionException error;
+    private @Nullable SyntaxTree simplified;
+
+    private IncrementalExpression(Session session, String text, String stripped, @Nullable Lexed lexed, @Nullable SyntaxTree tree, @Nullable InvalidExpressionException error) {
+        this.session = session;
+        this.text = text;
+        this.stripped = stripped;
+        this.tokens = lexed == null ? null : lexed.tokens;
+        this.tokenStarts = lexed == null ? null : lexed.starts;
+        this.tokenEnds = lexed == null ? null : lexed.ends;
+        this.relexedTokens = lexed == null ? 0 : lexed.relexedTokens;
+        this.tree = tree;
+        this.error = error;
+    }
+
+    /**
+     * @param budget applies to each edit and each simplification separately.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    public static @NotNull IncrementalExpression parse(String text, Bindings bindings, SimplifierBudget budget) {
+        var session = new Session(bindings, budget);
+        return session.version(text, ExpressionLexer.removeWhitespace(text), null, 0, 0, 0);
+    }
+
+    /**
+     * @param offset        where the edit starts in the text.
+     * @param removedLength the number of characters the edit removes.
+     * @return the edited expression. This version is unchanged.
+     */
+    @Contract(pure = true, value = "_, _, _ -> new")
+    public @NotNull IncrementalExpression edit(int offset, int removedLength, String insertedText) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > text.length()) {
+            throw new IndexOutOfBoundsException("Edit outside the expression");
+        }
+
+        String newText = text.substring(0, offset) + insertedText + text.substring(offset + removedLength);
+
+        // The edit as it applies to the text without whitespace.
+        int strippedOffset = offset - countWhitespace(text, 0, offset);
+        int strippedRemoved = removedLength - countWhitespace(text, offset, offset + removedLength);
+        String strippedInserted = ExpressionLexer.removeWhitespace(insertedText);
+        String newStripped = stripped.substring(0, strippedOffset) + strippedInserted
+                + stripped.substring(strippedOffset + strippedRemoved);
+
+        return session.version(newText, newStripped, this, strippedOffset, strippedRemoved, strippedInserted.length());
+    }
+
+    public @NotNull String getText() {
+        return text;
+    }
+
+    /**
+     * @return the parsed expression, with the variables substituted.
+     */
+    public @NotNull SyntaxTree getTree() throws InvalidExpressionException {
+        if (error != null) {
+            throw error;
+        }
+
+        assert tree != null;
+        return tree;
+    }
+
+    /**
+     * @throws BudgetExceededException if the budget is exceeded.
+     */
+    public @NotNull SyntaxTree getSimplified() throws InvalidExpressionException {
+        if (simplified == null) {
+            simplified = ExpressionSimplifier.simplify(getTree(), session.budget.start(), session.simplified);
+        }
+
+        return simplified;
+    }
+
+    /**
+     * @return the number of top-level tokens lexed to make this version, which is all of them for the first version
+     * or one following text that could not be lexed.
+     */
+    int getRelexedTokens() {
+        return relexedTokens;
+    }
+
+    private static int countWhitespace(String text, int start, int end) {
+        int count = 0;
+        for (int idx = start; idx < end; idx++) {
+            if (ExpressionLexer.isWhitespace(text.charAt(idx))) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the index of the first token of the version that starts at the position, or -1 if none does.
+     */
+    private int tokenStartingAt(int position) {
+        assert tokenStarts != null && tokens != null;
+        int low = 0;
+        int high = tokens.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokenStarts[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low < tokens.size() && tokenStarts[low] == position ? low : -1;
+    }
+
+    private @Nullable TokenType typeBefore(int index) {
+        assert tokens != null;
+        return index == 0 ? null : tokens.get(index - 1).type;
+    }
+
+    private static final class Lexed {
+        final @NotNull List<@NotNull LexNode> tokens;
+        final int @NotNull [] starts;
+        final int @NotNull [] ends;
+        final int relexedTokens;
+
+        Lexed(List<LexNode> tokens, int[] starts, int[] ends, int relexedTokens) {
+            this.tokens = tokens;
+            this.starts = starts;
+            this.ends = ends;
+            this.relexedTokens = relexedTokens;
+        }
+    }
+
+    /**
+     * The state shared by the versions derived from one parse.
+     */
+    private static final class Session {
+        final @NotNull Bindings bindings;
+        final @NotNull SimplifierBudget budget;
+        // The parenthesized subexpressions parsed so far, by their text without whitespace
+        final @NotNull Map<String, ParsedSubExpr> subExprs = Utils.lruMap(CACHE_CAPACITY);
+        final @NotNull Map<SyntaxTree, SyntaxTree> simplified = Utils.lruMap(CACHE_CAPACITY);
+
+        Session(Bindings bindings, SimplifierBudget budget) {
+            this.bindings = bindings;
+            this.budget = budget;
+        }
+
+        /**
+         * @param previous the version that was edited, or null to lex everything.
+         */
+        @NotNull IncrementalExpression version(String text, String stripped, @Nullable IncrementalExpression previous, int editStart, int removed, int inserted) {
+            BudgetMeter meter = budget.start();
+            Lexed lexed;
+            try {
+                lexed = previous == null || previous.tokens == null || previous.tokens.isEmpty()
+                        ? lexAll(stripped, meter)
+                        : relex(previous, stripped, meter, editStart, removed, inserted);
+            } catch (InvalidExpressionException e) {
+                return new IncrementalExpression(this, text, stripped, null, null, e);
+            }
+
+            try {
+                SyntaxTree tree = buildTree(lexed.tokens, meter, 1);
+                return new IncrementalExpression(this, text, stripped, lexed, tree, null);
+            } catch (InvalidExpressionException e) {
+                return new IncrementalExpression(this, text, stripped, lexed, null, e);
+            }
+        }
+
+        private static @NotNull Lexed lexAll(String stripped, BudgetMeter meter) throws InvalidExpressionException {
+            meter.checkDepth(1);
+            var lexer = new ExpressionLexer(stripped, meter, 1);
+            lexer.lexExpression();
+            List<LexNode> tokens = lexer.getLexNodes();
+            var starts = new int[tokens.size()];
+            var ends = new int[tokens.size()];
+            for (int idx = 0; idx < tokens.size(); idx++) {
+                starts[idx] = lexer.getTokenStart(idx);
+                ends[idx] = lexer.getTokenEnd(idx);
+            }
+
+            return new Lexed(tokens, starts, ends, tokens.size());
+        }
+
+        /**
+         * Lexes the tokens the edit may have changed. Lexing a token only depends on the text from where it starts
+         * and the type of the token before it, so once the lexer reaches a position after the edit where a previous
+         * token started, with the same type of token before it, the rest of the tokens are as they were.
+         */
+        private static @NotNull Lexed relex(IncrementalExpression previous, String stripped, BudgetMeter meter, int editStart, int removed, int inserted) throws InvalidExpressionException {
+            List<LexNode> oldTokens = previous.tokens;
+            int[] oldStarts = previous.tokenStarts;
+            int[] oldEnds = previous.tokenEnds;
+            assert oldTokens != null && oldStarts != null && oldEnds != null;
+            int count = oldTokens.size();
+
+            // A token ending where the edit starts may continue into the inserted text.
+            int first = 0;
+            while (first < count - 1 && oldEnds[first] < editStart) {
+                first++;
+            }
+
+            // An implicit multiplication is lexed together with the token after it.
+            if (first > 0 && oldStarts[first - 1] == oldEnds[first - 1]) {
+                first--;
+            }
+
+            var lexer = new ExpressionLexer(stripped, meter, 1);
+            lexer.resumeAt(oldStarts[first], previous.typeBefore(first));
+            int shift = inserted - removed;
+            int resumed = count;
+            while (lexer.lexToken()) {
+                int position = lexer.getPosition();
+                if (position >= editStart + inserted && position < stripped.length()) {
+                    int next = previous.tokenStartingAt(position - shift);
+                    if (next > 0 && previous.typeBefore(next) == lexer.getPrevTokenType()) {
+                        resumed = next;
+                        break;
+                    }
+                }
+            }
+
+            List<LexNode> newTokens = lexer.getLexNodes();
+            int size = first + newTokens.size() + count - resumed;
+            List<LexNode> tokens = new ArrayList<>(size);
+            var starts = new int[size];
+            var ends = new int[size];
+
+            tokens.addAll(oldTokens.subList(0, first));
+            System.arraycopy(oldStarts, 0, starts, 0, first);
+            System.arraycopy(oldEnds, 0, ends, 0, first);
+
+            tokens.addAll(newTokens);
+            for (int idx = 0; idx < newTokens.size(); idx++) {
+                starts[first + idx] = lexer.getTokenStart(idx);
+                ends[first + idx] = lexer.getTokenEnd(idx);
+            }
+
+            tokens.addAll(oldTokens.subList(resumed, count));
+            for (int idx = resumed; idx < count; idx++) {
+                int newIdx = first + newTokens.size() + idx - resumed;
+                starts[newIdx] = oldStarts[idx] + shift;
+                ends[newIdx] = oldEnds[idx] + shift;
+            }
+
+            return new Lexed(tokens, starts, ends, newTokens.size());
+        }
+
+        private @NotNull SyntaxTree buildTree(List<@NotNull LexNode> tokens, BudgetMeter meter, int depth) throws InvalidExpressionException {
+            List<SyntaxTree> subTrees = new ArrayList<>(tokens.size());
+            for (var token : tokens) {
+                if (token.type == TokenType.SUBEXPR) {
+                    subTrees.add(parseSubExpr(token.token, meter, depth + 1));
+                } else {
+                    subTrees.add(leaf(token, meter));
+                }
+            }
+
+            return ExpressionSimplifier.combineSubTrees(subTrees, meter);
+        }
+
+        /**
+         * A cached subexpression is charged the nodes its parse counted, so that the node budget fails as it would
+         * when parsing from scratch. Its nesting needs no check, since lexing the token that holds it already checked
+         * the depth of every parenthesis in it.
+         */
+        private @NotNull SyntaxTree parseSubExpr(String subExpr, BudgetMeter meter, int depth) throws InvalidExpressionException {
+            ParsedSubExpr cached = subExprs.get(subExpr);
+            if (cached != null) {
+                meter.addNodes(cached.nodes);
+                return cached.tree;
+            }
+
+            meter.checkDepth(depth);
+            long nodesBefore = meter.getNodes();
+            var lexer = new ExpressionLexer(Utils.removeParens(subExpr), meter, depth);
+            lexer.lexExpression();
+            SyntaxTree tree = buildTree(lexer.getLexNodes(), meter, depth);
+            subExprs.put(subExpr, new ParsedSubExpr(tree, Math.toIntExact(meter.getNodes() - nodesBefore)));
+            return tree;
+        }
+
+        private @NotNull SyntaxTree leaf(LexNode token, BudgetMeter meter) {
+            if (token.type == TokenType.NUMBER) {
+                meter.checkNumberToken(token.token);
+            }
+
+            meter.addNodes(1);
+            SyntaxTree value = bindings.get(token.symbol);
+            if (value != null) {
+                return value;
+            }
+
+            return new SyntaxTree(token);
+        }
+    }
+
+    private static final class ParsedSubExpr {
+        final @NotNull SyntaxTree tree;
+        // The nodes counted while parsing it
+        final int nodes;
+
+        ParsedSubExpr(SyntaxTree tree, int nodes) {
+            this.tree = tree;
+            this.nodes = nodes;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Generates the source of a Java class with one {@code static double} method per expression.
+ * <p>
+ * Each method takes the expression's variables as parameters, in alphabetical order. Subexpressions used more than
+ * once are hoisted into locals, as in {@link LetProgram}. The arithmetic is kept in the order of the tree, so the
+ * methods give the same results as {@link EvaluationTape}.
+ *
+ * @author Moussa
+ */
+final class JavaSourceGenerator {
+    private static final String INDENT = "    ";
+    private static final Set<String> KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue",
+            "default", "do", "double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if",
+            "implements", "import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+            "protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null", "var",
+            "record", "yield", "sealed", "permits", "_");
+    // Classes the generated code refers to, which a parameter of the same name would shadow.
+    private static final Set<String> CLASS_NAMES = Set.of("Math", "Double");
+
+    private JavaSourceGenerator() {
+    }
+
+    /**
+     * @param packageName the package of the class, or null for the default package.
+     * @param methodNames the name of the method for each tree.
+     */
+    @Contract(pure = true)
+    public static @NotNull String generate(@Nullable String packageName, String className, List<@NotNull String> methodNames, List<@NotNull SyntaxTree> trees) {
+        if (methodNames.size() != trees.size()) {
+            throw new IllegalArgumentException("Each expression needs a method name");
+        }
+
+        var source = new StringBuilder();
+        if (packageName != null && !packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+
+        source.append("/**\n * Generated from simplified expressions.\n */\n");
+        source.append("public final class ").append(className).append(" {\n");
+        source.append(INDENT).append("private ").append(className).append("() {\n").append(INDENT).append("}\n");
+        for (int idx = 0; idx < trees.size(); idx++) {
+            source.append('\n');
+            appendMethod(source, methodNames.get(idx), trees.get(idx));
+        }
+
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static void appendMethod(StringBuilder source, String methodName, SyntaxTree tree) {
+        SortedSet<String> variables = new TreeSet<>();
+        collectVariables(tree, variables);
+        LetProgram program = LetProgram.of(List.of(tree));
+
+        source.append(INDENT).append("/**\n");
+        source.append(INDENT).append(" * ").append(tree.toString().replace("*/", "*&#47;")).append('\n');
+        source.append(INDENT).append(" */\n");
+
+        var parameters = new StringJoiner(", ");
+        for (var variable : variables) {
+            parameters.add("double " + identifier(variable));
+        }
+
+        source.append(INDENT).append("public static double ").append(methodName).append('(').append(parameters).append(") {\n");
+        for (int idx = 0; idx < program.tempNames.size(); idx++) {
+            source.append(INDENT).append(INDENT).append("double ").append(identifier(program.tempNames.get(idx)))
+                    .append(" = ").append(toJava(program.tempDefinitions.get(idx))).append(";\n");
+        }
+
+        source.append(INDENT).append(INDENT).append("return ").append(toJava(program.outputs.get(0))).append(";\n");
+        source.append(INDENT).append("}\n");
+    }
+
+    private static void collectVariables(SyntaxTree tree, Set<String> variables) {
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            variables.add(tree.getToken());
+        } else if (!tree.isLeaf()) {
+            assert tree.left != null && tree.right != null;
+            collectVariables(tree.left, variables);
+            collectVariables(tree.right, variables);
+        }
+    }
+
+    /**
+     * @return the variable name, renamed if it is a Java keyword or a class the code refers to. Names ending in an
+     * underscore are renamed too, so that the renamed ones cannot clash with them.
+     */
+    @Contract(pure = true)
+    static @NotNull String identifier(String variable) {
+        boolean isReserved = KEYWORDS.contains(variable) || CLASS_NAMES.contains(variable);
+        return isReserved || variable.endsWith("_") ? variable + "_" : variable;
+    }
+
+    /**
+     * @return the tree as a Java expression of type double.
+     */
+    @Contract(pure = true)
+    static @NotNull String toJava(SyntaxTree tree) {
+        var java = new StringBuilder();
+        appendJava(java, tree);
+        return java.toString();
+    }
+
+    private static void appendJava(StringBuilder java, SyntaxTree tree) {
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            java.append(identifier(tree.getToken()));
+            return;
+        }
+
+        if (tree.isNumber()) {
+            double value = Rational.parse(tree.getToken()).doubleValue();
+            if (Double.isInfinite(value)) {
+                java.append(value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY");
+            } else {
+                java.append(value);
+            }
+
+            return;
+        }
+
+        SyntaxTree left = tree.left;
+        SyntaxTree right = tree.right;
+        assert left != null && right != null;
+
+        Operator operator = Operator.fromToken(tree.getToken());
+        if (operator == Operator.POW) {
+            java.append("Math.pow(");
+            appendJava(java, left);
+            java.append(", ");
+            appendJava(java, right);
+            java.append(')');
+            return;
+        }
+
+        appendOperand(java, left, operator, false);
+        java.append(' ').append(operator.token).append(' ');
+        appendOperand(java, right, operator, true);
+    }
+
+    /**
+     * Parenthesizes operands the way the tree groups them. A right operand of equal precedence is parenthesized even
+     * when the operator is associative, since floating point addition and multiplication are not.
+     */
+    private static void appendOperand(StringBuilder java, SyntaxTree operand, Operator operator, boolean isRight) {
+        boolean needsParens = false;
+        if (operand.tokenTypeEquals(TokenType.OPERATOR)) {
+            Operator operandOperator = Operator.fromToken(operand.getToken());
+            boolean isCall = operandOperator == Operator.POW;
+            needsParens = !isCall && (operandOperator.precedence < operator.precedence
+                    || isRight && operandOperator.precedence == operator.precedence);
+        }
+
+        if (needsParens) {
+            java.append('(');
+        }
+
+        appendJava(java, operand);
+
+        if (needsParens) {
+            java.append(')');
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A straight-line program computing several expressions, in which every subexpression used more than once is
+ * bound to a temporary and computed once, e.g.
+ * <pre>
+ * t1 = x^2 + 1
+ * e1 = 3t1
+ * e2 = t1/y
+ * </pre>
+ * Temporaries are defined before they are used. They are referred to by variable leaves, so each definition
+ * and output is an ordinary {@link SyntaxTree}.
+ *
+ * @author Moussa
+ */
+final class LetProgram {
+    private static final String TEMP_PREFIX = "t";
+    private static final String OUTPUT_PREFIX = "e";
+    private static final String ASSIGNMENT = " = ";
+
+    public final @NotNull List<@NotNull String> tempNames;
+    public final @NotNull List<@NotNull SyntaxTree> tempDefinitions;
+    public final @NotNull List<@NotNull String> outputNames;
+    public final @NotNull List<@NotNull SyntaxTree> outputs;
+
+    private LetProgram(List<String> tempNames, List<SyntaxTree> tempDefinitions, List<String> outputNames, List<SyntaxTree> outputs) {
+        this.tempNames = List.copyOf(tempNames);
+        this.tempDefinitions = List.copyOf(tempDefinitions);
+        this.outputNames = List.copyOf(outputNames);
+        this.outputs = List.copyOf(outputs);
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public static @NotNull LetProgram of(List<@NotNull SyntaxTree> trees) {
+        var dag = new ExpressionDag();
+        List<SyntaxTree> roots = new ArrayList<>(trees.size());
+        for (var tree : trees) {
+            roots.add(dag.intern(tree));
+        }
+
+        // Uses of each distinct subexpression, counting each root as one use.
+        Map<SyntaxTree, Integer> uses = new IdentityHashMap<>();
+        for (var root : roots) {
+            countUses(root, uses);
+        }
+
+        Set<String> variables = new HashSet<>();
+        for (var root : roots) {
+            collectVariables(root, variables, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+
+        String tempPrefix = unusedPrefix(TEMP_PREFIX, variables);
+        List<String> tempNames = new ArrayList<>();
+        List<SyntaxTree> tempDefinitions = new ArrayList<>();
+        Map<SyntaxTree, SyntaxTree> rewritten = new IdentityHashMap<>();
+        List<SyntaxTree> outputs = new ArrayList<>(roots.size());
+        for (var root : roots) {
+            SyntaxTree output = rewrite(root, uses, rewritten, tempPrefix, tempNames, tempDefinitions);
+            outputs.add(output);
+        }
+
+        String outputPrefix = unusedPrefix(OUTPUT_PREFIX, variables);
+        List<String> outputNames = new ArrayList<>(roots.size());
+        for (int idx = 1; idx <= roots.size(); idx++) {
+            outputNames.add(outputPrefix + idx);
+        }
+
+        return new LetProgram(tempNames, tempDefinitions, outputNames, outputs);
+    }
+
+    private static void countUses(SyntaxTree tree, Map<SyntaxTree, Integer> uses) {
+        int count = uses.merge(tree, 1, Integer::sum);
+        // Children of a shared subexpression are only counted once, through its single definition.
+        if (count == 1 && !tree.isLeaf()) {
+            assert tree.left != null && tree.right != null;
+            countUses(tree.left, uses);
+            countUses(tree.right, uses);
+        }
+    }
+
+    private static void collectVariables(SyntaxTree tree, Set<String> variables, Set<SyntaxTree> visited) {
+        if (!visited.add(tree)) {
+            return;
+        }
+
+        if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+            variables.add(tree.getToken());
+        } else if (!tree.isLeaf()) {
+            assert tree.left != null && tree.right != null;
+            collectVariables(tree.left, variables, visited);
+            collectVariables(tree.right, variables, visited);
+        }
+    }
+
+    /**
+     * @return a prefix such that no variable is the prefix followed by digits.
+     */
+    private static @NotNull String unusedPrefix(String prefix, Set<String> variables) {
+        String unused = prefix;
+        while (true) {
+            var generated = Pattern.compile(Pattern.quote(unused) + "\\d+");
+            boolean isUsed = false;
+            for (var variable : variables) {
+                if (generated.matcher(variable).matches()) {
+                    isUsed = true;
+                    break;
+                }
+            }
+
+            if (!isUsed) {
+                return unused;
+            }
+
+            unused += prefix;
+        }
+    }
+
+    private static @NotNull SyntaxTree rewrite(SyntaxTree tree, Map<SyntaxTree, Integer> uses, Map<SyntaxTree, SyntaxTree> rewritten,
+                                               String tempPrefix, List<String> tempNames, List<SyntaxTree> tempDefinitions) {
+        if (tree.isLeaf()) {
+            return tree;
+        }
+
+        SyntaxTree done = rewritten.get(tree);
+        if (done != null) {
+            return done;
+        }
+
+        assert tree.left != null && tree.right != null;
+        SyntaxTree left = rewrite(tree.left, uses, rewritten, tempPrefix, tempNames, tempDefinitions);
+        SyntaxTree right = rewrite(tree.right, uses, rewritten, tempPrefix, tempNames, tempDefinitions);
+        SyntaxTree definition = left == tree.left && right == tree.right ? tree : new SyntaxTree(tree.node, left, right);
+
+        SyntaxTree result = definition;
+        if (uses.get(tree) > 1) {
+            String name = tempPrefix + (tempNames.size() + 1);
+            tempNames.add(name);
+            tempDefinitions.add(definition);
+            result = new SyntaxTree(new LexNode(name, TokenType.VARIABLE));
+        }
+
+        rewritten.put(tree, result);
+        return result;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        var program = new StringJoiner(System.lineSeparator());
+        for (int idx = 0; idx < tempNames.size(); idx++) {
+            program.add(tempNames.get(idx) + ASSIGNMENT + tempDefinitions.get(idx));
+        }
+
+        for (int idx = 0; idx < outputs.size(); idx++) {
+            program.add(outputNames.get(idx) + ASSIGNMENT + outputs.get(idx));
+        }
+
+        return program.toString();
+    }
+}
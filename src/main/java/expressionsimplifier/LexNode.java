@@ -1,5 +1,6 @@
 package expressionsimplifier;
 
+import expressionsimplifier.SymbolTable.Symbol;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -8,15 +9,27 @@ import java.util.Objects;
 final class LexNode {
     public final @NotNull String token;
     public final @NotNull TokenType type;
+    // The id of a variable in the symbol table, or SymbolTable.NO_SYMBOL for other tokens
+    public final int symbol;
+    // Keeps the variable's id in the symbol table while the node is reachable
+    private final @Nullable Symbol interned;
+    private final int hash;
     public static final LexNode MUL = new LexNode(Constants.MUL, TokenType.OPERATOR);
     public static final LexNode POW = new LexNode(Constants.POW, TokenType.OPERATOR);
     public static final LexNode DIV = new LexNode(Constants.DIV, TokenType.OPERATOR);
+    public static final LexNode ADD = new LexNode(Constants.ADD, TokenType.OPERATOR);
+    public static final LexNode SUB = new LexNode(Constants.SUB, TokenType.OPERATOR);
     public static final LexNode ZERO = new LexNode("0", TokenType.NUMBER);
     public static final LexNode ONE = new LexNode("1", TokenType.NUMBER);
+    public static final LexNode TWO = new LexNode("2", TokenType.NUMBER);
+    public static final LexNode NEGATIVE_ONE = new LexNode(Constants.NEGATIVE_ONE, TokenType.NUMBER);
 
     public LexNode(String token, TokenType type) {
         this.token = token;
         this.type = type;
+        this.interned = type == TokenType.VARIABLE ? SymbolTable.symbol(token) : null;
+        this.symbol = interned == null ? SymbolTable.NO_SYMBOL : interned.id;
+        this.hash = Objects.hash(token, type);
     }
 
     @Override
@@ -35,7 +48,12 @@ final class LexNode {
 
         LexNode lexNode = (LexNode) o;
 
-        if (!token.equals(lexNode.token)) {
+        // Variables with the same id have the same name.
+        if (symbol != lexNode.symbol) {
+            return false;
+        }
+
+        if (symbol == SymbolTable.NO_SYMBOL && !token.equals(lexNode.token)) {
             return false;
         }
         return type == lexNode.type;
@@ -43,6 +61,6 @@ final class LexNode {
 
     @Override
     public int hashCode() {
-        return Objects.hash(token, type);
+        return hash;
     }
 }
@@ -2,47 +2,60 @@ package expressionsimplifier;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.*;
 import java.util.function.BinaryOperator;
 
 /**
  * @author Moussa
  */
-public enum Operator {
+public enum Operator implements BinaryOperator<Rational> {
     // Operators must be ordered by decreasing precedence.
-    POW(Constants.POW, 2, Operator::pow),
-    MUL(Constants.MUL, 1, BigDecimal::multiply),
-    DIV(Constants.DIV, 1, BigDecimal::divide),
-    ADD(Constants.ADD, 0, BigDecimal::add),
-    SUB(Constants.SUB, 0, BigDecimal::subtract);
+    POW(Constants.POW, 2, 8),
+    MUL(Constants.MUL, 1, 1),
+    DIV(Constants.DIV, 1, 4),
+    ADD(Constants.ADD, 0, 1),
+    SUB(Constants.SUB, 0, 1);
     public final @NotNull String token;
     public final int precedence;
-    public final @NotNull BinaryOperator<BigDecimal> function;
+    // Relative cost of evaluating the operator on floating point numbers.
+    public final int cost;
 
-    Operator(String token, int precedence, BinaryOperator<BigDecimal> function) {
+    Operator(String token, int precedence, int cost) {
         this.token = token;
         this.precedence = precedence;
-        this.function = function;
+        this.cost = cost;
     }
 
-    private static @NotNull BigDecimal pow(BigDecimal a, BigDecimal b) {
-        try {
-            BigInteger bigIntegerA = a.toBigIntegerExact();
-            BigInteger bigIntegerB = b.toBigIntegerExact();
-            double pow = Math.pow(bigIntegerA.doubleValue(), bigIntegerB.doubleValue());
-            return BigDecimal.valueOf((long) pow);
-        } catch (ArithmeticException e) {
-            double pow = Math.pow(a.doubleValue(), b.doubleValue());
-            return BigDecimal.valueOf(pow);
+    @Override
+    public @NotNull Rational apply(Rational left, Rational right) {
+        switch (this) {
+            case POW:
+                return left.pow(right);
+            case MUL:
+                return left.multiply(right);
+            case DIV:
+                return left.divide(right);
+            case ADD:
+                return left.add(right);
+            default:
+                return left.subtract(right);
         }
     }
 
-    public static @NotNull BinaryOperator<BigDecimal> getFunction(String token) {
+    public static @NotNull Operator fromToken(String token) {
         for (var op : Operator.values()) {
             if (op.token.equals(token)) {
-                return op.function;
+                return op;
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid operator token: " + token);
+    }
+
+    public static @NotNull BinaryOperator<Rational> getFunction(String token) {
+        for (var op : Operator.values()) {
+            if (op.token.equals(token)) {
+                return op;
             }
         }
 
@@ -0,0 +1,274 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses one long expression on several threads, building the same tree as {@link ExpressionSimplifier#parseExpr}.
+ * <p>
+ * The text is cut into segments, and the parenthesis depth at the start of each is found by a prefix sum over the
+ * depth change of each segment, computed in parallel. Each segment is then scanned in parallel for its first binary
+ * operator outside parentheses, where the expression is cut into chunks. The lexer after such an operator is in the
+ * same state whatever came before it, and an implicit multiplication never spans it, so the chunks are lexed, and
+ * their parenthesized subexpressions parsed, in parallel. Their operands are then combined by precedence on the
+ * calling thread, since all operators are left associative and the tree along the top level must be built in order.
+ * <p>
+ * If any chunk is invalid, the expression is parsed again sequentially, so that the error is the one sequential
+ * parsing reports.
+ *
+ * @author Moussa
+ */
+final class ParallelParser {
+    // Below this, the time to start tasks is more than the time to parse
+    static final int DEFAULT_SEGMENT_LENGTH = 1 << 16;
+
+    private final @NotNull CharSequence expr;
+    private final @NotNull BudgetMeter meter;
+    private final @NotNull ForkJoinPool pool;
+    private final int segmentLength;
+    private final int segmentCount;
+
+    private ParallelParser(CharSequence expr, BudgetMeter meter, ForkJoinPool pool, int segmentLength) {
+        this.expr = expr;
+        this.meter = meter;
+        this.pool = pool;
+        this.segmentLength = segmentLength;
+        this.segmentCount = (expr.length() + segmentLength - 1) / segmentLength;
+    }
+
+    /**
+     * @throws BudgetExceededException if the budget is exceeded.
+     */
+    @Contract(value = "_, _ -> new")
+    static @NotNull SyntaxTree parse(CharSequence expr, BudgetMeter meter) throws InvalidExpressionException {
+        return parse(expr, meter, ForkJoinPool.commonPool(), DEFAULT_SEGMENT_LENGTH);
+    }
+
+    /**
+     * @param segmentLength the length of text scanned by one task, which is about the length of text parsed by one.
+     * @throws BudgetExceededException if the budget is exceeded.
+     */
+    @Contract(value = "_, _, _, _ -> new")
+    static @NotNull SyntaxTree parse(CharSequence expr, BudgetMeter meter, ForkJoinPool pool, int segmentLength) throws InvalidExpressionException {
+        if (segmentLength < 1) {
+            throw new IllegalArgumentException("Segment length must be positive");
+        }
+
+        meter.checkInputLength(expr.length());
+        if (expr.length() <= segmentLength) {
+            return ExpressionSimplifier.parseExpr(expr, meter);
+        }
+
+        return new ParallelParser(expr, meter, pool, segmentLength).parse();
+    }
+
+    private @NotNull SyntaxTree parse() throws InvalidExpressionException {
+        meter.checkDepth(1);
+        int[] startDepths = startDepths();
+        if (startDepths == null) {
+            return ExpressionSimplifier.parseExpr(expr, meter);
+        }
+
+        List<Callable<Integer>> scans = new ArrayList<>(segmentCount);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int start = segment * segmentLength;
+            int depth = startDepths[segment];
+            scans.add(() -> findCut(start, depth));
+        }
+
+        List<Integer> cuts = new ArrayList<>();
+        for (Integer cut : invokeAll(scans)) {
+            if (cut >= 0) {
+                cuts.add(cut);
+            }
+        }
+
+        List<Callable<List<SyntaxTree>>> chunks = new ArrayList<>(cuts.size() + 1);
+        List<BudgetMeter> chunkMeters = new ArrayList<>(cuts.size() + 1);
+        for (int idx = 0; idx <= cuts.size(); idx++) {
+            int start = idx == 0 ? 0 : cuts.get(idx - 1) + 1;
+            int end = idx == cuts.size() ? expr.length() : cuts.get(idx);
+            boolean isAfterOperator = idx > 0;
+            BudgetMeter chunkMeter = meter.fork();
+            chunkMeters.add(chunkMeter);
+            chunks.add(() -> parseChunk(start, end, isAfterOperator, chunkMeter));
+        }
+
+        List<List<SyntaxTree>> chunkOperands;
+        try {
+            chunkOperands = invokeAll(chunks);
+        } catch (BudgetExceededException e) {
+            return ExpressionSimplifier.parseExpr(expr, meter);
+        }
+
+        if (chunkOperands.contains(null)) {
+            return ExpressionSimplifier.parseExpr(expr, meter);
+        }
+
+        List<SyntaxTree> operands = new ArrayList<>();
+        for (int idx = 0; idx < chunkOperands.size(); idx++) {
+            meter.join(chunkMeters.get(idx));
+            if (idx > 0) {
+                meter.addNodes(1);
+                operands.add(new SyntaxTree(operatorNode(expr.charAt(cuts.get(idx - 1)))));
+            }
+
+            operands.addAll(chunkOperands.get(idx));
+        }
+
+        return ExpressionSimplifier.combineSubTrees(operands, meter);
+    }
+
+    /**
+     * @return the operands and operators of the chunk, or null if it is invalid.
+     */
+    private @Nullable List<SyntaxTree> parseChunk(int start, int end, boolean isAfterOperator, BudgetMeter chunkMeter) {
+        try {
+            return ExpressionSimplifier.parseOperands(expr.subSequence(start, end), isAfterOperator, chunkMeter);
+        } catch (InvalidExpressionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The prefix sum of the depth change of each segment.
+     *
+     * @return the parenthesis depth at the start of each segment, or null if the parentheses are unbalanced.
+     */
+    private int @Nullable [] startDepths() {
+        List<Callable<int[]>> scans = new ArrayList<>(segmentCount);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int start = segment * segmentLength;
+            scans.add(() -> depthChange(start));
+        }
+
+        int[] startDepths = new int[segmentCount];
+        int depth = 0;
+        List<int[]> changes = invokeAll(scans);
+        for (int segment = 0; segment < segmentCount; segment++) {
+            int[] change = changes.get(segment);
+            // A closing parenthesis without an opening one
+            if (depth + change[1] < 0) {
+                return null;
+            }
+
+            startDepths[segment] = depth;
+            depth += change[0];
+        }
+
+        return depth == 0 ? startDepths : null;
+    }
+
+    /**
+     * @return the depth at the end of the segment and the lowest depth within it, relative to its start.
+     */
+    private int @NotNull [] depthChange(int start) {
+        // Only reads the deadline and cancellation, so it is safe from any thread.
+        meter.checkpoint();
+        int end = Math.min(start + segmentLength, expr.length());
+        int depth = 0;
+        int minDepth = 0;
+        for (int idx = start; idx < end; idx++) {
+            char chr = expr.charAt(idx);
+            if (chr == '(') {
+                depth++;
+            } else if (chr == ')') {
+                depth--;
+                minDepth = Math.min(minDepth, depth);
+            }
+        }
+
+        return new int[]{depth, minDepth};
+    }
+
+    /**
+     * @return the position of the first binary operator outside parentheses in the segment, or -1 if there is none.
+     */
+    private int findCut(int start, int depth) {
+        meter.checkpoint();
+        int end = Math.min(start + segmentLength, expr.length());
+        for (int idx = start; idx < end; idx++) {
+            char chr = expr.charAt(idx);
+            if (chr == '(') {
+                depth++;
+            } else if (chr == ')') {
+                depth--;
+            } else if (depth == 0 && idx > 0 && isOperator(chr) && endsOperand(idx)) {
+                return idx;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return whether the last character before the position, ignoring whitespace, ends a number, a variable or a
+     * parenthesized subexpression, so that an operator at the position is binary.
+     */
+    private boolean endsOperand(int position) {
+        for (int idx = position - 1; idx >= 0; idx--) {
+            char chr = expr.charAt(idx);
+            if (!ExpressionLexer.isWhitespace(chr)) {
+                return chr == ')' || chr == '.' || Character.isDigit(chr) || Character.isAlphabetic(chr);
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isOperator(char chr) {
+        return chr == '+' || chr == '-' || chr == '*' || chr == '/' || chr == '^';
+    }
+
+    private static @NotNull LexNode operatorNode(char chr) {
+        switch (chr) {
+            case '^':
+                return LexNode.POW;
+            case '*':
+                return LexNode.MUL;
+            case '/':
+                return LexNode.DIV;
+            case '+':
+                return LexNode.ADD;
+            default:
+                return LexNode.SUB;
+        }
+    }
+
+    /**
+     * Runs the tasks on the pool and waits for all of them.
+     */
+    private <T> @NotNull List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BudgetExceededException("Simplification cancelled");
+        } catch (ExecutionException e) {
+            // The tasks only throw unchecked exceptions.
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IllegalStateException(cause);
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,180 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A tree pattern used by {@link RewriteRule}s. Patterns are matched against a {@link SyntaxTree} to bind named
+ * subtrees, and instantiated from those bindings to build replacement trees.
+ * <p>
+ * A name that appears more than once in a pattern only matches if every occurrence binds equal subtrees,
+ * e.g. {@code op(SUB, any("a"), any("a"))} matches {@code x - x} but not {@code x - y}.
+ *
+ * @author Moussa
+ */
+final class Pattern {
+    public static final Pattern ZERO = literal(SyntaxTree.ZERO);
+    public static final Pattern ONE = literal(SyntaxTree.ONE);
+
+    enum Kind {
+        // Matches any subtree
+        ANY,
+        // Matches any number leaf
+        NUMBER,
+        // Matches any variable leaf
+        VARIABLE,
+        // Matches a leaf with exactly this token
+        LITERAL,
+        // Matches an operator node whose children match the child patterns
+        OPERATOR
+    }
+
+    public final @NotNull Kind kind;
+    private final @Nullable String name;
+    private final @Nullable SyntaxTree literal;
+    private final @Nullable LexNode operator;
+    public final @Nullable Pattern left;
+    public final @Nullable Pattern right;
+
+    private Pattern(Kind kind, @Nullable String name, @Nullable SyntaxTree literal, @Nullable LexNode operator, @Nullable Pattern left, @Nullable Pattern right) {
+        this.kind = kind;
+        this.name = name;
+        this.literal = literal;
+        this.operator = operator;
+        this.left = left;
+        this.right = right;
+    }
+
+    public static @NotNull Pattern any(String name) {
+        return new Pattern(Kind.ANY, name, null, null, null, null);
+    }
+
+    public static @NotNull Pattern number(String name) {
+        return new Pattern(Kind.NUMBER, name, null, null, null, null);
+    }
+
+    public static @NotNull Pattern variable(String name) {
+        return new Pattern(Kind.VARIABLE, name, null, null, null, null);
+    }
+
+    public static @NotNull Pattern literal(SyntaxTree leaf) {
+        if (!leaf.isLeaf()) {
+            throw new IllegalArgumentException("Literal patterns must be leaves");
+        }
+
+        return new Pattern(Kind.LITERAL, null, leaf, null, null, null);
+    }
+
+    public static @NotNull Pattern op(Operator operator, Pattern left, Pattern right) {
+        var node = new LexNode(operator.token, TokenType.OPERATOR);
+        return new Pattern(Kind.OPERATOR, null, null, node, left, right);
+    }
+
+    /**
+     * @return the node an operator or literal pattern matches, or null for the other kinds.
+     */
+    public @Nullable LexNode getNode() {
+        if (kind == Kind.LITERAL) {
+            assert literal != null;
+            return literal.node;
+        }
+
+        return operator;
+    }
+
+    public @Nullable String getName() {
+        return name;
+    }
+
+    /**
+     * Matches this pattern against the tree, adding the subtrees bound to each name to {@code bindings}.
+     * The bindings may be partially filled if the match fails.
+     */
+    public boolean match(SyntaxTree tree, Map<String, SyntaxTree> bindings) {
+        switch (kind) {
+            case ANY:
+                return bind(tree, bindings);
+            case NUMBER:
+                return tree.isNumber() && bind(tree, bindings);
+            case VARIABLE:
+                return tree.tokenTypeEquals(TokenType.VARIABLE) && bind(tree, bindings);
+            case LITERAL:
+                assert literal != null;
+                return literal.node.equals(tree.node);
+            case OPERATOR:
+                assert left != null && right != null;
+                if (!Objects.equals(operator, tree.node)) {
+                    return false;
+                }
+
+                assert tree.left != null && tree.right != null;
+                return left.match(tree.left, bindings) && right.match(tree.right, bindings);
+            default:
+                throw new IllegalStateException("Unknown pattern kind: " + kind);
+        }
+    }
+
+    private boolean bind(SyntaxTree tree, Map<String, SyntaxTree> bindings) {
+        assert name != null;
+        SyntaxTree bound = bindings.putIfAbsent(name, tree);
+        return bound == null || bound.equals(tree);
+    }
+
+    /**
+     * Builds the tree described by this pattern, replacing names by the subtrees bound to them.
+     */
+    @Contract(pure = true)
+    public @NotNull SyntaxTree instantiate(Map<String, SyntaxTree> bindings) {
+        if (kind == Kind.LITERAL) {
+            assert literal != null;
+            return literal;
+        }
+
+        if (kind == Kind.OPERATOR) {
+            assert operator != null && left != null && right != null;
+            return new SyntaxTree(operator, left.instantiate(bindings), right.instantiate(bindings));
+        }
+
+        SyntaxTree bound = bindings.get(name);
+        if (bound == null) {
+            throw new IllegalStateException("Unbound pattern variable: " + name);
+        }
+
+        return bound;
+    }
+
+    /**
+     * Adds the names used in this pattern to {@code names}.
+     */
+    public void collectNames(Set<String> names) {
+        if (name != null) {
+            names.add(name);
+        }
+
+        if (left != null && right != null) {
+            left.collectNames(names);
+            right.collectNames(names);
+        }
+    }
+
+    @Override
+    public @NotNull String toString() {
+        switch (kind) {
+            case ANY:
+                return String.valueOf(name);
+            case NUMBER:
+                return "#" + name;
+            case VARIABLE:
+                return "$" + name;
+            case LITERAL:
+                return String.valueOf(literal);
+            default:
+                return String.format("(%s %s %s)", left, operator, right);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * An expression parsed once, to be simplified under many sets of variable values.
+ * <p>
+ * Substitution shares every subtree without a bound variable with the parsed tree, and simplified subtrees are
+ * remembered across calls, so simplifying under new values only simplifies the paths from the substituted variables
+ * to the root again. The result is the same as simplifying the expression with the values from scratch.
+ * <p>
+ * The remembered subtrees are not synchronized, so an instance must only be used from one thread at a time.
+ *
+ * @author Moussa
+ */
+final class PreparedExpression {
+    private static final int CACHE_CAPACITY = 1 << 14;
+
+    private final @NotNull SyntaxTree tree;
+    private final @NotNull SimplifierBudget budget;
+    private final @NotNull Map<SyntaxTree, SyntaxTree> simplified = Utils.lruMap(CACHE_CAPACITY);
+
+    private PreparedExpression(SyntaxTree tree, SimplifierBudget budget) {
+        this.tree = tree;
+        this.budget = budget;
+    }
+
+    /**
+     * @param budget applies to parsing, and to each simplification separately.
+     * @throws BudgetExceededException if the budget is exceeded while parsing.
+     */
+    @Contract(pure = true, value = "_, _ -> new")
+    public static @NotNull PreparedExpression parse(String expr, SimplifierBudget budget) throws InvalidExpressionException {
+        return new PreparedExpression(ExpressionSimplifier.parseExpr(expr, budget.start()), budget);
+    }
+
+    public @NotNull SyntaxTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the parsed tree with the values substituted, sharing the subtrees that have no bound variables.
+     */
+    @Contract(pure = true)
+    public @NotNull SyntaxTree substitute(Bindings bindings) {
+        return bindings.substitute(tree);
+    }
+
+    /**
+     * @throws BudgetExceededException if the budget is exceeded.
+     */
+    public @NotNull SyntaxTree simplify(Bindings bindings) throws InvalidExpressionException {
+        return ExpressionSimplifier.simplify(substitute(bindings), budget.start(), simplified);
+    }
+}
@@ -0,0 +1,450 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * An exact rational number {@code numerator/denominator}.
+ * <p>
+ * Values whose parts fit in a {@code long} are computed without allocating {@link BigInteger}s and are only promoted
+ * when an operation overflows. Results are not reduced to lowest terms after every operation, the GCD is taken
+ * lazily when the value is printed or hashed, or when an operation would otherwise overflow.
+ *
+ * @author Moussa
+ */
+public final class Rational implements Comparable<Rational> {
+    public static final Rational ZERO = new Rational(0, 1, false, true);
+    public static final Rational ONE = new Rational(1, 1, false, true);
+    private static final String FRACTION_BAR = "/";
+    private static final int MAX_LONG_DIGITS = 18;
+
+    // Used when bigNumerator is null. The denominator is always positive.
+    private final long numerator;
+    private final long denominator;
+    private final @Nullable BigInteger bigNumerator;
+    private final @Nullable BigInteger bigDenominator;
+    // Whether the value was written in, or computed from a value written in, decimal notation.
+    private final boolean decimal;
+    private final boolean reduced;
+
+    private Rational(long numerator, long denominator, boolean decimal, boolean reduced) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        this.bigNumerator = null;
+        this.bigDenominator = null;
+        this.decimal = decimal;
+        this.reduced = reduced;
+    }
+
+    private Rational(BigInteger numerator, BigInteger denominator, boolean decimal, boolean reduced) {
+        this.numerator = 0;
+        this.denominator = 1;
+        this.bigNumerator = numerator;
+        this.bigDenominator = denominator;
+        this.decimal = decimal;
+        this.reduced = reduced;
+    }
+
+    public static @NotNull Rational valueOf(long value) {
+        return new Rational(value, 1, false, true);
+    }
+
+    public static @NotNull Rational of(long numerator, long denominator) {
+        if (denominator == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        if (denominator < 0) {
+            return of(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+        }
+
+        return new Rational(numerator, denominator, false, false);
+    }
+
+    public static @NotNull Rational of(BigInteger numerator, BigInteger denominator) {
+        if (denominator.signum() == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        if (denominator.signum() < 0) {
+            return ofBig(numerator.negate(), denominator.negate(), false);
+        }
+
+        return ofBig(numerator, denominator, false);
+    }
+
+    public static @NotNull Rational valueOf(BigDecimal value) {
+        int scale = value.scale();
+        BigInteger unscaled = value.unscaledValue();
+        if (scale <= 0) {
+            return ofBig(unscaled.multiply(BigInteger.TEN.pow(-scale)), BigInteger.ONE, true);
+        }
+
+        return ofBig(unscaled, BigInteger.TEN.pow(scale), true);
+    }
+
+    public static @NotNull Rational valueOf(double value) {
+        return valueOf(BigDecimal.valueOf(value));
+    }
+
+    /**
+     * Parses an integer ({@code 12}), decimal ({@code 1.5}) or fraction ({@code -1/3}) token.
+     *
+     * @throws NumberFormatException if the token is not a number.
+     */
+    public static @NotNull Rational parse(String token) {
+        int barIdx = token.indexOf(FRACTION_BAR);
+        if (barIdx != -1) {
+            BigInteger num = new BigInteger(token.substring(0, barIdx));
+            BigInteger den = new BigInteger(token.substring(barIdx + 1));
+            if (den.signum() == 0) {
+                throw new NumberFormatException("Zero denominator: " + token);
+            }
+
+            return of(num, den);
+        }
+
+        if (isPlainInteger(token)) {
+            if (token.length() <= MAX_LONG_DIGITS) {
+                return valueOf(Long.parseLong(token));
+            }
+
+            return ofBig(new BigInteger(token), BigInteger.ONE, false);
+        }
+
+        return valueOf(new BigDecimal(token));
+    }
+
+    private static boolean isPlainInteger(String token) {
+        int start = token.startsWith(Constants.NEGATIVE_SIGN) ? 1 : 0;
+        if (start == token.length()) {
+            return false;
+        }
+
+        for (int idx = start; idx < token.length(); idx++) {
+            if (!Character.isDigit(token.charAt(idx))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static @NotNull Rational ofBig(BigInteger numerator, BigInteger denominator, boolean decimal) {
+        if (numerator.bitLength() < Long.SIZE && denominator.bitLength() < Long.SIZE) {
+            return new Rational(numerator.longValue(), denominator.longValue(), decimal, false);
+        }
+
+        return new Rational(numerator, denominator, decimal, false);
+    }
+
+    private boolean isSmall() {
+        return bigNumerator == null;
+    }
+
+    /**
+     * @return the numerator in lowest terms, which has the sign of the value.
+     */
+    public @NotNull BigInteger getNumerator() {
+        return reduce().bigNumerator();
+    }
+
+    /**
+     * @return the denominator in lowest terms, which is positive.
+     */
+    public @NotNull BigInteger getDenominator() {
+        return reduce().bigDenominator();
+    }
+
+    private @NotNull BigInteger bigNumerator() {
+        return bigNumerator != null ? bigNumerator : BigInteger.valueOf(numerator);
+    }
+
+    private @NotNull BigInteger bigDenominator() {
+        return bigDenominator != null ? bigDenominator : BigInteger.valueOf(denominator);
+    }
+
+    /**
+     * @return this number in lowest terms.
+     */
+    @Contract(pure = true)
+    public @NotNull Rational reduce() {
+        if (reduced) {
+            return this;
+        }
+
+        if (isSmall() && numerator != Long.MIN_VALUE) {
+            long gcd = gcd(Math.abs(numerator), denominator);
+            return new Rational(numerator / gcd, denominator / gcd, decimal, true);
+        }
+
+        BigInteger num = bigNumerator();
+        BigInteger den = bigDenominator();
+        BigInteger gcd = num.gcd(den);
+        num = num.divide(gcd);
+        den = den.divide(gcd);
+        if (num.bitLength() < Long.SIZE && den.bitLength() < Long.SIZE) {
+            return new Rational(num.longValue(), den.longValue(), decimal, true);
+        }
+
+        return new Rational(num, den, decimal, true);
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long tmp = a % b;
+            a = b;
+            b = tmp;
+        }
+
+        return a == 0 ? 1 : a;
+    }
+
+    private boolean canReduce(Rational other) {
+        return !reduced || !other.reduced;
+    }
+
+    public @NotNull Rational add(Rational other) {
+        boolean isDecimal = decimal || other.decimal;
+        if (isSmall() && other.isSmall()) {
+            try {
+                if (denominator == other.denominator) {
+                    return new Rational(Math.addExact(numerator, other.numerator), denominator, isDecimal, false);
+                }
+
+                long num = Math.addExact(Math.multiplyExact(numerator, other.denominator), Math.multiplyExact(other.numerator, denominator));
+                long den = Math.multiplyExact(denominator, other.denominator);
+                return new Rational(num, den, isDecimal, false);
+            } catch (ArithmeticException e) {
+                if (canReduce(other)) {
+                    return reduce().add(other.reduce());
+                }
+            }
+        }
+
+        BigInteger num = bigNumerator().multiply(other.bigDenominator()).add(other.bigNumerator().multiply(bigDenominator()));
+        return ofBig(num, bigDenominator().multiply(other.bigDenominator()), isDecimal);
+    }
+
+    public @NotNull Rational negate() {
+        if (isSmall() && numerator != Long.MIN_VALUE) {
+            return new Rational(-numerator, denominator, decimal, reduced);
+        }
+
+        return ofBig(bigNumerator().negate(), bigDenominator(), decimal);
+    }
+
+    public @NotNull Rational subtract(Rational other) {
+        return add(other.negate());
+    }
+
+    public @NotNull Rational multiply(Rational other) {
+        boolean isDecimal = decimal || other.decimal;
+        if (isSmall() && other.isSmall()) {
+            try {
+                long num = Math.multiplyExact(numerator, other.numerator);
+                long den = Math.multiplyExact(denominator, other.denominator);
+                return new Rational(num, den, isDecimal, false);
+            } catch (ArithmeticException e) {
+                if (canReduce(other)) {
+                    return reduce().multiply(other.reduce());
+                }
+            }
+        }
+
+        return ofBig(bigNumerator().multiply(other.bigNumerator()), bigDenominator().multiply(other.bigDenominator()), isDecimal);
+    }
+
+    public @NotNull Rational divide(Rational other) {
+        if (other.isZero()) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        return multiply(other.reciprocal());
+    }
+
+    private @NotNull Rational reciprocal() {
+        if (isZero()) {
+            throw new ArithmeticException("Division by zero");
+        }
+
+        if (isSmall()) {
+            if (numerator > 0) {
+                return new Rational(denominator, numerator, decimal, reduced);
+            }
+
+            if (numerator != Long.MIN_VALUE) {
+                return new Rational(-denominator, -numerator, decimal, reduced);
+            }
+        }
+
+        BigInteger num = bigNumerator();
+        BigInteger den = bigDenominator();
+        if (num.signum() < 0) {
+            return ofBig(den.negate(), num.negate(), decimal);
+        }
+
+        return ofBig(den, num, decimal);
+    }
+
+    /**
+     * Integer exponents are computed exactly. Other exponents fall back to floating point arithmetic.
+     *
+     * @throws ArithmeticException if a non-integer power is too large for floating point arithmetic.
+     */
+    public @NotNull Rational pow(Rational exponent) {
+        Rational reducedExponent = exponent.reduce();
+        if (reducedExponent.isInteger() && reducedExponent.bigNumerator().bitLength() < Integer.SIZE - 1) {
+            int power = reducedExponent.bigNumerator().intValue();
+            return power < 0 ? reduce().reciprocal().pow(-power) : reduce().pow(power);
+        }
+
+        double power = Math.pow(doubleValue(), exponent.doubleValue());
+        if (!Double.isFinite(power)) {
+            throw new ArithmeticException("Power out of range");
+        }
+
+        return valueOf(power);
+    }
+
+    private @NotNull Rational pow(int power) {
+        if (isSmall()) {
+            try {
+                long num = 1;
+                long den = 1;
+                long baseNum = numerator;
+                long baseDen = denominator;
+                for (int exp = power; exp > 0; exp >>= 1) {
+                    if ((exp & 1) == 1) {
+                        num = Math.multiplyExact(num, baseNum);
+                        den = Math.multiplyExact(den, baseDen);
+                    }
+
+                    if (exp > 1) {
+                        baseNum = Math.multiplyExact(baseNum, baseNum);
+                        baseDen = Math.multiplyExact(baseDen, baseDen);
+                    }
+                }
+
+                return new Rational(num, den, decimal, true);
+            } catch (ArithmeticException e) {
+                // Fall back to BigInteger arithmetic.
+            }
+        }
+
+        return ofBig(bigNumerator().pow(power), bigDenominator().pow(power), decimal);
+    }
+
+    public int signum() {
+        return isSmall() ? Long.signum(numerator) : bigNumerator().signum();
+    }
+
+    public boolean isZero() {
+        return signum() == 0;
+    }
+
+    public boolean isInteger() {
+        if (isSmall()) {
+            return denominator == 1 || numerator % denominator == 0;
+        }
+
+        return bigNumerator().mod(bigDenominator()).signum() == 0;
+    }
+
+    /**
+     * @return the number of bits needed to store the magnitudes of the numerator and denominator.
+     */
+    public int bitLength() {
+        return bigNumerator().abs().bitLength() + bigDenominator().bitLength();
+    }
+
+    public double doubleValue() {
+        if (isSmall()) {
+            return (double) numerator / denominator;
+        }
+
+        return new BigDecimal(bigNumerator()).divide(new BigDecimal(bigDenominator()), MathContext.DECIMAL64).doubleValue();
+    }
+
+    @Override
+    public int compareTo(Rational other) {
+        if (isSmall() && other.isSmall()) {
+            try {
+                return Long.compare(Math.multiplyExact(numerator, other.denominator), Math.multiplyExact(other.numerator, denominator));
+            } catch (ArithmeticException e) {
+                // Fall back to BigInteger arithmetic.
+            }
+        }
+
+        return bigNumerator().multiply(other.bigDenominator()).compareTo(other.bigNumerator().multiply(bigDenominator()));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        return compareTo((Rational) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        Rational lowest = reduce();
+        if (lowest.isSmall()) {
+            return 31 * Long.hashCode(lowest.numerator) + Long.hashCode(lowest.denominator);
+        }
+
+        return 31 * lowest.bigNumerator().hashCode() + lowest.bigDenominator().hashCode();
+    }
+
+    /**
+     * @return the exact decimal expansion, or null if it does not terminate.
+     */
+    public @Nullable BigDecimal toBigDecimal() {
+        Rational lowest = reduce();
+        try {
+            return new BigDecimal(lowest.bigNumerator()).divide(new BigDecimal(lowest.bigDenominator()));
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the number as an integer, or as a fraction {@code n/d} in lowest terms.
+     */
+    public @NotNull String toFractionString() {
+        Rational lowest = reduce();
+        if (lowest.isSmall()) {
+            return lowest.denominator == 1 ? Long.toString(lowest.numerator) : lowest.numerator + FRACTION_BAR + lowest.denominator;
+        }
+
+        BigInteger den = lowest.bigDenominator();
+        return den.equals(BigInteger.ONE) ? lowest.bigNumerator().toString() : lowest.bigNumerator() + FRACTION_BAR + den;
+    }
+
+    /**
+     * Numbers that were written in decimal notation are printed as decimals when their expansion terminates.
+     * Everything else is printed as an integer or fraction.
+     */
+    @Override
+    public @NotNull String toString() {
+        if (decimal) {
+            BigDecimal value = toBigDecimal();
+            if (value != null) {
+                return value.setScale(Math.max(1, value.scale())).toPlainString();
+            }
+        }
+
+        return toFractionString();
+    }
+}
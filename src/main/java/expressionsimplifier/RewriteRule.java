@@ -0,0 +1,79 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A declarative rewrite {@code pattern -> replacement}, optionally restricted by a guard on the bound subtrees.
+ *
+ * @author Moussa
+ */
+final class RewriteRule implements Simplifier {
+    public final @NotNull String name;
+    public final @NotNull Pattern pattern;
+    public final @NotNull Pattern replacement;
+    private final @Nullable Predicate<Map<String, SyntaxTree>> guard;
+
+    public RewriteRule(String name, Pattern pattern, Pattern replacement) {
+        this(name, pattern, replacement, null);
+    }
+
+    public RewriteRule(String name, Pattern pattern, Pattern replacement, @Nullable Predicate<Map<String, SyntaxTree>> guard) {
+        if (pattern.kind != Pattern.Kind.OPERATOR) {
+            throw new IllegalArgumentException("Rule patterns must match an operator: " + name);
+        }
+
+        Set<String> patternNames = new HashSet<>();
+        pattern.collectNames(patternNames);
+        Set<String> replacementNames = new HashSet<>();
+        replacement.collectNames(replacementNames);
+        if (!patternNames.containsAll(replacementNames)) {
+            throw new IllegalArgumentException("Replacement uses names not bound by the pattern: " + name);
+        }
+
+        this.name = name;
+        this.pattern = pattern;
+        this.replacement = replacement;
+        this.guard = guard;
+    }
+
+    /**
+     * @param bindings scratch map, cleared before matching.
+     * @return the rewritten tree, or null if the rule does not apply.
+     */
+    @Nullable SyntaxTree rewrite(SyntaxTree tree, Map<String, SyntaxTree> bindings) {
+        bindings.clear();
+        if (!pattern.match(tree, bindings) || !test(bindings)) {
+            return null;
+        }
+
+        return replacement.instantiate(bindings);
+    }
+
+    public boolean hasGuard() {
+        return guard != null;
+    }
+
+    public boolean test(Map<String, SyntaxTree> bindings) {
+        return guard == null || guard.test(bindings);
+    }
+
+    @Override
+    @Contract(pure = true)
+    public SyntaxTree simplify(SyntaxTree tree) {
+        SyntaxTree rewritten = rewrite(tree, new HashMap<>());
+        return rewritten != null ? rewritten : tree;
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return String.format("%s: %s -> %s", name, pattern, replacement);
+    }
+}
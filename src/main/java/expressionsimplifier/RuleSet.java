@@ -0,0 +1,210 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An ordered set of {@link RewriteRule}s, compiled into a discrimination index so that only rules whose pattern
+ * can match a node's operator and child shapes are tried against it.
+ * <p>
+ * At most one rule is applied per call, the first matching rule in priority order. The number of times each rule
+ * fired is recorded, so that a profiled rule set can be rebuilt with {@link #reorderedByHits()}. Reordering is only
+ * safe when rules whose patterns overlap produce the same result.
+ *
+ * @author Moussa
+ */
+final class RuleSet implements Simplifier {
+    // Index key for child patterns that match any subtree
+    private static final Object WILDCARD = new Object();
+
+    private final @NotNull List<@NotNull RewriteRule> rules;
+    private final @NotNull AtomicLongArray hits;
+    // operator token -> left child key -> right child key -> candidate rule indices in priority order
+    private final @NotNull Map<String, Map<Object, Map<Object, int[]>>> index = new HashMap<>();
+
+    public RuleSet(List<@NotNull RewriteRule> rules) {
+        this.rules = List.copyOf(rules);
+        this.hits = new AtomicLongArray(rules.size());
+
+        Map<String, List<Integer>> ruleIdsByOperator = new HashMap<>();
+        for (int id = 0; id < this.rules.size(); id++) {
+            LexNode operator = this.rules.get(id).pattern.getNode();
+            assert operator != null;
+            List<Integer> ids = ruleIdsByOperator.get(operator.token);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                ruleIdsByOperator.put(operator.token, ids);
+            }
+
+            ids.add(id);
+        }
+
+        for (var entry : ruleIdsByOperator.entrySet()) {
+            index.put(entry.getKey(), compileLeft(entry.getValue()));
+        }
+    }
+
+    public @NotNull List<@NotNull RewriteRule> getRules() {
+        return rules;
+    }
+
+    private @NotNull Map<Object, Map<Object, int[]>> compileLeft(List<Integer> ruleIds) {
+        Map<Object, Map<Object, int[]>> leftLevel = new HashMap<>();
+        for (Object leftKey : lookupKeys(ruleIds, true)) {
+            List<Integer> leftIds = acceptingRules(ruleIds, leftKey, true);
+
+            Map<Object, int[]> rightLevel = new HashMap<>();
+            for (Object rightKey : lookupKeys(leftIds, false)) {
+                List<Integer> candidates = acceptingRules(leftIds, rightKey, false);
+                var candidateIds = new int[candidates.size()];
+                for (int idx = 0; idx < candidateIds.length; idx++) {
+                    candidateIds[idx] = candidates.get(idx);
+                }
+
+                rightLevel.put(rightKey, candidateIds);
+            }
+
+            leftLevel.put(leftKey, rightLevel);
+        }
+
+        return leftLevel;
+    }
+
+    private @NotNull Pattern childPattern(int ruleId, boolean isLeft) {
+        Pattern pattern = rules.get(ruleId).pattern;
+        Pattern child = isLeft ? pattern.left : pattern.right;
+        assert child != null;
+        return child;
+    }
+
+    /**
+     * The key of a child pattern is the node it matches exactly, the token type of the leaves it matches, or
+     * {@link #WILDCARD} if it matches any subtree.
+     */
+    private static @NotNull Object patternKey(Pattern pattern) {
+        switch (pattern.kind) {
+            case NUMBER:
+                return TokenType.NUMBER;
+            case VARIABLE:
+                return TokenType.VARIABLE;
+            case LITERAL:
+            case OPERATOR:
+                LexNode node = pattern.getNode();
+                assert node != null;
+                return node;
+            default:
+                return WILDCARD;
+        }
+    }
+
+    private @NotNull Set<Object> lookupKeys(List<Integer> ruleIds, boolean isLeft) {
+        Set<Object> keys = new HashSet<>();
+        keys.add(WILDCARD);
+        for (int id : ruleIds) {
+            Object key = patternKey(childPattern(id, isLeft));
+            keys.add(key);
+            if (key instanceof LexNode) {
+                keys.add(((LexNode) key).type);
+            }
+        }
+
+        return keys;
+    }
+
+    private @NotNull List<Integer> acceptingRules(List<Integer> ruleIds, Object lookupKey, boolean isLeft) {
+        List<Integer> accepting = new ArrayList<>();
+        for (int id : ruleIds) {
+            Object key = patternKey(childPattern(id, isLeft));
+            boolean accepts = key == WILDCARD || key.equals(lookupKey)
+                    || (lookupKey instanceof LexNode && key == ((LexNode) lookupKey).type);
+            if (accepts) {
+                accepting.add(id);
+            }
+        }
+
+        return accepting;
+    }
+
+    /**
+     * Finds the most specific entry for the child: its exact node, then its token type, then the wildcard.
+     */
+    private static <T> @Nullable T resolve(Map<Object, T> level, SyntaxTree child) {
+        T entry = level.get(child.node);
+        if (entry == null) {
+            entry = level.get(child.node.type);
+        }
+
+        if (entry == null) {
+            entry = level.get(WILDCARD);
+        }
+
+        return entry;
+    }
+
+    @Override
+    @Contract(pure = true)
+    public SyntaxTree simplify(SyntaxTree tree) {
+        if (tree.isLeaf()) {
+            return tree;
+        }
+
+        assert tree.left != null && tree.right != null;
+
+        Map<Object, Map<Object, int[]>> leftLevel = index.get(tree.getToken());
+        if (leftLevel == null) {
+            return tree;
+        }
+
+        Map<Object, int[]> rightLevel = resolve(leftLevel, tree.left);
+        int[] candidates = rightLevel != null ? resolve(rightLevel, tree.right) : null;
+        if (candidates == null || candidates.length == 0) {
+            return tree;
+        }
+
+        Map<String, SyntaxTree> bindings = new HashMap<>();
+        for (int id : candidates) {
+            SyntaxTree rewritten = rules.get(id).rewrite(tree, bindings);
+            if (rewritten != null) {
+                hits.incrementAndGet(id);
+                return rewritten;
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * @return the number of times each rule fired, in priority order.
+     */
+    public @NotNull Map<String, Long> hitCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int id = 0; id < rules.size(); id++) {
+            counts.merge(rules.get(id).name, hits.get(id), Long::sum);
+        }
+
+        return counts;
+    }
+
+    /**
+     * @return a new rule set with the same rules, the most frequently fired first.
+     */
+    public @NotNull RuleSet reorderedByHits() {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < rules.size(); id++) {
+            ids.add(id);
+        }
+
+        ids.sort(Comparator.comparingLong(id -> -hits.get(id)));
+
+        List<RewriteRule> reordered = new ArrayList<>();
+        for (int id : ids) {
+            reordered.add(rules.get(id));
+        }
+
+        return new RuleSet(reordered);
+    }
+}
@@ -0,0 +1,48 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+
+import static expressionsimplifier.EvaluationTape.*;
+
+/**
+ * Plain loops, one per operator, which the JIT may still unroll or vectorize.
+ *
+ * @author Moussa
+ */
+final class ScalarKernel implements BatchKernel {
+    public static final @NotNull ScalarKernel INSTANCE = new ScalarKernel();
+
+    private ScalarKernel() {
+    }
+
+    @Override
+    public void apply(byte opcode, double[] work, int left, int right, int result, int length) {
+        switch (opcode) {
+            case ADD:
+                for (int idx = 0; idx < length; idx++) {
+                    work[result + idx] = work[left + idx] + work[right + idx];
+                }
+                break;
+            case SUB:
+                for (int idx = 0; idx < length; idx++) {
+                    work[result + idx] = work[left + idx] - work[right + idx];
+                }
+                break;
+            case MUL:
+                for (int idx = 0; idx < length; idx++) {
+                    work[result + idx] = work[left + idx] * work[right + idx];
+                }
+                break;
+            case DIV:
+                for (int idx = 0; idx < length; idx++) {
+                    work[result + idx] = work[left + idx] / work[right + idx];
+                }
+                break;
+            default:
+                for (int idx = 0; idx < length; idx++) {
+                    work[result + idx] = Math.pow(work[left + idx], work[right + idx]);
+                }
+                break;
+        }
+    }
+}
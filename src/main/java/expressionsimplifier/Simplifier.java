@@ -1,6 +1,5 @@
 package expressionsimplifier;
 
-@SuppressWarnings("unused")
 @FunctionalInterface
 interface Simplifier {
     SyntaxTree simplify(SyntaxTree tree);
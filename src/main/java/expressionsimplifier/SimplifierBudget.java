@@ -0,0 +1,88 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Limits on the resources a single simplification may use. Exceeding any of them throws a
+ * {@link BudgetExceededException}.
+ * <p>
+ * Budgets are immutable and can be shared between calls. The wall-clock timeout starts when a call begins.
+ * Interrupting the simplifying thread, or the optional cancellation signal returning true, cancels the call at the
+ * next check.
+ *
+ * @author Moussa
+ */
+final class SimplifierBudget {
+    public static final @NotNull SimplifierBudget UNLIMITED = new SimplifierBudget(
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, null, null);
+
+    // Recursion over trees deeper than a few thousand levels risks overflowing the default thread stack.
+    public static final @NotNull SimplifierBudget DEFAULT = new SimplifierBudget(
+            1 << 20, 1 << 20, 2_000, 1 << 16, Duration.ofSeconds(10), null);
+
+    public final int maxInputLength;
+    public final int maxNodes;
+    public final int maxDepth;
+    public final int maxNumberBits;
+    private final Duration timeout;
+    // Null if the call cannot be cancelled other than by interruption.
+    private final @Nullable BooleanSupplier cancellation;
+
+    private SimplifierBudget(int maxInputLength, int maxNodes, int maxDepth, int maxNumberBits, Duration timeout, @Nullable BooleanSupplier cancellation) {
+        this.maxInputLength = maxInputLength;
+        this.maxNodes = maxNodes;
+        this.maxDepth = maxDepth;
+        this.maxNumberBits = maxNumberBits;
+        this.timeout = timeout;
+        this.cancellation = cancellation;
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public @NotNull SimplifierBudget withMaxInputLength(int maxInputLength) {
+        return new SimplifierBudget(maxInputLength, maxNodes, maxDepth, maxNumberBits, timeout, cancellation);
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public @NotNull SimplifierBudget withMaxNodes(int maxNodes) {
+        return new SimplifierBudget(maxInputLength, maxNodes, maxDepth, maxNumberBits, timeout, cancellation);
+    }
+
+    /**
+     * Limits both the depth of the syntax tree and the nesting of parentheses.
+     */
+    @Contract(pure = true, value = "_ -> new")
+    public @NotNull SimplifierBudget withMaxDepth(int maxDepth) {
+        return new SimplifierBudget(maxInputLength, maxNodes, maxDepth, maxNumberBits, timeout, cancellation);
+    }
+
+    /**
+     * Limits the size of every number, including intermediate results of constant folding.
+     */
+    @Contract(pure = true, value = "_ -> new")
+    public @NotNull SimplifierBudget withMaxNumberBits(int maxNumberBits) {
+        return new SimplifierBudget(maxInputLength, maxNodes, maxDepth, maxNumberBits, timeout, cancellation);
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public @NotNull SimplifierBudget withTimeout(Duration timeout) {
+        return new SimplifierBudget(maxInputLength, maxNodes, maxDepth, maxNumberBits, timeout, cancellation);
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public @NotNull SimplifierBudget withCancellation(BooleanSupplier cancellation) {
+        return new SimplifierBudget(maxInputLength, maxNodes, maxDepth, maxNumberBits, timeout, cancellation);
+    }
+
+    /**
+     * @return a meter tracking one call against this budget, with its timeout starting now.
+     */
+    @NotNull BudgetMeter start() {
+        long deadline = timeout == null ? Long.MAX_VALUE : System.nanoTime() + timeout.toNanos();
+        return new BudgetMeter(this, deadline, cancellation);
+    }
+}
@@ -0,0 +1,459 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * A long-running simplifier that serves command lines over a localhost TCP socket, so that callers do not pay for
+ * starting and warming up a JVM on every call.
+ * <p>
+ * Each frame is a big-endian int length followed by that many bytes. A connection starts with a frame holding the
+ * secret the daemon wrote to its {@link #secretFile}, which only the user running the daemon can read, since the
+ * commands read and write files as that user. A request is the number of arguments followed by one frame per argument,
+ * in UTF-8, with at most 16 MiB in all. A response is a flag byte, which is 1 if there is text to print, followed by
+ * the text as a frame. A connection may send any number of requests, and gets the responses in the same order.
+ * <p>
+ * Connections hand their requests to a bounded queue, which worker threads drain in batches of up to
+ * {@code maxBatch} requests, so a burst of small requests costs one wakeup per batch rather than one per request.
+ * When the queue is full a request is answered at once with {@link #BUSY} instead of waiting.
+ * <p>
+ * The request {@code --stats} returns the {@link Stats} of the daemon instead of running a command. Relative paths in
+ * commands are resolved against the working directory of the daemon, so clients send absolute ones.
+ *
+ * @author Moussa
+ */
+final class SimplifierDaemon implements Closeable {
+    public static final String STATS_REQUEST = "--stats";
+    public static final String BUSY = "Server busy, try again later";
+    public static final String UNAUTHORIZED = "Not authorized to use this daemon";
+    public static final @NotNull Path DEFAULT_SECRET_DIRECTORY = Path.of(System.getProperty("user.home"), ".expressionsimplifier");
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BATCH = 64;
+    private static final int MAX_FRAME_LENGTH = 1 << 24;
+    // All the frames of a request together, so that a request cannot hold many frames of the largest length.
+    private static final int MAX_REQUEST_LENGTH = 1 << 24;
+    private static final int MAX_ARGS = 1 << 16;
+    private static final int LATENCY_BUCKETS = 40;
+    private static final int SECRET_LENGTH = 32;
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private final @NotNull Function<String[], @Nullable String> handler;
+    private final @NotNull ServerSocket serverSocket;
+    private final @NotNull BlockingQueue<Request> queue;
+    private final int maxBatch;
+    private final @NotNull ExecutorService workers;
+    private final @NotNull ExecutorService connections;
+    private final @NotNull List<Socket> openSockets = new ArrayList<>();
+    private final byte @NotNull [] secret = new byte[SECRET_LENGTH];
+    private final @NotNull Path secretFile;
+
+    private final long start = System.nanoTime();
+    private final @NotNull AtomicLong completed = new AtomicLong();
+    private final @NotNull AtomicLong rejected = new AtomicLong();
+    private final @NotNull AtomicLong batches = new AtomicLong();
+    private final @NotNull AtomicLong totalLatencyNanos = new AtomicLong();
+    // Bucket i counts latencies below 2^i microseconds that are not in an earlier bucket.
+    private final @NotNull AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+
+    /**
+     * Binds to the loopback address and starts serving, with the secret in {@link #DEFAULT_SECRET_DIRECTORY}.
+     *
+     * @param handler runs the arguments of a request, and returns the text to print or null.
+     * @param port    the port to listen on, or 0 for any free port.
+     */
+    public SimplifierDaemon(Function<String[], @Nullable String> handler, int port, int threads, int queueCapacity, int maxBatch) throws IOException {
+        this(handler, port, threads, queueCapacity, maxBatch, DEFAULT_SECRET_DIRECTORY);
+    }
+
+    /**
+     * @param secretDirectory where the secret is written, which is created readable only by the current user.
+     */
+    public SimplifierDaemon(Function<String[], @Nullable String> handler, int port, int threads, int queueCapacity, int maxBatch,
+                            Path secretDirectory) throws IOException {
+        if (threads < 1 || queueCapacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("Threads, queue capacity and batch size must be positive");
+        }
+
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        new SecureRandom().nextBytes(secret);
+        try {
+            this.secretFile = writeSecret(secretDirectory, getPort(), secret);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+
+        this.workers = Executors.newFixedThreadPool(threads, daemonThreads("simplifier-worker"));
+        this.connections = Executors.newCachedThreadPool(daemonThreads("simplifier-connection"));
+        for (int idx = 0; idx < threads; idx++) {
+            workers.execute(this::work);
+        }
+
+        connections.execute(this::accept);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Blocks until the daemon is closed.
+     */
+    public void awaitClose() throws InterruptedException {
+        while (!connections.awaitTermination(1, TimeUnit.DAYS)) {
+            // Keep waiting.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (openSockets) {
+            for (var socket : openSockets) {
+                socket.close();
+            }
+        }
+
+        workers.shutdownNow();
+        connections.shutdownNow();
+        Files.deleteIfExists(secretFile);
+    }
+
+    /**
+     * @return the file the daemon on the port keeps its secret in.
+     */
+    public static @NotNull Path secretFile(Path secretDirectory, int port) {
+        return secretDirectory.resolve("daemon-" + port + ".secret");
+    }
+
+    /**
+     * Creates the file with no access for other users before writing to it, in a directory that only the current user
+     * can write to, so that no one else can read the secret or replace the file.
+     */
+    private static @NotNull Path writeSecret(Path directory, int port, byte[] secret) throws IOException {
+        Path file = secretFile(directory, port);
+        if (!directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory);
+            Files.deleteIfExists(file);
+            Files.write(file, secret);
+            return file;
+        }
+
+        Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+        // Fails if another user owns an existing directory.
+        Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY);
+        Files.deleteIfExists(file);
+        Files.createFile(file, PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE));
+        Files.write(file, secret);
+        return file;
+    }
+
+    /**
+     * Sends one request to a daemon on this machine, with the secret in {@link #DEFAULT_SECRET_DIRECTORY}.
+     *
+     * @return the text the command printed, or null if it printed nothing.
+     */
+    public static @Nullable String request(int port, List<@NotNull String> args) throws IOException {
+        return request(DEFAULT_SECRET_DIRECTORY, port, args);
+    }
+
+    public static @Nullable String request(Path secretDirectory, int port, List<@NotNull String> args) throws IOException {
+        byte[] secret = Files.readAllBytes(secretFile(secretDirectory, port));
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(secret.length);
+            out.write(secret);
+            out.writeInt(args.size());
+            for (var arg : args) {
+                writeFrame(out, arg);
+            }
+
+            out.flush();
+
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            return readResponse(in);
+        }
+    }
+
+    public @NotNull Stats stats() {
+        long[] buckets = new long[LATENCY_BUCKETS];
+        for (int idx = 0; idx < LATENCY_BUCKETS; idx++) {
+            buckets[idx] = latencyBuckets.get(idx);
+        }
+
+        return new Stats(completed.get(), rejected.get(), batches.get(), System.nanoTime() - start,
+                totalLatencyNanos.get(), buckets);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                synchronized (openSockets) {
+                    openSockets.add(socket);
+                }
+
+                connections.execute(() -> serve(socket));
+            } catch (IOException | RejectedExecutionException e) {
+                // The server socket was closed.
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!MessageDigest.isEqual(secret, readFrameBytes(in, SECRET_LENGTH))) {
+                writeResponse(out, UNAUTHORIZED);
+                out.flush();
+                return;
+            }
+
+            String[] args;
+            while ((args = readRequest(in)) != null) {
+                writeResponse(out, respond(args));
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // The client went away or the daemon is closing, and there is no one to report to.
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            synchronized (openSockets) {
+                openSockets.remove(socket);
+            }
+        }
+    }
+
+    private @Nullable String respond(String[] args) throws InterruptedException, IOException {
+        if (args.length == 1 && args[0].equals(STATS_REQUEST)) {
+            return stats().toString();
+        }
+
+        var request = new Request(args);
+        if (!queue.offer(request)) {
+            rejected.incrementAndGet();
+            return BUSY;
+        }
+
+        try {
+            return request.response.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void work() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatch - 1);
+                batches.incrementAndGet();
+                for (var request : batch) {
+                    process(request);
+                }
+
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Always completes the response, so that the connection waiting for it is not left blocked. An error in the
+     * handler fails the response, which closes that connection, and the worker goes on to the next request.
+     */
+    private void process(Request request) {
+        String response = null;
+        Throwable error = null;
+        try {
+            response = handler.apply(request.args);
+        } catch (RuntimeException e) {
+            response = e.getMessage();
+        } catch (Error e) {
+            error = e;
+        }
+
+        long latency = System.nanoTime() - request.enqueued;
+        totalLatencyNanos.addAndGet(latency);
+        latencyBuckets.incrementAndGet(latencyBucket(latency));
+        completed.incrementAndGet();
+        if (error != null) {
+            request.response.completeExceptionally(error);
+        } else {
+            request.response.complete(response);
+        }
+    }
+
+    private static int latencyBucket(long latencyNanos) {
+        long micros = latencyNanos / 1000;
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return the arguments, or null at the end of the stream.
+     */
+    private static String @Nullable [] readRequest(DataInputStream in) throws IOException {
+        int count;
+        try {
+            count = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+
+        if (count < 0 || count > MAX_ARGS) {
+            throw new IOException("Malformed request");
+        }
+
+        var args = new String[count];
+        int remaining = MAX_REQUEST_LENGTH;
+        for (int idx = 0; idx < count; idx++) {
+            byte[] bytes = readFrameBytes(in, remaining);
+            remaining -= bytes.length;
+            args[idx] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return args;
+    }
+
+    private static void writeResponse(DataOutputStream out, @Nullable String response) throws IOException {
+        out.writeByte(response == null ? 0 : 1);
+        if (response != null) {
+            writeFrame(out, response);
+        }
+    }
+
+    private static @Nullable String readResponse(DataInputStream in) throws IOException {
+        int flag = in.readUnsignedByte();
+        if (flag > 1) {
+            throw new IOException("Malformed response");
+        }
+
+        return flag == 0 ? null : readFrame(in);
+    }
+
+    private static void writeFrame(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static @NotNull String readFrame(DataInputStream in) throws IOException {
+        return new String(readFrameBytes(in, MAX_FRAME_LENGTH), StandardCharsets.UTF_8);
+    }
+
+    private static byte @NotNull [] readFrameBytes(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > Math.min(maxLength, MAX_FRAME_LENGTH)) {
+            throw new IOException("Malformed frame");
+        }
+
+        var bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static @NotNull ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            var thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Request {
+        final String @NotNull [] args;
+        final long enqueued = System.nanoTime();
+        final @NotNull CompletableFuture<@Nullable String> response = new CompletableFuture<>();
+
+        Request(String[] args) {
+            this.args = args;
+        }
+    }
+
+    /**
+     * Counts since the daemon started. Latency is measured from when a request is queued to when its response is
+     * ready.
+     */
+    public static final class Stats {
+        public final long completed;
+        public final long rejected;
+        public final long batches;
+        public final long elapsedNanos;
+        private final long totalLatencyNanos;
+        private final long @NotNull [] latencyBuckets;
+
+        Stats(long completed, long rejected, long batches, long elapsedNanos, long totalLatencyNanos, long[] latencyBuckets) {
+            this.completed = completed;
+            this.rejected = rejected;
+            this.batches = batches;
+            this.elapsedNanos = elapsedNanos;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.latencyBuckets = latencyBuckets;
+        }
+
+        public double requestsPerSecond() {
+            return completed * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        public double meanLatencyMillis() {
+            return completed == 0 ? 0 : totalLatencyNanos / 1e6 / completed;
+        }
+
+        /**
+         * @return an upper bound on the latency of the given fraction of requests, to within a factor of 2.
+         */
+        @Contract(pure = true)
+        public double latencyPercentileMillis(double fraction) {
+            long target = (long) Math.ceil(fraction * completed);
+            long seen = 0;
+            for (int idx = 0; idx < latencyBuckets.length; idx++) {
+                seen += latencyBuckets[idx];
+                if (seen >= target) {
+                    return (1L << idx) / 1e3;
+                }
+            }
+
+            return Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d rejected, %.0f requests/s, %.1f requests per batch, "
+                            + "latency mean %.3f ms, p50 < %.3f ms, p99 < %.3f ms",
+                    completed, rejected, requestsPerSecond(), batches == 0 ? 0.0 : (double) completed / batches,
+                    meanLatencyMillis(), latencyPercentileMillis(0.5), latencyPercentileMillis(0.99));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package expressionsimplifier;
+
+/**
+ * The training run for the class data sharing archive built by the {@code appcds} profile.
+ * <p>
+ * It runs one of each common kind of command line, so that the archive holds the classes every mode loads. Running
+ * with the archive then skips loading, verifying and linking those classes at startup.
+ * <p>
+ * Each lambda and method reference still has its call site bootstrapped on first use, which was a large part of the
+ * startup time even with the archive. Code on the startup path therefore uses switches, small classes and loops where
+ * a lambda would be usual.
+ *
+ * @author Moussa
+ */
+final class StartupTraining {
+    private static final String[][] COMMANDS = {
+            {"2x + 3x - (x + 1)^2/(x + 1)", "y=2"},
+            {"x*y/0.5 + 1/3", "x=2", "y=1/4"},
+            {"(x + 1", "x=2"},
+            {"--saturate", "x*1 + 0*y - x/x"},
+            {"--batch", "(x + 1)^2", "(x + 1)^2*y", "x=3"},
+            {"--cse", "(x + 1)^2", "(x + 1)^2*y"},
+            {"--optimize", "2x^4 + 3x^3 - x^2 + 7x - 1", "x^15"},
+            {"--java", "Training", "x^2 + y"},
+    };
+
+    private StartupTraining() {
+    }
+
+    public static void main(String... args) {
+        int outputLength = 0;
+        for (var command : COMMANDS) {
+            String output = ExpressionSimplifier.run(command);
+            outputLength += output == null ? 0 : output.length();
+        }
+
+        //NOPMD - suppressed SystemPrintln
+        System.out.println("Trained on " + COMMANDS.length + " commands, " + outputLength + " characters of output");
+    }
+}
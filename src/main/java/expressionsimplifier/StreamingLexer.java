@@ -0,0 +1,287 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import static expressionsimplifier.Constants.*;
+
+/**
+ * Lexes an expression read from a stream, one token at a time, with the same rules as {@link ExpressionLexer}.
+ * <p>
+ * Characters are pulled through a fixed-size buffer, so only the token being lexed is held in memory rather than the
+ * text. Instead of one token per parenthesized subexpression, the parentheses themselves are returned as the
+ * {@link #OPEN_PAREN} and {@link #CLOSE_PAREN} tokens, which the {@link StreamingParser} matches. The input length
+ * is checked against the budget as it is read.
+ *
+ * @author Moussa
+ */
+final class StreamingLexer {
+    public static final @NotNull LexNode OPEN_PAREN = new LexNode(LEFT_PAREN, TokenType.SUBEXPR);
+    public static final @NotNull LexNode CLOSE_PAREN = new LexNode(RIGHT_PAREN, TokenType.SUBEXPR);
+    static final int BUFFER_SIZE = 1 << 13;
+    private static final int END = -1;
+
+    private final @NotNull Reader reader;
+    private final @NotNull BudgetMeter meter;
+    private final char @NotNull [] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    // The number of characters read, including whitespace
+    private long length;
+    // The number of parentheses open at the current position
+    private int depth;
+    // The type of the last token of the current level of parentheses, or null at its beginning
+    private @Nullable TokenType prevTokenType;
+    // A token lexed together with the implicit multiplication before it
+    private @Nullable LexNode pending;
+    private final @NotNull StringBuilder token = new StringBuilder();
+
+    StreamingLexer(Reader reader, BudgetMeter meter) {
+        this.reader = reader;
+        this.meter = meter;
+    }
+
+    /**
+     * Decodes the channel as UTF-8, reporting malformed input as an {@link IOException}.
+     */
+    static @NotNull StreamingLexer of(ReadableByteChannel channel, BudgetMeter meter) {
+        return new StreamingLexer(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE), meter);
+    }
+
+    /**
+     * @return the next token, or null at the end of the expression.
+     */
+    @SuppressWarnings("AlibabaAvoidComplexCondition")
+    @Nullable LexNode next() throws IOException, InvalidExpressionException {
+        if (pending != null) {
+            LexNode next = pending;
+            pending = null;
+            return next;
+        }
+
+        int chr = peek();
+        if (chr == END) {
+            if (depth > 0) {
+                throw new InvalidExpressionException("Unmatched opening parenthesis");
+            }
+
+            return null;
+        }
+
+        meter.checkpoint();
+        String chrStr = String.valueOf((char) chr);
+        boolean isAtBeginning = prevTokenType == null;
+        boolean isPrevOperator = prevTokenType == TokenType.OPERATOR;
+
+        if (chrStr.equals(LEFT_PAREN)) {
+            return lexOpenParen();
+        } else if (chrStr.equals(RIGHT_PAREN)) {
+            return lexCloseParen();
+        } else if (chrStr.equals(NEGATIVE_SIGN) && (isPrevOperator || isAtBeginning)) {
+            return handleNegativeSign();
+        } else if (operatorTokens().contains(chrStr)) {
+            return lexOperator(chrStr);
+        } else if (Character.isDigit(chr)) {
+            return lexNumber();
+        } else if (Character.isAlphabetic(chr)) {
+            return lexVariable();
+        }
+
+        throw new InvalidExpressionException("Invalid character: " + chrStr);
+    }
+
+    /**
+     * @return the number of parentheses open after the last token.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Skips the rest of the innermost open parentheses after an error in them, as {@link ExpressionLexer} only matches
+     * the parentheses of a subexpression before lexing it, and continues after them as after {@link #CLOSE_PAREN}.
+     *
+     * @throws InvalidExpressionException if the parentheses are not closed.
+     */
+    void skipParens() throws IOException, InvalidExpressionException {
+        assert depth > 0;
+        token.setLength(0);
+        pending = null;
+        int end = depth - 1;
+        while (depth > end) {
+            int chr = peek();
+            if (chr == END) {
+                throw new InvalidExpressionException("Unmatched opening parenthesis");
+            }
+
+            position++;
+            if (chr == LEFT_PAREN.charAt(0)) {
+                depth++;
+                meter.checkDepth(depth + 1);
+            } else if (chr == RIGHT_PAREN.charAt(0)) {
+                depth--;
+            }
+        }
+
+        prevTokenType = TokenType.SUBEXPR;
+    }
+
+    private @NotNull LexNode lexOpenParen() throws InvalidExpressionException {
+        boolean isImplicitMultiplication = hasImplicitMultiplication();
+        if (!isImplicitMultiplication && prevTokenType == TokenType.VARIABLE) {
+            throw new InvalidExpressionException("Invalid expression");
+        }
+
+        position++;
+        depth++;
+        // The whole expression is at depth 1, as in ExpressionSimplifier.parseExpr.
+        meter.checkDepth(depth + 1);
+        prevTokenType = null;
+        return withImplicitMultiplication(OPEN_PAREN, isImplicitMultiplication);
+    }
+
+    private @NotNull LexNode lexCloseParen() throws InvalidExpressionException {
+        if (depth == 0) {
+            throw new InvalidExpressionException("Unmatched closing parenthesis");
+        }
+
+        position++;
+        depth--;
+        prevTokenType = TokenType.SUBEXPR;
+        return CLOSE_PAREN;
+    }
+
+    private @NotNull LexNode handleNegativeSign() throws IOException, InvalidExpressionException {
+        position++;
+        int next = peek();
+        if (next == END) {
+            throw new InvalidExpressionException(depth > 0 ? "Unmatched opening parenthesis" : "Invalid expression");
+        }
+
+        // The end of a parenthesized subexpression is the end of the expression lexed for it.
+        if (depth > 0 && RIGHT_PAREN.equals(String.valueOf((char) next))) {
+            throw new InvalidExpressionException("Invalid expression");
+        }
+
+        if (Character.isDigit(next)) {
+            token.append(NEGATIVE_SIGN);
+            return lexNumber();
+        }
+
+        // Implicit multiplication case
+        prevTokenType = TokenType.NUMBER;
+        return LexNode.NEGATIVE_ONE;
+    }
+
+    private @NotNull LexNode lexOperator(String chr) throws InvalidExpressionException {
+        if (prevTokenType == TokenType.OPERATOR) {
+            throw new InvalidExpressionException("Two operators in a row");
+        }
+
+        position++;
+        prevTokenType = TokenType.OPERATOR;
+        return operatorNode(chr);
+    }
+
+    private static @NotNull LexNode operatorNode(String chr) {
+        switch (chr) {
+            case Constants.POW:
+                return LexNode.POW;
+            case Constants.MUL:
+                return LexNode.MUL;
+            case Constants.DIV:
+                return LexNode.DIV;
+            case Constants.ADD:
+                return LexNode.ADD;
+            default:
+                return LexNode.SUB;
+        }
+    }
+
+    private @NotNull LexNode lexNumber() throws IOException {
+        for (int chr = peek(); chr != END && isNumberChar((char) chr); chr = peek()) {
+            token.append((char) chr);
+            position++;
+        }
+
+        prevTokenType = TokenType.NUMBER;
+        return takeToken(TokenType.NUMBER);
+    }
+
+    private @NotNull LexNode lexVariable() throws IOException {
+        boolean isImplicitMultiplication = hasImplicitMultiplication();
+        for (int chr = peek(); chr != END && isVariableChar((char) chr); chr = peek()) {
+            token.append((char) chr);
+            position++;
+        }
+
+        prevTokenType = TokenType.VARIABLE;
+        return withImplicitMultiplication(takeToken(TokenType.VARIABLE), isImplicitMultiplication);
+    }
+
+    private @NotNull LexNode takeToken(TokenType type) {
+        var node = new LexNode(token.toString(), type);
+        token.setLength(0);
+        return node;
+    }
+
+    private boolean hasImplicitMultiplication() {
+        return prevTokenType == TokenType.SUBEXPR || prevTokenType == TokenType.NUMBER;
+    }
+
+    private @NotNull LexNode withImplicitMultiplication(LexNode node, boolean isImplicitMultiplication) {
+        if (!isImplicitMultiplication) {
+            return node;
+        }
+
+        pending = node;
+        return LexNode.MUL;
+    }
+
+    /**
+     * Skips whitespace, as {@link ExpressionLexer} removes it before lexing, so it may also split a token.
+     *
+     * @return the next character that is not whitespace, without consuming it, or {@link #END}.
+     */
+    private int peek() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return END;
+            }
+
+            char chr = buffer[position];
+            if (!ExpressionLexer.isWhitespace(chr)) {
+                return chr;
+            }
+
+            position++;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+
+        position = 0;
+        limit = count;
+        length += count;
+        meter.checkInputLength((int) Math.min(length, Integer.MAX_VALUE));
+        return true;
+    }
+
+    private static boolean isNumberChar(char chr) {
+        return Character.isDigit(chr) || chr == '.';
+    }
+
+    private static boolean isVariableChar(char chr) {
+        return Character.isAlphabetic(chr) || Character.isDigit(chr);
+    }
+}
@@ -0,0 +1,223 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses an expression from a stream, building the same tree as {@link ExpressionSimplifier#parseExpr} would from
+ * the whole text.
+ * <p>
+ * Tokens are taken one at a time from a {@link StreamingLexer} and combined by operator precedence on explicit stacks,
+ * so the memory used is that of the tree, and deep nesting uses neither recursion nor rescanning. All operators are
+ * left associative, as in {@link ExpressionSimplifier#combineSubTrees}.
+ * <p>
+ * An invalid expression fails with the same error as the whole text. That parser lexes each level of parentheses
+ * before parsing the subexpressions in it, and combines the level last, so an error in parentheses is only reported
+ * once the rest of the text around them has been read without one.
+ *
+ * @author Moussa
+ */
+final class StreamingParser {
+    private final @NotNull StreamingLexer lexer;
+    private final @NotNull BudgetMeter meter;
+    private final @NotNull List<@NotNull SyntaxTree> operands = new ArrayList<>();
+    // Operators waiting for their right operand, and the open parentheses
+    private final @NotNull List<@NotNull LexNode> operators = new ArrayList<>();
+    // The open levels of parentheses, starting with the whole expression
+    private final @NotNull List<@NotNull Level> levels = new ArrayList<>();
+    // Whether an error was read, after which only the errors are tracked and no tree is built
+    private boolean hasError;
+
+    private StreamingParser(StreamingLexer lexer, BudgetMeter meter) {
+        this.lexer = lexer;
+        this.meter = meter;
+    }
+
+    /**
+     * @throws BudgetExceededException if the budget is exceeded.
+     */
+    @Contract(value = "_, _ -> new")
+    static @NotNull SyntaxTree parse(Reader reader, BudgetMeter meter) throws IOException, InvalidExpressionException {
+        return new StreamingParser(new StreamingLexer(reader, meter), meter).parse();
+    }
+
+    /**
+     * @param channel read as UTF-8.
+     * @throws BudgetExceededException if the budget is exceeded.
+     */
+    @Contract(value = "_, _ -> new")
+    static @NotNull SyntaxTree parse(ReadableByteChannel channel, BudgetMeter meter) throws IOException, InvalidExpressionException {
+        return new StreamingParser(StreamingLexer.of(channel, meter), meter).parse();
+    }
+
+    private @NotNull SyntaxTree parse() throws IOException, InvalidExpressionException {
+        meter.checkDepth(1);
+        levels.add(new Level());
+        boolean isOperandNext = true;
+        while (true) {
+            LexNode token;
+            try {
+                token = lexer.next();
+            } catch (InvalidExpressionException e) {
+                if (levels.size() == 1) {
+                    throw e;
+                }
+
+                // The rest of the parentheses is not lexed, as the error is theirs.
+                lexer.skipParens();
+                levels.remove(levels.size() - 1);
+                addSubExprError(e.getMessage());
+                isOperandNext = false;
+                continue;
+            }
+
+            if (token == null) {
+                break;
+            }
+
+            if (token == StreamingLexer.OPEN_PAREN) {
+                if (!isOperandNext) {
+                    invalid();
+                }
+
+                levels.add(new Level());
+                if (!hasError) {
+                    operators.add(token);
+                }
+            } else if (token == StreamingLexer.CLOSE_PAREN) {
+                // Empty parentheses, or an operator missing its right operand.
+                if (isOperandNext) {
+                    invalid();
+                }
+
+                if (!hasError) {
+                    reduceWhile(Integer.MIN_VALUE);
+                    operators.remove(operators.size() - 1);
+                }
+
+                Level level = levels.remove(levels.size() - 1);
+                addSubExprError(level.getError());
+                isOperandNext = false;
+            } else if (token.type == TokenType.OPERATOR) {
+                if (isOperandNext) {
+                    invalid();
+                }
+
+                if (!hasError) {
+                    // Every operator is left associative, so earlier ones of the same precedence are applied first.
+                    reduceWhile(precedence(token));
+                    operators.add(token);
+                }
+
+                isOperandNext = true;
+            } else {
+                // Two operands in a row, like a number after parentheses.
+                if (!isOperandNext) {
+                    invalid();
+                }
+
+                if (!hasError) {
+                    if (token.type == TokenType.NUMBER) {
+                        meter.checkNumberToken(token.token);
+                    }
+
+                    meter.addNodes(1);
+                    operands.add(new SyntaxTree(token));
+                }
+
+                isOperandNext = false;
+            }
+        }
+
+        if (isOperandNext) {
+            invalid();
+        }
+
+        String error = levels.get(0).getError();
+        if (error != null) {
+            throw new InvalidExpressionException(error);
+        }
+
+        reduceWhile(Integer.MIN_VALUE);
+        assert operators.isEmpty() && operands.size() == 1;
+        return operands.get(0);
+    }
+
+    /**
+     * Marks the current level as not alternating between operands and operators.
+     */
+    private void invalid() {
+        levels.get(levels.size() - 1).isInvalid = true;
+        hasError = true;
+    }
+
+    private void addSubExprError(@Nullable String error) {
+        if (error == null) {
+            return;
+        }
+
+        Level level = levels.get(levels.size() - 1);
+        if (level.subExprError == null) {
+            level.subExprError = error;
+        }
+
+        hasError = true;
+    }
+
+    /**
+     * Applies the pending operators of the current parentheses with at least the given precedence, latest first.
+     */
+    private void reduceWhile(int minPrecedence) {
+        while (!operators.isEmpty()) {
+            LexNode operator = operators.get(operators.size() - 1);
+            if (operator == StreamingLexer.OPEN_PAREN || precedence(operator) < minPrecedence) {
+                return;
+            }
+
+            operators.remove(operators.size() - 1);
+            SyntaxTree right = operands.remove(operands.size() - 1);
+            SyntaxTree left = operands.remove(operands.size() - 1);
+            var tree = new SyntaxTree(operator, left, right);
+            meter.addNodes(1);
+            meter.checkDepth(tree.getDepth());
+            operands.add(tree);
+        }
+    }
+
+    /**
+     * A switch rather than {@link Operator#getPrecedence}, which copies the array of operators on every call.
+     */
+    private static int precedence(LexNode operator) {
+        switch (operator.token) {
+            case Constants.POW:
+                return Operator.POW.precedence;
+            case Constants.MUL:
+            case Constants.DIV:
+                return Operator.MUL.precedence;
+            default:
+                return Operator.ADD.precedence;
+        }
+    }
+
+    private static final class Level {
+        // The error of the first invalid subexpression in these parentheses, reported before their own
+        private @Nullable String subExprError;
+        // Whether the operands and operators in them do not alternate
+        private boolean isInvalid;
+
+        @Nullable String getError() {
+            if (subExprError != null) {
+                return subExprError;
+            }
+
+            return isInvalid ? "Invalid expression" : null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns variable names to small integer ids, so that variables can be compared by id and their values looked up by
+ * id.
+ * <p>
+ * A name keeps its id while its {@link Symbol} is reachable, which it is from every variable {@link LexNode} of that
+ * name. Once it is not, the name is dropped and its id may be given to another name, so the table only holds the
+ * names in use and does not grow forever in a long-running process. An id kept as a plain int is therefore only
+ * meaningful while something holds its symbol.
+ *
+ * @author Moussa
+ */
+final class SymbolTable {
+    // The id of tokens that are not variables.
+    public static final int NO_SYMBOL = -1;
+
+    private static final @NotNull Map<String, SymbolReference> SYMBOLS = new ConcurrentHashMap<>();
+    private static final @NotNull ReferenceQueue<Symbol> DROPPED = new ReferenceQueue<>();
+    // The ids of dropped names, given out again before new ones. Guarded by the class lock, as is the size.
+    private static int @NotNull [] freeIds = new int[16];
+    private static int freeCount;
+    private static int size;
+
+    private SymbolTable() {
+    }
+
+    /**
+     * @return the symbol of the name, which is added if it is not in use.
+     */
+    public static @NotNull Symbol symbol(String name) {
+        SymbolReference reference = SYMBOLS.get(name);
+        Symbol symbol = reference == null ? null : reference.get();
+        return symbol != null ? symbol : add(name);
+    }
+
+    /**
+     * @return the id of the name, which is only kept for the name while something holds its symbol.
+     */
+    public static int intern(String name) {
+        return symbol(name).id;
+    }
+
+    private static synchronized @NotNull Symbol add(String name) {
+        dropUnreachable();
+        SymbolReference reference = SYMBOLS.get(name);
+        Symbol symbol = reference == null ? null : reference.get();
+        if (symbol != null) {
+            return symbol;
+        }
+
+        int id = freeCount > 0 ? freeIds[--freeCount] : size++;
+        symbol = new Symbol(name, id);
+        SYMBOLS.put(name, new SymbolReference(symbol, DROPPED));
+        return symbol;
+    }
+
+    /**
+     * Frees the ids of the symbols that were collected. A collected name may already have a new symbol, which is kept.
+     */
+    private static void dropUnreachable() {
+        Reference<? extends Symbol> dropped;
+        while ((dropped = DROPPED.poll()) != null) {
+            var reference = (SymbolReference) dropped;
+            SYMBOLS.remove(reference.name, reference);
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, 2 * freeCount);
+            }
+
+            freeIds[freeCount++] = reference.id;
+        }
+    }
+
+    /**
+     * @return the id of the name, or {@link #NO_SYMBOL} if it is not in use.
+     */
+    @Contract(pure = true)
+    public static int lookup(String name) {
+        SymbolReference reference = SYMBOLS.get(name);
+        Symbol symbol = reference == null ? null : reference.get();
+        return symbol == null ? NO_SYMBOL : symbol.id;
+    }
+
+    /**
+     * @return the number of ids given out and not freed, which is about the number of names in use.
+     */
+    public static synchronized int size() {
+        dropUnreachable();
+        return size - freeCount;
+    }
+
+    /**
+     * A name and its id, which stay interned while this is reachable.
+     */
+    static final class Symbol {
+        public final @NotNull String name;
+        public final int id;
+
+        private Symbol(String name, int id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return name;
+        }
+    }
+
+    private static final class SymbolReference extends WeakReference<Symbol> {
+        private final @NotNull String name;
+        private final int id;
+
+        SymbolReference(Symbol symbol, ReferenceQueue<Symbol> queue) {
+            super(symbol, queue);
+            this.name = symbol.name;
+            this.id = symbol.id;
+        }
+    }
+}
@@ -3,7 +3,7 @@ package expressionsimplifier;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Objects;
+import java.util.*;
 
 import static expressionsimplifier.Constants.*;
 
@@ -11,13 +11,22 @@ final class SyntaxTree {
     public final @NotNull LexNode node;
     public final @Nullable SyntaxTree left;
     public final @Nullable SyntaxTree right;
+    private final int depth;
+    private final int hash;
+    // One word rather than a set of variables, which would cost memory quadratic in the number of distinct variables
+    private final long variableMask;
     public static final SyntaxTree ZERO = new SyntaxTree(LexNode.ZERO);
     public static final SyntaxTree ONE = new SyntaxTree(LexNode.ONE);
+    public static final SyntaxTree TWO = new SyntaxTree(LexNode.TWO);
+    public static final SyntaxTree NEGATIVE_ONE = new SyntaxTree(LexNode.NEGATIVE_ONE);
 
     public SyntaxTree(LexNode node) {
         this.node = node;
         this.left = null;
         this.right = null;
+        this.depth = 1;
+        this.hash = Objects.hash(node, null, null);
+        this.variableMask = variableBit(node.symbol);
     }
 
     public SyntaxTree(LexNode node, @Nullable SyntaxTree left, @Nullable SyntaxTree right) {
@@ -34,6 +43,37 @@ final class SyntaxTree {
         this.node = node;
         this.left = left;
         this.right = right;
+        this.depth = left == null || right == null ? 1 : 1 + Math.max(left.depth, right.depth);
+        this.hash = Objects.hash(node, left, right);
+        this.variableMask = left == null || right == null
+                ? variableBit(node.symbol)
+                : left.variableMask | right.variableMask;
+    }
+
+    public boolean hasVariables() {
+        return variableMask != 0;
+    }
+
+    /**
+     * @return the {@link #variableBit} of every variable in the tree, or'ed together. A tree without the bit of a
+     * variable does not have that variable.
+     */
+    public long getVariableMask() {
+        return variableMask;
+    }
+
+    /**
+     * @return a bit for the variable with this id, which other variables may share.
+     */
+    static long variableBit(int symbol) {
+        return symbol == SymbolTable.NO_SYMBOL ? 0 : 1L << (symbol & (Long.SIZE - 1));
+    }
+
+    /**
+     * @return the number of nodes on the longest path from this node to a leaf.
+     */
+    public int getDepth() {
+        return depth;
     }
 
     public boolean isLeaf() {
@@ -48,6 +88,10 @@ final class SyntaxTree {
         return tokenTypeEquals(TokenType.NUMBER);
     }
 
+    boolean isFraction() {
+        return isNumber() && node.token.contains(DIV);
+    }
+
     public @NotNull String getToken() {
         return node.token;
     }
@@ -64,7 +108,7 @@ final class SyntaxTree {
 
         SyntaxTree that = (SyntaxTree) o;
 
-        if (!node.equals(that.node)) {
+        if (hash != that.hash || !node.equals(that.node)) {
             return false;
         }
 
@@ -77,79 +121,113 @@ final class SyntaxTree {
 
     @Override
     public int hashCode() {
-        return Objects.hash(node, left, right);
+        return hash;
     }
 
+    /**
+     * Prints into one buffer, since formatting each subtree into its own string copies the text once per level of
+     * nesting.
+     */
     @Override
     public String toString() {
+        var out = new StringBuilder();
+        appendTo(out);
+        return out.toString();
+    }
+
+    void appendTo(StringBuilder out) {
         if (isLeaf()) {
-            return node.toString();
+            out.append(node.token);
+            return;
         }
 
         assert left != null;
         assert right != null;
 
         // Implicit multiplication
-        if (node.token.equals(MUL)) {
-            String expr = handleImplicitMultiplication();
-            if (expr != null) {
-                return expr;
-            }
+        if (node.token.equals(MUL) && appendImplicitMultiplication(out)) {
+            return;
         }
 
-        String leftString = formatParens(left);
-        String rightString = formatParens(right);
-
+        appendOperand(out, left, false);
         if (node.token.equals(ADD) || node.token.equals(SUB)) {
-            return String.format("%s %s %s", leftString, node, rightString);
+            out.append(' ').append(node.token).append(' ');
+        } else {
+            out.append(node.token);
         }
 
-        return String.format("%s%s%s", leftString, node, rightString);
+        appendOperand(out, right, true);
     }
 
-    private @Nullable String handleImplicitMultiplication() {
+    /**
+     * @return whether the product was printed, which it is not if it needs an explicit operator.
+     */
+    private boolean appendImplicitMultiplication(StringBuilder out) {
         assert left != null;
         assert right != null;
 
         boolean isRightVariableOrPower = right.tokenTypeEquals(TokenType.VARIABLE) || right.getToken().equals(POW);
-        if (left.getToken().equals(NEGATIVE_ONE) && isRightVariableOrPower) {
-            return String.format("-%s", right);
+        if (left.getToken().equals(Constants.NEGATIVE_ONE) && isRightVariableOrPower) {
+            out.append(NEGATIVE_SIGN);
+            right.appendTo(out);
+            return true;
         }
 
         boolean isLeftNumber = left.tokenTypeEquals(TokenType.NUMBER);
-        if (isLeftNumber && isRightVariableOrPower ) {
-            return String.format("%s%s", left, right);
+        if (isLeftNumber && isRightVariableOrPower) {
+            appendNumberFactor(out, left);
+            right.appendTo(out);
+            return true;
         }
 
         if (isLeftNumber && !right.isLeaf()) {
-            return String.format("%s(%s)", left, right);
+            appendNumberFactor(out, left);
+            appendParenthesized(out, right);
+            return true;
         }
 
         if (!(left.isLeaf() || right.isLeaf())) {
-            return String.format("(%s)(%s)", left, right);
+            appendParenthesized(out, left);
+            appendParenthesized(out, right);
+            return true;
         }
 
-        return null;
+        return false;
     }
 
-    private @NotNull String formatParens(SyntaxTree child) {
-        // Expressions are parenthesized by default
-        String childString = child.toString();
-        childString = String.format("(%s)", childString);
-
-        if (child.getPrecedence() >= this.getPrecedence()) {
-            childString = Utils.removeParens(childString);
+    private static void appendNumberFactor(StringBuilder out, SyntaxTree number) {
+        if (number.isFraction()) {
+            appendParenthesized(out, number);
+        } else {
+            number.appendTo(out);
         }
+    }
 
-        if (child.isLeaf()) {
-            childString = Utils.removeParens(childString);
+    private static void appendParenthesized(StringBuilder out, SyntaxTree tree) {
+        out.append(LEFT_PAREN);
+        tree.appendTo(out);
+        out.append(RIGHT_PAREN);
+    }
 
-            if (childString.startsWith(SUB)) {
-                childString = String.format("(%s)", childString);
-            }
+    private void appendOperand(StringBuilder out, SyntaxTree child, boolean isRight) {
+        boolean needsParens;
+        if (child.isLeaf()) {
+            // Fractions are only left bare as operands of the lowest precedence operators.
+            boolean isBareFraction = child.isFraction() && this.getPrecedence() > Operator.ADD.precedence;
+            needsParens = child.getToken().startsWith(SUB) || isBareFraction;
+        } else {
+            // Operators group to the left, so a right operand of equal precedence needs parentheses unless regrouping
+            // it gives the same value.
+            boolean isRegroupable = !isRight || child.getPrecedence() > this.getPrecedence()
+                    || node.token.equals(ADD) || node.token.equals(MUL);
+            needsParens = child.getPrecedence() < this.getPrecedence() || !isRegroupable;
         }
 
-        return childString;
+        if (needsParens) {
+            appendParenthesized(out, child);
+        } else {
+            child.appendTo(out);
+        }
     }
 
     private int getPrecedence() {
@@ -0,0 +1,367 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A compact binary encoding of syntax trees, which is much cheaper to read back than their text.
+ * <p>
+ * The encoding is a version byte, a table of the variable names, the number of nodes, and then the nodes in
+ * postorder. Each node is an opcode byte followed by its operands, all varints:
+ * <ul>
+ *     <li>an operator, which has no operands and combines the two previous subtrees.</li>
+ *     <li>a variable, as an index into the table.</li>
+ *     <li>an integer, as a zigzag varint.</li>
+ *     <li>a fraction, as a zigzag numerator and a denominator.</li>
+ *     <li>a decimal, as a zigzag unscaled value and a scale.</li>
+ *     <li>any other number, as its text.</li>
+ *     <li>a repeat of an earlier subtree, as the postorder index of its root.</li>
+ * </ul>
+ * Strings are a varint length followed by UTF-8 bytes. Decoding reproduces the tree exactly, and repeated subtrees
+ * are decoded as the same instance. Decoding rejects names and numbers the lexer would not read, and decimals whose
+ * text would be much longer than their encoding.
+ *
+ * @author Moussa
+ */
+final class SyntaxTreeCodec {
+    private static final byte VERSION = 1;
+
+    private static final Operator[] OPERATORS = {Operator.ADD, Operator.SUB, Operator.MUL, Operator.DIV, Operator.POW};
+    private static final LexNode[] OPERATOR_NODES = new LexNode[OPERATORS.length];
+    private static final byte VARIABLE = 5;
+    private static final byte INTEGER = 6;
+    private static final byte FRACTION = 7;
+    private static final byte DECIMAL = 8;
+    private static final byte NUMBER_TEXT = 9;
+    private static final byte REPEAT = 10;
+    // Decimals with a larger scale are written as text, so that a few bytes cannot decode to a huge number.
+    private static final int MAX_DECIMAL_SCALE = 64;
+
+    static {
+        for (int opcode = 0; opcode < OPERATORS.length; opcode++) {
+            OPERATOR_NODES[opcode] = new LexNode(OPERATORS[opcode].token, TokenType.OPERATOR);
+        }
+    }
+
+    private SyntaxTreeCodec() {
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public static byte @NotNull [] encode(SyntaxTree tree) {
+        var encoder = new Encoder();
+        encoder.encodeTree(tree);
+
+        var out = new ByteSink(encoder.nodes.size + 16);
+        out.write(VERSION);
+        out.writeVarint(encoder.variables.size());
+        for (var variable : encoder.variables.keySet()) {
+            out.writeString(variable);
+        }
+
+        out.writeVarint(encoder.nodeCount);
+        out.write(encoder.nodes);
+        return out.toByteArray();
+    }
+
+    @Contract(pure = true, value = "_ -> new")
+    public static @NotNull SyntaxTree decode(byte[] bytes) throws InvalidExpressionException {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes a tree starting at the buffer's position, and advances the position past it. The buffer may be heap,
+     * direct or memory-mapped, and its contents are read in place.
+     *
+     * @throws InvalidExpressionException if the buffer does not hold a valid encoding.
+     */
+    @Contract(pure = false, value = "_ -> new")
+    public static @NotNull SyntaxTree decode(ByteBuffer buffer) throws InvalidExpressionException {
+        try {
+            if (buffer.get() != VERSION) {
+                throw malformed();
+            }
+
+            int variableCount = readLength(buffer);
+            var variables = new LexNode[variableCount];
+            for (int idx = 0; idx < variableCount; idx++) {
+                String variable = readString(buffer);
+                if (!ExpressionLexer.isVariableToken(variable)) {
+                    throw malformed();
+                }
+
+                variables[idx] = new LexNode(variable, TokenType.VARIABLE);
+            }
+
+            int nodeCount = readLength(buffer);
+            var decoded = new SyntaxTree[nodeCount];
+            var stack = new SyntaxTree[nodeCount];
+            int stackSize = 0;
+            for (int idx = 0; idx < nodeCount; idx++) {
+                int opcode = buffer.get();
+                SyntaxTree tree;
+                if (opcode >= 0 && opcode < OPERATORS.length) {
+                    if (stackSize < 2) {
+                        throw malformed();
+                    }
+
+                    SyntaxTree right = stack[--stackSize];
+                    SyntaxTree left = stack[--stackSize];
+                    tree = new SyntaxTree(OPERATOR_NODES[opcode], left, right);
+                } else if (opcode == REPEAT) {
+                    tree = decoded[readIndex(buffer, idx)];
+                } else if (opcode == VARIABLE) {
+                    tree = new SyntaxTree(variables[readIndex(buffer, variableCount)]);
+                } else {
+                    tree = new SyntaxTree(new LexNode(readNumber(opcode, buffer), TokenType.NUMBER));
+                }
+
+                decoded[idx] = tree;
+                stack[stackSize++] = tree;
+            }
+
+            if (stackSize != 1) {
+                throw malformed();
+            }
+
+            return stack[0];
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw malformed();
+        }
+    }
+
+    private static @NotNull String readNumber(int opcode, ByteBuffer buffer) throws InvalidExpressionException {
+        switch (opcode) {
+            case INTEGER:
+                return Long.toString(readSignedVarint(buffer));
+            case FRACTION:
+                long numerator = readSignedVarint(buffer);
+                long denominator = readIndex(buffer, Long.MAX_VALUE);
+                if (denominator == 0) {
+                    throw malformed();
+                }
+
+                return numerator + Constants.DIV + denominator;
+            case DECIMAL:
+                long unscaled = readSignedVarint(buffer);
+                return BigDecimal.valueOf(unscaled, readIndex(buffer, MAX_DECIMAL_SCALE + 1)).toPlainString();
+            case NUMBER_TEXT:
+                String number = readString(buffer);
+                if (!ExpressionLexer.isNumberToken(number)) {
+                    throw malformed();
+                }
+
+                return number;
+            default:
+                throw malformed();
+        }
+    }
+
+    private static @NotNull InvalidExpressionException malformed() {
+        return new InvalidExpressionException("Malformed encoded expression");
+    }
+
+    private static long readVarint(ByteBuffer buffer) throws InvalidExpressionException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+
+        throw malformed();
+    }
+
+    private static long readSignedVarint(ByteBuffer buffer) throws InvalidExpressionException {
+        long zigzag = readVarint(buffer);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * Reads a count of items that each take at least one more byte, so that a corrupt count is rejected before
+     * anything is allocated for it.
+     */
+    private static int readLength(ByteBuffer buffer) throws InvalidExpressionException {
+        long length = readVarint(buffer);
+        if (length < 0 || length > buffer.remaining()) {
+            throw malformed();
+        }
+
+        return (int) length;
+    }
+
+    /**
+     * @return a varint that must be below the bound.
+     */
+    private static long readIndex(ByteBuffer buffer, long bound) throws InvalidExpressionException {
+        long index = readVarint(buffer);
+        if (index < 0 || index >= bound) {
+            throw malformed();
+        }
+
+        return index;
+    }
+
+    private static int readIndex(ByteBuffer buffer, int bound) throws InvalidExpressionException {
+        return (int) readIndex(buffer, (long) bound);
+    }
+
+    private static @NotNull String readString(ByteBuffer buffer) throws InvalidExpressionException {
+        int length = readLength(buffer);
+        if (buffer.hasArray()) {
+            int start = buffer.arrayOffset() + buffer.position();
+            buffer.position(buffer.position() + length);
+            return new String(buffer.array(), start, length, StandardCharsets.UTF_8);
+        }
+
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Encoder {
+        private final @NotNull ByteSink nodes = new ByteSink(64);
+        private final @NotNull Map<String, Integer> variables = new LinkedHashMap<>();
+        private final @NotNull Map<SyntaxTree, Integer> encodedSubtrees = new HashMap<>();
+        private int nodeCount = 0;
+
+        void encodeTree(SyntaxTree tree) {
+            if (!tree.isLeaf()) {
+                Integer index = encodedSubtrees.get(tree);
+                if (index != null) {
+                    nodes.write(REPEAT);
+                    nodes.writeVarint(index);
+                    nodeCount++;
+                    return;
+                }
+
+                assert tree.left != null && tree.right != null;
+                encodeTree(tree.left);
+                encodeTree(tree.right);
+                nodes.write((byte) opcode(tree.getToken()));
+                encodedSubtrees.put(tree, nodeCount);
+            } else if (tree.tokenTypeEquals(TokenType.VARIABLE)) {
+                int index = variables.computeIfAbsent(tree.getToken(), variable -> variables.size());
+                nodes.write(VARIABLE);
+                nodes.writeVarint(index);
+            } else {
+                encodeNumber(tree.getToken());
+            }
+
+            nodeCount++;
+        }
+
+        private static int opcode(String token) {
+            for (int opcode = 0; opcode < OPERATORS.length; opcode++) {
+                if (OPERATORS[opcode].token.equals(token)) {
+                    return opcode;
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown operator: " + token);
+        }
+
+        /**
+         * Uses the compact forms only when they decode to the same token.
+         */
+        private void encodeNumber(String token) {
+            int slash = token.indexOf(Constants.DIV);
+            try {
+                if (slash >= 0) {
+                    long numerator = Long.parseLong(token.substring(0, slash));
+                    long denominator = Long.parseLong(token.substring(slash + 1));
+                    if (denominator > 0 && token.equals(numerator + Constants.DIV + denominator)) {
+                        nodes.write(FRACTION);
+                        nodes.writeSignedVarint(numerator);
+                        nodes.writeVarint(denominator);
+                        return;
+                    }
+                } else if (token.indexOf('.') >= 0) {
+                    var decimal = new BigDecimal(token);
+                    int scale = decimal.scale();
+                    if (scale >= 0 && scale <= MAX_DECIMAL_SCALE && decimal.toPlainString().equals(token)) {
+                        long unscaled = decimal.unscaledValue().longValueExact();
+                        nodes.write(DECIMAL);
+                        nodes.writeSignedVarint(unscaled);
+                        nodes.writeVarint(decimal.scale());
+                        return;
+                    }
+                } else {
+                    long integer = Long.parseLong(token);
+                    if (token.equals(Long.toString(integer))) {
+                        nodes.write(INTEGER);
+                        nodes.writeSignedVarint(integer);
+                        return;
+                    }
+                }
+            } catch (NumberFormatException | ArithmeticException e) {
+                // Falls through to the text form.
+            }
+
+            nodes.write(NUMBER_TEXT);
+            nodes.writeString(token);
+        }
+    }
+
+    /**
+     * A growable byte array.
+     */
+    private static final class ByteSink {
+        private byte[] bytes;
+        private int size = 0;
+
+        ByteSink(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void write(byte b) {
+            ensureCapacity(1);
+            bytes[size++] = b;
+        }
+
+        void write(ByteSink other) {
+            ensureCapacity(other.size);
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            bytes[size++] = (byte) value;
+        }
+
+        void writeSignedVarint(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String string) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(utf8.length);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        byte @NotNull [] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package expressionsimplifier;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import static expressionsimplifier.Constants.LEFT_PAREN;
 import static expressionsimplifier.Constants.RIGHT_PAREN;
 
@@ -18,4 +21,16 @@ public final class Utils {
 
         return expr;
     }
+
+    /**
+     * @return a map that drops its least recently used entry when it grows past the capacity.
+     */
+    public static <K, V> @NotNull Map<K, V> lruMap(int capacity) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
 }
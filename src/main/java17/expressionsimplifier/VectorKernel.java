@@ -0,0 +1,102 @@
+package expressionsimplifier;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+import static expressionsimplifier.EvaluationTape.*;
+
+/**
+ * Applies instructions with the widest double vectors of the processor, masking the rows past the last full vector.
+ * <p>
+ * Only built by the {@code vector} profile, into the part of the jar for Java 17, and only loaded by
+ * {@link EvaluationTape} when the {@code jdk.incubator.vector} module is present. Powers are left to
+ * {@link ScalarKernel}, since the vector power is only accurate to within an ulp of {@link Math#pow} and the results
+ * would depend on the processor. The other operators give the same results as the scalar ones.
+ *
+ * @author Moussa
+ */
+final class VectorKernel implements BatchKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorKernel() {
+    }
+
+    @Override
+    public void apply(byte opcode, double[] work, int left, int right, int result, int length) {
+        // A loop per operator, since the vector intrinsics are only used when the operator is a constant.
+        switch (opcode) {
+            case ADD:
+                add(work, left, right, result, length);
+                break;
+            case SUB:
+                subtract(work, left, right, result, length);
+                break;
+            case MUL:
+                multiply(work, left, right, result, length);
+                break;
+            case DIV:
+                divide(work, left, right, result, length);
+                break;
+            default:
+                ScalarKernel.INSTANCE.apply(opcode, work, left, right, result, length);
+                break;
+        }
+    }
+
+    private static void add(double[] work, int left, int right, int result, int length) {
+        int idx = 0;
+        for (int bound = SPECIES.loopBound(length); idx < bound; idx += SPECIES.length()) {
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx);
+            leftVector.add(DoubleVector.fromArray(SPECIES, work, right + idx)).intoArray(work, result + idx);
+        }
+
+        if (idx < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(idx, length);
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx, tail);
+            leftVector.add(DoubleVector.fromArray(SPECIES, work, right + idx, tail)).intoArray(work, result + idx, tail);
+        }
+    }
+
+    private static void subtract(double[] work, int left, int right, int result, int length) {
+        int idx = 0;
+        for (int bound = SPECIES.loopBound(length); idx < bound; idx += SPECIES.length()) {
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx);
+            leftVector.sub(DoubleVector.fromArray(SPECIES, work, right + idx)).intoArray(work, result + idx);
+        }
+
+        if (idx < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(idx, length);
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx, tail);
+            leftVector.sub(DoubleVector.fromArray(SPECIES, work, right + idx, tail)).intoArray(work, result + idx, tail);
+        }
+    }
+
+    private static void multiply(double[] work, int left, int right, int result, int length) {
+        int idx = 0;
+        for (int bound = SPECIES.loopBound(length); idx < bound; idx += SPECIES.length()) {
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx);
+            leftVector.mul(DoubleVector.fromArray(SPECIES, work, right + idx)).intoArray(work, result + idx);
+        }
+
+        if (idx < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(idx, length);
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx, tail);
+            leftVector.mul(DoubleVector.fromArray(SPECIES, work, right + idx, tail)).intoArray(work, result + idx, tail);
+        }
+    }
+
+    private static void divide(double[] work, int left, int right, int result, int length) {
+        int idx = 0;
+        for (int bound = SPECIES.loopBound(length); idx < bound; idx += SPECIES.length()) {
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx);
+            leftVector.div(DoubleVector.fromArray(SPECIES, work, right + idx)).intoArray(work, result + idx);
+        }
+
+        if (idx < length) {
+            VectorMask<Double> tail = SPECIES.indexInRange(idx, length);
+            var leftVector = DoubleVector.fromArray(SPECIES, work, left + idx, tail);
+            leftVector.div(DoubleVector.fromArray(SPECIES, work, right + idx, tail)).intoArray(work, result + idx, tail);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package expressionsimplifier;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the throughput of {@link EvaluationTape} for several mixes of operators: one row at a time, in batches with
+ * {@link ScalarKernel}, and in batches with the vector kernel when it is available.
+ * <p>
+ * Run after {@code mvn test-compile} on JDK 17 or later with {@code java --add-modules jdk.incubator.vector -cp
+ * target/test-classes:target/classes:target/classes/META-INF/versions/17 expressionsimplifier.BatchEvaluationBenchmark
+ * [rows]}. It is not a test, since the numbers depend on the machine.
+ *
+ * @author Moussa
+ */
+final class BatchEvaluationBenchmark {
+    private static final List<String> VARIABLES = List.of("x0", "x1", "x2", "x3", "x4", "x5", "x6", "x7");
+    private static final String[][] MIXES = {
+            {"add", "x0 + x1 - x2 + x3 - x4 + x5 + x6 - x7 + 1"},
+            {"mul", "x0*x1*x2 + x3*x4*x5 - x6*x7*x0*x1"},
+            {"div", "x0/x1 + x2/x3 - x4/(x5 + 1) + (x6 - x7)/x0"},
+            {"pow", "x0^2 + x1^3 - x2^x3"},
+            {"polynomial", "((x0*3 + 2)*x0 - 5)*x0 + 7 + ((x1*x1 - x2)*x1 + 4)*x3"},
+            {"rational", "(x0*x1 + x2)/(x3 - x4*x5) + (x6 + 1)/(x7*x7 + 1)"},
+    };
+    private static final int RUNS = 10;
+
+    private BatchEvaluationBenchmark() {
+    }
+
+    public static void main(String... args) throws InvalidExpressionException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1 << 20;
+        var random = new Random(42);
+        var columns = new double[VARIABLES.size()][rows];
+        for (double[] column : columns) {
+            for (int row = 0; row < rows; row++) {
+                column[row] = 1 + random.nextDouble();
+            }
+        }
+
+        var results = new double[rows];
+        BatchKernel vector = EvaluationTape.bestKernel();
+        //NOPMD - suppressed SystemPrintln
+        System.out.printf("%-12s %14s %14s %14s%n", "mix", "rows/s", "scalar batch", vector == ScalarKernel.INSTANCE ? "(no vector)" : "vector batch");
+        for (String[] mix : MIXES) {
+            var tape = EvaluationTape.compile(ExpressionSimplifier.parseExpr(mix[1]), VARIABLES);
+            double perRow = rowsPerSecond(() -> evaluateRows(tape, columns, rows), rows);
+            double scalar = rowsPerSecond(() -> tape.evaluateBatch(ScalarKernel.INSTANCE, columns, rows, results, tape.newBatchBuffer()), rows);
+            double vectorized = vector == ScalarKernel.INSTANCE ? Double.NaN
+                    : rowsPerSecond(() -> tape.evaluateBatch(vector, columns, rows, results, tape.newBatchBuffer()), rows);
+            //NOPMD - suppressed SystemPrintln
+            System.out.printf("%-12s %14.3g %14.3g %14.3g%n", mix[0], perRow, scalar, vectorized);
+        }
+    }
+
+    private static void evaluateRows(EvaluationTape tape, double[][] columns, int rows) {
+        double[] work = tape.newWorkBuffer();
+        var values = new double[columns.length];
+        for (int row = 0; row < rows; row++) {
+            for (int variable = 0; variable < values.length; variable++) {
+                values[variable] = columns[variable][row];
+            }
+
+            tape.evaluate(values, work);
+        }
+    }
+
+    /**
+     * @return the best throughput of several runs, after as many runs to warm up.
+     */
+    private static double rowsPerSecond(Runnable run, int rows) {
+        long best = Long.MAX_VALUE;
+        for (int idx = 0; idx < 2 * RUNS; idx++) {
+            long start = System.nanoTime();
+            run.run();
+            long nanos = System.nanoTime() - start;
+            if (idx >= RUNS) {
+                best = Math.min(best, nanos);
+            }
+        }
+
+        return rows / (best / 1e9);
+    }
+}
@@ -0,0 +1,73 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchEvaluationTest {
+    private static final List<String> VARIABLES = List.of("x0", "x1", "x2", "x3");
+
+    @ParameterizedTest
+    @ValueSource(strings = {"x0", "2", "x0 + x1*x2 - x3/x0", "(x0 + 1)^2/(x1 - x2)", "x0^x1 + 3^x2", "x1 - x1", "x0/0"})
+    void batchTest(String expr) throws InvalidExpressionException {
+        assertBatchMatches(EvaluationTape.compile(ExpressionSimplifier.parseExpr(expr), VARIABLES), new Random(45));
+    }
+
+    @Test
+    void generatedTest() throws InvalidExpressionException {
+        var generator = new ExpressionGenerator(45, VARIABLES.size(), 10, 0.3);
+        var random = new Random(45);
+        for (int idx = 0; idx < 50; idx++) {
+            SyntaxTree tree = ExpressionSimplifier.parseExpr(generator.generate(1 + random.nextInt(100)));
+            assertBatchMatches(EvaluationTape.compile(tree, VARIABLES), random);
+        }
+    }
+
+    @Test
+    void kernelTest() {
+        // The vector profile adds the module and the versioned classes when testing on JDK 17 or later.
+        boolean hasVectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        assertEquals(hasVectorModule, EvaluationTape.bestKernel() != ScalarKernel.INSTANCE);
+    }
+
+    /**
+     * Checks both kernels against evaluating one row at a time, for row counts around the block and vector sizes.
+     */
+    private static void assertBatchMatches(EvaluationTape tape, Random random) {
+        int maxRows = 3 * EvaluationTape.BLOCK_SIZE + 5;
+        var columns = new double[VARIABLES.size()][maxRows];
+        for (double[] column : columns) {
+            for (int row = 0; row < maxRows; row++) {
+                // Some zeros, for infinities and NaN.
+                column[row] = random.nextInt(8) == 0 ? 0 : random.nextGaussian() * 10;
+            }
+        }
+
+        var expected = new double[maxRows];
+        double[] work = tape.newWorkBuffer();
+        var values = new double[VARIABLES.size()];
+        for (int row = 0; row < maxRows; row++) {
+            for (int variable = 0; variable < values.length; variable++) {
+                values[variable] = columns[variable][row];
+            }
+
+            expected[row] = tape.evaluate(values, work);
+        }
+
+        List<BatchKernel> kernels = List.of(ScalarKernel.INSTANCE, EvaluationTape.bestKernel());
+        for (int rows : new int[]{0, 1, 7, EvaluationTape.BLOCK_SIZE, EvaluationTape.BLOCK_SIZE + 3, maxRows}) {
+            for (var kernel : kernels) {
+                var results = new double[rows];
+                tape.evaluateBatch(kernel, columns, rows, results, tape.newBatchBuffer());
+                for (int row = 0; row < rows; row++) {
+                    assertEquals(expected[row], results[row], kernel + ", row " + row);
+                }
+            }
+        }
+    }
+}
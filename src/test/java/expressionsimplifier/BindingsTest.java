@@ -0,0 +1,99 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BindingsTest {
+    @Test
+    void symbolsTest() {
+        SymbolTable.Symbol symbol = SymbolTable.symbol("x");
+        int x = symbol.id;
+        assertSame(symbol, SymbolTable.symbol(new String("x")));
+        assertEquals(x, SymbolTable.intern("x"));
+        assertEquals(x, SymbolTable.lookup("x"));
+        assertEquals("x", symbol.name);
+        assertNotEquals(x, SymbolTable.intern("X"));
+        assertEquals(SymbolTable.NO_SYMBOL, SymbolTable.lookup("neverLexedVariable"));
+
+        var variable = new LexNode("x", TokenType.VARIABLE);
+        assertEquals(x, variable.symbol);
+        assertEquals(variable, new LexNode("x", TokenType.VARIABLE));
+        assertNotEquals(variable, new LexNode("y", TokenType.VARIABLE));
+        assertEquals(SymbolTable.NO_SYMBOL, new LexNode("2", TokenType.NUMBER).symbol);
+    }
+
+    @Test
+    void droppedSymbolsTest() {
+        // Ids of names no longer in use are given out again, so interning many names once does not grow the table.
+        int maxId = 0;
+        for (int idx = 0; idx < 100_000; idx++) {
+            maxId = Math.max(maxId, new LexNode("dropped" + idx, TokenType.VARIABLE).symbol);
+            if (idx % 10_000 == 0) {
+                System.gc();
+            }
+        }
+
+        assertTrue(maxId < 50_000, "Largest id " + maxId);
+    }
+
+    @Test
+    void parseTest() {
+        Bindings bindings = Bindings.parse(List.of("x=2", "y=1/3", "x=5", "z=-0.5"));
+        assertEquals(3, bindings.size());
+        assertEquals("5", bindings.getValue("x"));
+        assertEquals("1/3", bindings.getValue("y"));
+        assertEquals("-0.5", bindings.getValue("z"));
+        assertNull(bindings.getValue("w"));
+        assertNull(bindings.get(SymbolTable.NO_SYMBOL));
+
+        SyntaxTree value = bindings.get(SymbolTable.intern("y"));
+        assertNotNull(value);
+        assertTrue(value.isNumber());
+
+        assertTrue(Bindings.parse(List.of()).isEmpty());
+        assertEquals("5", Bindings.of(Map.of("x", "5")).getValue("x"));
+        assertEquals("{x=5}", Bindings.of(Map.of("x", "5")).toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"x", "x=", "=2", ""})
+    void invalidTest(String input) {
+        assertThrows(IllegalArgumentException.class, () -> Bindings.parse(List.of(input)));
+    }
+
+    @Test
+    void reuseTest() throws InvalidExpressionException {
+        Bindings bindings = Bindings.parse(List.of("x=2", "y=3"));
+        BudgetMeter meter = SimplifierBudget.UNLIMITED.start();
+        assertEquals("6", ExpressionSimplifier.simplifyExpr("x*y", bindings, meter));
+        assertEquals("3z + 2", ExpressionSimplifier.simplifyExpr("x + y*z", bindings, meter));
+    }
+
+    @Test
+    void sharedSubtreeTest() {
+        // Each subtree is used twice, so walking it once per use would take 2^100 steps.
+        var x = new SyntaxTree(new LexNode("x", TokenType.VARIABLE));
+        SyntaxTree tree = new SyntaxTree(LexNode.ADD, x, SyntaxTree.ONE);
+        for (int idx = 0; idx < 100; idx++) {
+            tree = new SyntaxTree(LexNode.MUL, tree, tree);
+        }
+
+        SyntaxTree substituted = Bindings.of(Map.of("x", "2")).substitute(tree);
+        assertSame(substituted.left, substituted.right);
+        SyntaxTree bottom = substituted;
+        while (bottom.left != null && bottom.left.node.equals(LexNode.MUL)) {
+            bottom = bottom.left;
+        }
+
+        assertNotNull(bottom.left);
+        assertEquals("2", bottom.left.left.getToken());
+        assertSame(SyntaxTree.ONE, bottom.left.right);
+        assertSame(tree, Bindings.of(Map.of("y", "2")).substitute(tree));
+    }
+}
@@ -0,0 +1,64 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkSimplifierTest {
+    public static Stream<Arguments> chunkSizes() {
+        return Stream.of(
+                Arguments.of(1, 1),
+                Arguments.of(7, 4),
+                Arguments.of(BulkSimplifier.DEFAULT_CHUNK_SIZE, 2)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("chunkSizes")
+    void bulkTest(int chunkSize, int threads, @TempDir Path dir) throws IOException {
+        List<String> lines = ExpressionSimplifierTest.expressions()
+                .map(arguments -> (String) arguments.get()[0])
+                .collect(Collectors.toCollection(ArrayList::new));
+        lines.add("");
+        lines.add("1/0");
+        lines.add("2é + 3é");
+
+        List<String> expected = new ArrayList<>();
+        for (var line : lines) {
+            expected.add(line.isEmpty() ? "" : ExpressionSimplifier.run(line, "x=2"));
+        }
+
+        Path input = dir.resolve("input.txt");
+        Path output = dir.resolve("output.txt");
+        // Windows line endings on every other line, and no newline at the end.
+        var text = new StringBuilder();
+        for (int idx = 0; idx < lines.size(); idx++) {
+            if (idx > 0) {
+                text.append(idx % 2 == 0 ? "\r\n" : "\n");
+            }
+
+            text.append(lines.get(idx));
+        }
+
+        Files.writeString(input, text, StandardCharsets.UTF_8);
+
+        var bulk = new BulkSimplifier(List.of("x=2"), SimplifierBudget.DEFAULT, threads, chunkSize);
+        BulkSimplifier.Report report = bulk.process(input, output, progress -> {});
+
+        assertEquals(expected, Files.readAllLines(output, StandardCharsets.UTF_8));
+        assertEquals(lines.size(), report.lines);
+        assertEquals(Files.size(input), report.bytes);
+    }
+}
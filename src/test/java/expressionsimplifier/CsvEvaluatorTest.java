@@ -0,0 +1,83 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvEvaluatorTest {
+    public static @NotNull Stream<Arguments> tables() {
+        return Stream.of(
+                Arguments.of("x+y", ',', "x,y\n1,2\n3.5,-4\n", "3.0\n-0.5\n"),
+                Arguments.of("x+y", '\t', "y\tx\r\n1\t2\r\n\r\n1e3\t.5\r\n", "3.0\n1000.5\n"),
+                Arguments.of("x^2/y", ',', "id,x,y\nfirst,3,2\nsecond,-1,0", "4.5\nInfinity\n"),
+                Arguments.of("2+3", ',', "x\n1\n2\n", "5.0\n5.0\n"),
+                Arguments.of("x*x+x", ',', " x \n0.1\n", "0.11000000000000001\n")
+        );
+    }
+
+    public static @NotNull Stream<Arguments> invalidTables() {
+        return Stream.of(
+                Arguments.of("x+z", "x,y\n1,2\n"),
+                Arguments.of("x+y", "x,y\n1,a\n"),
+                Arguments.of("x+y", "x,y\n1\n"),
+                Arguments.of("x+y", "")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("tables")
+    void evaluateTest(String expr, char delimiter, String table, String expected) throws Exception {
+        SyntaxTree tree = ExpressionSimplifier.simplifyTree(expr, Bindings.EMPTY, SimplifierBudget.UNLIMITED.start());
+        var out = new StringWriter();
+        new CsvEvaluator(tree, delimiter).evaluate(new ByteArrayInputStream(table.getBytes(StandardCharsets.UTF_8)), out);
+        assertEquals(expected, out.toString());
+    }
+
+    @ParameterizedTest
+    @MethodSource("invalidTables")
+    void invalidTableTest(String expr, String table) throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.simplifyTree(expr, Bindings.EMPTY, SimplifierBudget.UNLIMITED.start());
+        var evaluator = new CsvEvaluator(tree, ',');
+        var in = new ByteArrayInputStream(table.getBytes(StandardCharsets.UTF_8));
+        assertThrows(Exception.class, () -> evaluator.evaluate(in, new StringWriter()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "-0", "1", "+7", "3.25", "-.5", "5.", "1e10", "1E-5", "2.5e+3", "9007199254740993",
+            "123456789012345678901234567890", "1e300", "4.9e-324", "0.1", "NaN", "-Infinity", " 12 ", "0.000001234"})
+    void parseDoubleTest(String number) {
+        byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Double.parseDouble(number), CsvEvaluator.parseDouble(bytes, 0, bytes.length));
+    }
+
+    @Test
+    void parseRandomDoublesTest() {
+        var random = new Random(42);
+        for (int idx = 0; idx < 10_000; idx++) {
+            String number = random.nextInt(3) == 0 ? Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20))
+                    : String.format("%." + random.nextInt(10) + "f", random.nextGaussian() * 1000);
+            byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(Double.parseDouble(number), CsvEvaluator.parseDouble(bytes, 0, bytes.length), number);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "-", ".", "1e", "1..2", "abc"})
+    void parseInvalidDoubleTest(String number) {
+        byte[] bytes = number.getBytes(StandardCharsets.US_ASCII);
+        assertThrows(NumberFormatException.class, () -> CsvEvaluator.parseDouble(bytes, 0, bytes.length));
+    }
+}
@@ -0,0 +1,102 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DerivativesTest {
+    private static final List<String> VARIABLES = List.of("x", "y");
+    private static final double[] POINT = {1.5, -0.75};
+
+    public static @NotNull Stream<Arguments> derivatives() {
+        return Stream.of(
+                Arguments.of("x", List.of("1", "0")),
+                Arguments.of("3", List.of("0", "0")),
+                Arguments.of("x*y", List.of("y", "x")),
+                Arguments.of("x^3", List.of("3x^2", "0")),
+                Arguments.of("x^2 + 3x - y", List.of("2x + 3", "-1")),
+                Arguments.of("x/y", List.of("1/y", "-x/y^2")),
+                Arguments.of("(x+y)^2", List.of("2(x + y)", "2(x + y)"))
+        );
+    }
+
+    public static @NotNull Stream<Arguments> functions() {
+        return Stream.of(
+                Arguments.of("x"),
+                Arguments.of("x*y + y^2 - 2/x"),
+                Arguments.of("(x+y)^3*(x-y)/(x^2+1)"),
+                Arguments.of("(x*x+1)/(x*x+1+y)"),
+                Arguments.of("x^y"),
+                Arguments.of("2^x"),
+                Arguments.of("x^0.5*y - y/2")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("derivatives")
+    void symbolicTest(String expr, List<String> expected) throws InvalidExpressionException {
+        List<SyntaxTree> gradient = Derivatives.gradient(ExpressionSimplifier.parseExpr(expr), VARIABLES);
+        assertEquals(expected, gradient.stream().map(SyntaxTree::toString).collect(Collectors.toList()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("functions")
+    void tapeGradientTest(String expr) throws InvalidExpressionException {
+        var tape = EvaluationTape.compile(ExpressionSimplifier.parseExpr(expr), VARIABLES);
+        double[] work = tape.newGradientBuffer();
+        double[] gradient = new double[VARIABLES.size()];
+        double value = tape.gradient(POINT, work, gradient);
+        assertEquals(tape.evaluate(POINT, tape.newWorkBuffer()), value);
+
+        // Central differences, and a second call on the same buffer to check it is fully reset.
+        double[] again = new double[VARIABLES.size()];
+        tape.gradient(POINT, work, again);
+        assertArrayEquals(gradient, again);
+        for (int idx = 0; idx < POINT.length; idx++) {
+            double step = 1e-6;
+            double[] above = POINT.clone();
+            double[] below = POINT.clone();
+            above[idx] += step;
+            below[idx] -= step;
+            double slope = (tape.evaluate(above, tape.newWorkBuffer()) - tape.evaluate(below, tape.newWorkBuffer())) / (2 * step);
+            assertEquals(slope, gradient[idx], 1e-5 * Math.max(1, Math.abs(slope)), expr);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("functions")
+    void symbolicMatchesTapeTest(String expr) throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.parseExpr(expr);
+        boolean hasVariableExponent = expr.contains("^x") || expr.contains("^y");
+        if (hasVariableExponent) {
+            assertThrows(InvalidExpressionException.class, () -> Derivatives.gradient(tree, VARIABLES));
+            return;
+        }
+
+        var tape = EvaluationTape.compile(tree, VARIABLES);
+        double[] gradient = new double[VARIABLES.size()];
+        tape.gradient(POINT, tape.newGradientBuffer(), gradient);
+
+        List<SyntaxTree> partials = Derivatives.gradient(tree, VARIABLES);
+        for (int idx = 0; idx < partials.size(); idx++) {
+            var partial = EvaluationTape.compile(partials.get(idx), VARIABLES);
+            assertEquals(gradient[idx], partial.evaluate(POINT, partial.newWorkBuffer()), 1e-9 * Math.max(1, Math.abs(gradient[idx])));
+        }
+    }
+
+    @Test
+    void sharedSubtermsTest() throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.parseExpr("(x*y+1)^3");
+        List<SyntaxTree> partials = Derivatives.gradient(tree, VARIABLES);
+        LetProgram program = LetProgram.of(partials);
+        assertFalse(program.tempNames.isEmpty(), program::toString);
+    }
+}
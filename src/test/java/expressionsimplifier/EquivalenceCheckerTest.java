@@ -0,0 +1,229 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EquivalenceCheckerTest {
+    private static final String[] VARIABLES = {"x", "y", "z"};
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "^"};
+
+    public static Stream<Arguments> equivalent() {
+        return Stream.of(
+                Arguments.of("x*(y + 1)", "x*y + x"),
+                Arguments.of("(x + 1)^2", "x^2 + 2x + 1"),
+                Arguments.of("(x^2 - 1)/(x - 1)", "x + 1"),
+                Arguments.of("0.5", "1/2"),
+                Arguments.of("x^-2", "1/(x*x)"),
+                Arguments.of("x^(1 + 2)", "x*x*x"),
+                Arguments.of("x^0.5*y", "y*x^(1/2)"),
+                Arguments.of("x/x", "1"),
+                Arguments.of("0^0", "1"),
+                Arguments.of("x/(y - y)", "1/(x - x)")
+        );
+    }
+
+    public static Stream<Arguments> notEquivalent() {
+        return Stream.of(
+                Arguments.of("x*(y + 1)", "x*y + y"),
+                Arguments.of("(x + 1)^2", "x^2 + 1"),
+                Arguments.of("x - y", "y - x"),
+                Arguments.of("0.5", "0.25"),
+                Arguments.of("x^0.5*x^0.5", "x^0.25"),
+                Arguments.of("x^3", "x^-3"),
+                Arguments.of("x", "X"),
+                Arguments.of("x - x/(y - y)", "3"),
+                Arguments.of("x/(y - y)", "42"),
+                Arguments.of("1/(x - x)", "x + 1"),
+                // Constants that are equal modulo 2^61 - 1.
+                Arguments.of("x*2^61", "x"),
+                Arguments.of("2305843009213693951", "0"),
+                Arguments.of("x + 2305843009213693953", "x + 2"),
+                Arguments.of("1/2305843009213693951", "2/2305843009213693951")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("equivalent")
+    void equivalentTest(String first, String second) throws InvalidExpressionException {
+        var checker = EquivalenceChecker.DEFAULT;
+        assertTrue(checker.probablyEquivalent(ExpressionSimplifier.parseExpr(first), ExpressionSimplifier.parseExpr(second)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("notEquivalent")
+    void notEquivalentTest(String first, String second) throws InvalidExpressionException {
+        var checker = EquivalenceChecker.DEFAULT;
+        assertFalse(checker.probablyEquivalent(ExpressionSimplifier.parseExpr(first), ExpressionSimplifier.parseExpr(second)));
+    }
+
+    @Test
+    void fingerprintKeyTest() throws InvalidExpressionException {
+        var checker = new EquivalenceChecker(3, 40);
+        Map<EquivalenceChecker.Fingerprint, String> byFingerprint = new HashMap<>();
+        for (var expr : List.of("x*(y + 1)", "(x + 1)^2", "x - y")) {
+            byFingerprint.put(checker.fingerprint(ExpressionSimplifier.parseExpr(expr)), expr);
+        }
+
+        assertEquals("x*(y + 1)", byFingerprint.get(checker.fingerprint(ExpressionSimplifier.parseExpr("y*x + x"))));
+        assertEquals("(x + 1)^2", byFingerprint.get(checker.fingerprint(ExpressionSimplifier.parseExpr("1 + x*(x + 2)"))));
+        assertNull(byFingerprint.get(checker.fingerprint(ExpressionSimplifier.parseExpr("y - x"))));
+
+        // The same seed gives the same points in every checker.
+        var same = new EquivalenceChecker(3, 40);
+        assertEquals(checker.fingerprint(ExpressionSimplifier.parseExpr("x/y")), same.fingerprint(ExpressionSimplifier.parseExpr("x/y")));
+        assertEquals(3, checker.fingerprint(ExpressionSimplifier.parseExpr("x")).getValues().length);
+    }
+
+    @Test
+    void primeConstantTest() throws InvalidExpressionException {
+        // A constant that is 0 modulo the prime of one point is defined, and differs from 0 at the others.
+        var checker = EquivalenceChecker.DEFAULT;
+        long prime = checker.getModulus(0);
+        assertNotEquals(prime, checker.getModulus(1));
+        SyntaxTree inverse = ExpressionSimplifier.parseExpr("1/" + prime);
+        assertTrue(checker.fingerprint(inverse).isDefined());
+        assertFalse(checker.probablyEquivalent(inverse, ExpressionSimplifier.parseExpr("2/" + prime)));
+        assertTrue(checker.probablyEquivalent(inverse, ExpressionSimplifier.parseExpr("2/(2*" + prime + ")")));
+        assertFalse(checker.probablyEquivalent(ExpressionSimplifier.parseExpr(String.valueOf(prime)), ExpressionSimplifier.parseExpr("0")));
+        assertNotEquals(prime, new EquivalenceChecker(4, 1).getModulus(0));
+    }
+
+    @Test
+    void fieldArithmeticTest() {
+        var field = new EquivalenceChecker.Field((1L << 61) - 1);
+        long minusOne = field.subtract(0, field.one);
+        assertEquals(field.one, field.multiply(minusOne, minusOne));
+        assertEquals(0, field.add(minusOne, field.one));
+        assertEquals(field.one, field.multiply(field.element(12345), field.inverse(field.element(12345))));
+        assertEquals(field.residue(Rational.of(-1, 3)), field.subtract(0, field.inverse(field.element(3))));
+        assertEquals(EquivalenceChecker.UNDEFINED, field.residue(Rational.of(1, (1L << 61) - 1)));
+
+        // Products agree with exact arithmetic, for moduli near the largest allowed.
+        var random = new Random(42);
+        for (long modulus : new long[]{(1L << 61) - 1, (1L << 62) - 57, 1_000_000_007}) {
+            var bigField = new EquivalenceChecker.Field(modulus);
+            var bigModulus = BigInteger.valueOf(modulus);
+            for (int idx = 0; idx < 1000; idx++) {
+                long left = Long.remainderUnsigned(random.nextLong(), modulus);
+                long right = Long.remainderUnsigned(random.nextLong(), modulus);
+                long product = BigInteger.valueOf(left).multiply(BigInteger.valueOf(right)).mod(bigModulus).longValue();
+                assertEquals(bigField.element(product), bigField.multiply(bigField.element(left), bigField.element(right)));
+            }
+        }
+    }
+
+    @Test
+    void simplifierPreservesValueTest() {
+        var random = new Random(40);
+        var checker = EquivalenceChecker.DEFAULT;
+        int checked = 0;
+        for (int idx = 0; idx < 2_000; idx++) {
+            String expr = randomExpr(random, 4);
+            SyntaxTree parsed;
+            SyntaxTree simplified;
+            try {
+                parsed = ExpressionSimplifier.parseExpr(expr);
+                simplified = ExpressionSimplifier.simplifyTree(expr, Bindings.EMPTY, SimplifierBudget.DEFAULT.start());
+            } catch (InvalidExpressionException | BudgetExceededException | ArithmeticException e) {
+                continue;
+            }
+
+            // Simplification may drop a division by zero, as 0*(1/(x - x)) to 0, so only defined values must be kept.
+            if (!checker.fingerprint(parsed).isDefined()) {
+                continue;
+            }
+
+            assertTrue(checker.probablyEquivalent(parsed, simplified), () -> expr + " simplified to " + simplified);
+            checked++;
+        }
+
+        assertTrue(checked > 1_000, "Too few expressions could be simplified: " + checked);
+    }
+
+    @Test
+    void rulesPreserveValueTest() {
+        var random = new Random(41);
+        var checker = EquivalenceChecker.DEFAULT;
+        List<RewriteRule> rules = new ArrayList<>(AlgebraicIdentities.RULES);
+        rules.addAll(EqualitySaturation.SATURATION_RULES);
+        for (var rule : rules) {
+            int checked = 0;
+            for (int attempt = 0; attempt < 200 && checked < 50; attempt++) {
+                Map<String, SyntaxTree> bindings = new HashMap<>();
+                if (!bind(rule.pattern, bindings, random) || !rule.test(bindings)) {
+                    continue;
+                }
+
+                var pattern = checker.fingerprint(rule.pattern.instantiate(bindings));
+                var replacement = checker.fingerprint(rule.replacement.instantiate(bindings));
+                if (!pattern.isDefined()) {
+                    continue;
+                }
+
+                assertEquals(pattern, replacement, () -> rule + " with " + bindings);
+                checked++;
+            }
+
+            assertTrue(checked > 0, "No bindings for " + rule);
+        }
+    }
+
+    /**
+     * Binds every name in the pattern to a random tree of its kind.
+     *
+     * @return whether the bound trees could be parsed.
+     */
+    private static boolean bind(Pattern pattern, Map<String, SyntaxTree> bindings, Random random) {
+        if (pattern.left != null && pattern.right != null) {
+            return bind(pattern.left, bindings, random) && bind(pattern.right, bindings, random);
+        }
+
+        String name = pattern.getName();
+        if (name == null || bindings.containsKey(name)) {
+            return true;
+        }
+
+        switch (pattern.kind) {
+            case NUMBER:
+                bindings.put(name, new SyntaxTree(new LexNode(String.valueOf(random.nextInt(9) - 3), TokenType.NUMBER)));
+                return true;
+            case VARIABLE:
+                bindings.put(name, new SyntaxTree(new LexNode(VARIABLES[random.nextInt(VARIABLES.length)], TokenType.VARIABLE)));
+                return true;
+            default:
+                try {
+                    bindings.put(name, ExpressionSimplifier.parseExpr(randomExpr(random, 3)));
+                    return true;
+                } catch (InvalidExpressionException e) {
+                    return false;
+                }
+        }
+    }
+
+    /**
+     * @return a fully parenthesized expression with small integer exponents.
+     */
+    private static String randomExpr(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return random.nextBoolean()
+                    ? VARIABLES[random.nextInt(VARIABLES.length)]
+                    : String.valueOf(random.nextInt(5));
+        }
+
+        String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+        String right = "^".equals(operator) ? String.valueOf(random.nextInt(4)) : randomExpr(random, depth - 1);
+        return "(" + randomExpr(random, depth - 1) + operator + right + ")";
+    }
+}
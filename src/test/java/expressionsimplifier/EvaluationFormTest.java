@@ -0,0 +1,81 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluationFormTest {
+    public static @NotNull Stream<Arguments> optimizedExpressions() {
+        return Stream.of(
+                Arguments.of("x^3+x^2", "t1*x + t1", 3),
+                Arguments.of("2x^4 + 3x^3 - x^2 + 7x - 1", "(((2x + 3)*x - 1)*x + 7)*x - 1", 8),
+                Arguments.of("x^15", "t2*t2*t2", 5),
+                Arguments.of("(x^2+1)^3", "t1*t1*t1", 4),
+                Arguments.of("x^(-2)", "1/(x*x)", 5),
+                Arguments.of("x*y", "x*y", 1),
+                Arguments.of("x^0.5 + x", "x + x^0.5", 9)
+        );
+    }
+
+    public static @NotNull Stream<Arguments> chainLengths() {
+        return Stream.of(
+                Arguments.of(2, 1),
+                Arguments.of(3, 2),
+                Arguments.of(15, 5),
+                Arguments.of(23, 6),
+                Arguments.of(31, 7),
+                Arguments.of(64, 6)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("optimizedExpressions")
+    void optimizeTest(String expr, String expectedOutput, int expectedCost) throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.simplifyTree(expr, Bindings.EMPTY, SimplifierBudget.UNLIMITED.start());
+        SyntaxTree optimized = EvaluationForm.optimize(tree);
+        LetProgram program = LetProgram.of(List.of(optimized));
+
+        assertEquals(expectedOutput, program.outputs.get(0).toString());
+        assertEquals(expectedCost, EvaluationForm.cost(optimized).total());
+        assertTrue(EvaluationForm.cost(optimized).total() <= EvaluationForm.cost(tree).total());
+
+        var variables = List.of("x", "y");
+        var original = EvaluationTape.compile(tree, variables);
+        var rewritten = EvaluationTape.compile(optimized, variables);
+        for (double x : new double[]{-2.5, -1, 0.5, 3}) {
+            double[] values = {x, 1.25};
+            double expected = original.evaluate(values, original.newWorkBuffer());
+            double actual = rewritten.evaluate(values, rewritten.newWorkBuffer());
+            if (Double.isNaN(expected)) {
+                assertTrue(Double.isNaN(actual));
+            } else {
+                assertEquals(expected, actual, 1e-12 * Math.max(1, Math.abs(expected)));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("chainLengths")
+    void shortestChainTest(int exponent, int multiplications) {
+        int[] chain = EvaluationForm.shortestChain(exponent);
+        assertEquals(multiplications, chain.length - 1);
+        assertEquals(1, chain[0]);
+        assertEquals(exponent, chain[chain.length - 1]);
+        for (int idx = 1; idx < chain.length; idx++) {
+            boolean isSum = false;
+            for (int first = 0; first < idx; first++) {
+                for (int second = first; second < idx; second++) {
+                    isSum |= chain[first] + chain[second] == chain[idx];
+                }
+            }
+
+            assertTrue(isSum);
+        }
+    }
+}
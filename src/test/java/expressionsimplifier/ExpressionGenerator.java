@@ -0,0 +1,189 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates random expressions of a given size from a seed, for stress tests and benchmark datasets.
+ * <p>
+ * The size of an expression is its number of leaves. Operands of a power are small integers and divisors are nonzero
+ * leaves, so the expressions can always be simplified. Compound operands are parenthesized, so the text parses to the
+ * generated tree. With the repetition ratio, a subexpression is replaced by an earlier one of the same size, which
+ * makes common subexpressions.
+ * <p>
+ * Run {@code java -cp target/test-classes:target/classes expressionsimplifier.ExpressionGenerator file lines size [seed]}
+ * to write a dataset with one expression per line.
+ *
+ * @author Moussa
+ */
+final class ExpressionGenerator {
+    private static final int MAX_EXPONENT = 3;
+    private static final int MAX_CONSTANT = 9;
+    // The operators chosen for compound subexpressions, with repeats as weights
+    private static final Operator[] OPERATORS = {
+            Operator.ADD, Operator.ADD, Operator.SUB, Operator.MUL, Operator.MUL, Operator.DIV, Operator.POW
+    };
+    // Repeated subexpressions are only taken from sizes at least this big, since smaller ones repeat by chance.
+    private static final int MIN_REPEATED_SIZE = 3;
+
+    private final @NotNull Random random;
+    private final int variableCount;
+    private final int maxDepth;
+    private final double repetitionRatio;
+    // The compound subexpressions generated so far, by size
+    private final @NotNull Map<Integer, List<Generated>> bySize = new HashMap<>();
+
+    /**
+     * @param variableCount   the number of distinct variables, named {@code x0}, {@code x1}, and so on.
+     * @param maxDepth        the largest nesting depth of operators. Expressions are made deeper than needed for
+     *                        their size up to this depth, so it controls how lopsided they are.
+     * @param repetitionRatio the chance that a compound subexpression repeats an earlier one.
+     */
+    ExpressionGenerator(long seed, int variableCount, int maxDepth, double repetitionRatio) {
+        if (variableCount < 1 || maxDepth < 1 || repetitionRatio < 0 || repetitionRatio > 1) {
+            throw new IllegalArgumentException("Invalid generator settings");
+        }
+
+        this.random = new Random(seed);
+        this.variableCount = variableCount;
+        this.maxDepth = maxDepth;
+        this.repetitionRatio = repetitionRatio;
+    }
+
+    /**
+     * @param size the number of leaves, which must fit in the maximum depth.
+     */
+    @NotNull String generate(int size) {
+        if (size < 1 || size > capacity(maxDepth)) {
+            throw new IllegalArgumentException("Size does not fit in the maximum depth: " + size);
+        }
+
+        return generate(size, maxDepth);
+    }
+
+    /**
+     * @return a sum or difference of terms at the top level, each of the given size, like a long formula.
+     */
+    @NotNull String generateSum(int terms, int termSize) {
+        var sum = new StringBuilder(generate(termSize));
+        for (int idx = 1; idx < terms; idx++) {
+            sum.append(random.nextBoolean() ? " + " : " - ");
+            sum.append(parenthesize(generate(termSize), termSize));
+        }
+
+        return sum.toString();
+    }
+
+    private @NotNull String generate(int size, int depth) {
+        if (size == 1) {
+            return leaf();
+        }
+
+        List<Generated> sameSize = bySize.get(size);
+        if (sameSize != null && random.nextDouble() < repetitionRatio) {
+            Generated earlier = sameSize.get(random.nextInt(sameSize.size()));
+            if (earlier.depth <= depth) {
+                return earlier.expr;
+            }
+        }
+
+        Operator operator = OPERATORS[random.nextInt(OPERATORS.length)];
+        boolean hasLeafOperand = operator == Operator.POW || operator == Operator.DIV;
+        if (hasLeafOperand && size - 1 > capacity(depth - 1)) {
+            operator = Operator.ADD;
+        }
+
+        String expr;
+        if (operator == Operator.POW) {
+            expr = operand(size - 1, depth - 1) + operator.token + (random.nextInt(MAX_EXPONENT) + 1);
+        } else if (operator == Operator.DIV) {
+            expr = operand(size - 1, depth - 1) + operator.token + divisor();
+        } else {
+            int leftSize = leftSize(size, depth);
+            String left = operand(leftSize, depth - 1);
+            String right = operand(size - leftSize, depth - 1);
+            expr = left + ' ' + operator.token + ' ' + right;
+        }
+
+        if (size >= MIN_REPEATED_SIZE) {
+            bySize.computeIfAbsent(size, key -> new ArrayList<>()).add(new Generated(expr, depth));
+        }
+
+        return expr;
+    }
+
+    /**
+     * Splits at random when the depth allows it, and more evenly as the depth runs out.
+     */
+    private int leftSize(int size, int depth) {
+        int capacity = capacity(depth - 1);
+        int low = Math.max(1, size - capacity);
+        int high = Math.min(size - 1, capacity);
+        return low + random.nextInt(high - low + 1);
+    }
+
+    /**
+     * @return the most leaves that fit in the depth.
+     */
+    private static int capacity(int depth) {
+        return depth >= 31 ? Integer.MAX_VALUE : 1 << depth;
+    }
+
+    private @NotNull String operand(int size, int depth) {
+        return parenthesize(generate(size, depth), size);
+    }
+
+    private static @NotNull String parenthesize(String expr, int size) {
+        return size == 1 ? expr : '(' + expr + ')';
+    }
+
+    private @NotNull String leaf() {
+        return random.nextBoolean() ? variable() : String.valueOf(random.nextInt(MAX_CONSTANT + 1));
+    }
+
+    private @NotNull String divisor() {
+        return random.nextBoolean() ? variable() : String.valueOf(random.nextInt(MAX_CONSTANT) + 1);
+    }
+
+    private @NotNull String variable() {
+        return "x" + random.nextInt(variableCount);
+    }
+
+    private static final class Generated {
+        final @NotNull String expr;
+        // The depth it was generated to fit in
+        final int depth;
+
+        Generated(String expr, int depth) {
+            this.expr = expr;
+            this.depth = depth;
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Usage: ExpressionGenerator file lines size [seed]");
+        }
+
+        int lines = Integer.parseInt(args[1]);
+        int size = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        var generator = new ExpressionGenerator(seed, 8, 2 * (32 - Integer.numberOfLeadingZeros(size)), 0.2);
+        try (BufferedWriter out = Files.newBufferedWriter(Path.of(args[0]), StandardCharsets.UTF_8)) {
+            for (int idx = 0; idx < lines; idx++) {
+                out.write(generator.generate(size));
+                out.newLine();
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -68,7 +69,28 @@ class ExpressionSimplifierTest {
                 Arguments.of("(2x+3y-1z)^0", "1"),
                 Arguments.of("0^0", "1"),
                 Arguments.of("0^2", "0"),
-                Arguments.of("-(-2)(x+y)", "2(x + y)")
+                Arguments.of("0^x", "0^x"),
+                Arguments.of("(-2)^x", "(-2)^x"),
+                Arguments.of("-(-2)(x+y)", "2(x + y)"),
+                Arguments.of("1/3", "1/3"),
+                Arguments.of("1/3+1/6", "1/2"),
+                Arguments.of("2/4-1", "-1/2"),
+                Arguments.of("(1/3)*3", "1"),
+                Arguments.of("1/4+0.5", "0.75"),
+                Arguments.of("0.1/3", "1/30"),
+                Arguments.of("(2/3)^2", "4/9"),
+                Arguments.of("2^(-2)", "1/4"),
+                Arguments.of("2^64", "18446744073709551616"),
+                Arguments.of("x+1/3", "x + 1/3"),
+                Arguments.of("x*(1/3)", "(1/3)x"),
+                Arguments.of("x/(1/3)", "x/(1/3)"),
+                Arguments.of("x^(1/3)", "x^(1/3)"),
+                Arguments.of("(1/3)(x+y)", "(1/3)(x + y)"),
+                Arguments.of("(1/3)x", "(1/3)x"),
+                Arguments.of("x-(y-z)", "x - (y - z)"),
+                Arguments.of("x-(y+z)", "x - (y + z)"),
+                Arguments.of("x/(y/z)", "x/(y/z)"),
+                Arguments.of("x^(y^z)", "x^(y^z)")
 //                Arguments.of("-(x+y)(-2)", "2(x + y)"),
 //                Arguments.of("x*2*2*2*x", "8x^2")
         );
@@ -81,7 +103,32 @@ class ExpressionSimplifierTest {
                 Arguments.of("2x-(-3)*4+x*x", List.of("x=2"), "20"),
                 Arguments.of("x*y", List.of("x=1"), "y"),
                 Arguments.of("x*y", List.of("x=2", "y=-3.2"), "-6.4"),
-                Arguments.of("x*y", List.of("z=1"), "x*y")
+                Arguments.of("x*y", List.of("z=1"), "x*y"),
+                Arguments.of("x/3", List.of("x=1"), "1/3"),
+                Arguments.of("x*y", List.of("x=1/3", "y=3"), "1")
+        );
+    }
+
+    public static @NotNull Stream<Arguments> saturatedExpressions() {
+        return Stream.of(
+                Arguments.of("x*y+x*z", "x*(y + z)"),
+                Arguments.of("x+y-x", "y"),
+                Arguments.of("2x+3x", "5x"),
+                Arguments.of("x^2*x^3", "x^5"),
+                Arguments.of("0^0", "1"),
+                Arguments.of("(x+y)/(x+y)", "1"),
+                Arguments.of("x+1", "x + 1")
+        );
+    }
+
+    public static @NotNull Stream<Arguments> programs() {
+        String newline = System.lineSeparator();
+        return Stream.of(
+                Arguments.of(List.of("3(x^2+1)", "(x^2+1)/y"), String.join(newline, "t1 = x^2 + 1", "e1 = 3t1", "e2 = t1/y")),
+                Arguments.of(List.of("x+1", "(x+1)+0"), String.join(newline, "t1 = x + 1", "e1 = t1", "e2 = t1")),
+                Arguments.of(List.of("x*y", "y*x"), String.join(newline, "e1 = x*y", "e2 = y*x")),
+                Arguments.of(List.of("(t1+1)*(t1+1)"), String.join(newline, "tt1 = t1 + 1", "e1 = tt1*tt1")),
+                Arguments.of(List.of("e1*2"), "ee1 = 2e1")
         );
     }
 
@@ -98,7 +145,26 @@ class ExpressionSimplifierTest {
                 Arguments.of("1/0.0"),
                 Arguments.of("0^(-1)"),
                 Arguments.of("0^(-0.1)"),
-                Arguments.of("(-1)^(1/2)")
+                Arguments.of("(-1)^(1/2)"),
+                Arguments.of("10^400.5")
+        );
+    }
+
+    public static @NotNull Stream<Arguments> expressionsOverBudget() {
+        SimplifierBudget budget = SimplifierBudget.UNLIMITED;
+        return Stream.of(
+                Arguments.of("x+y+z", budget.withMaxInputLength(4)),
+                Arguments.of("x+y+z", budget.withMaxNodes(4)),
+                Arguments.of("((((x))))", budget.withMaxDepth(4)),
+                Arguments.of("x+y+z+w", budget.withMaxDepth(3)),
+                Arguments.of("2^100000000", budget.withMaxNumberBits(1 << 16)),
+                Arguments.of("(-1/3)^100000000", budget.withMaxNumberBits(1 << 16)),
+                Arguments.of("(-1/2)^100000000", budget.withMaxNumberBits(1 << 16)),
+                Arguments.of("(1/2)^-100000000", budget.withMaxNumberBits(1 << 16)),
+                Arguments.of("(-3)^100000000", budget.withMaxNumberBits(1 << 16)),
+                Arguments.of("123456789012345678901234567890", budget.withMaxNumberBits(64)),
+                Arguments.of("x+1", budget.withTimeout(Duration.ZERO)),
+                Arguments.of("x+1", budget.withCancellation(() -> true))
         );
     }
 
@@ -124,9 +190,50 @@ class ExpressionSimplifierTest {
         assertEquals(simplifiedExpr, reSimplifiedExpr);
     }
 
+    @ParameterizedTest
+    @MethodSource("expressionsWithAssignedVariables")
+    void batchTest(String expr, List<String> variableValues, String expected) throws InvalidExpressionException {
+        List<String> actual = ExpressionSimplifier.simplifyExprs(List.of(expr, expr + "+0"), variableValues, SimplifierBudget.UNLIMITED);
+        assertEquals(List.of(expected, expected), actual);
+    }
+
+    @ParameterizedTest
+    @MethodSource("programs")
+    void programTest(List<String> exprs, String expected) throws InvalidExpressionException {
+        LetProgram program = ExpressionSimplifier.simplifyToProgram(exprs, List.of(), SimplifierBudget.UNLIMITED);
+        assertEquals(expected, program.toString());
+    }
+
     @ParameterizedTest
     @MethodSource("invalidExpressions")
     void invalidExpressionsTest(String expr) {
         assertThrows(InvalidExpressionException.class, () -> ExpressionSimplifier.simplifyExpr(expr));
     }
+
+    @ParameterizedTest
+    @MethodSource("expressionsOverBudget")
+    void budgetExceededTest(String expr, SimplifierBudget budget) {
+        assertThrows(BudgetExceededException.class, () -> ExpressionSimplifier.simplifyExpr(expr, List.of(), budget));
+    }
+
+    @ParameterizedTest
+    @MethodSource("expressions")
+    void defaultBudgetTest(String expr, String expected) throws InvalidExpressionException {
+        String actual = ExpressionSimplifier.simplifyExpr(expr, List.of(), SimplifierBudget.DEFAULT);
+        assertEquals(expected, actual);
+    }
+
+    @ParameterizedTest
+    @MethodSource("saturatedExpressions")
+    void saturationTest(String expr, String expected) throws InvalidExpressionException {
+        var saturation = new EqualitySaturation(Duration.ofMinutes(1), 5_000);
+        String actual = ExpressionSimplifier.simplifyExpr(expr, List.of(), saturation);
+        assertEquals(expected, actual);
+    }
+
+    @ParameterizedTest
+    @MethodSource("invalidExpressions")
+    void saturationInvalidExpressionsTest(String expr) {
+        assertThrows(InvalidExpressionException.class, () -> ExpressionSimplifier.simplifyExpr(expr, List.of(), EqualitySaturation.DEFAULT));
+    }
 }
\ No newline at end of file
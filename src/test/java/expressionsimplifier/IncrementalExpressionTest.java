@@ -0,0 +1,198 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalExpressionTest {
+    public static Stream<Arguments> edits() {
+        return Stream.of(
+                Arguments.of("x + 2", 4, 1, "3"),
+                Arguments.of("x + 2", 4, 0, "3"),
+                Arguments.of("x + 2", 1, 0, "y"),
+                Arguments.of("x + 2", 0, 1, "2"),
+                Arguments.of("2 + 2", 0, 1, "x"),
+                Arguments.of("x + 2", 2, 1, "*"),
+                Arguments.of("x + 2", 2, 1, "-"),
+                Arguments.of("x - 2", 3, 0, "-"),
+                Arguments.of("x * y", 3, 0, "-"),
+                Arguments.of("x*-y", 2, 1, ""),
+                Arguments.of("-x", 1, 0, "2"),
+                Arguments.of("2 x", 1, 1, ""),
+                Arguments.of("(x + 1)(x - 1)", 4, 1, "-"),
+                Arguments.of("(x + 1)(x - 1)", 7, 0, "*"),
+                Arguments.of("(x + 1)(x - 1)", 7, 0, "+"),
+                Arguments.of("(x + 1) + (y + 2)", 0, 1, ""),
+                Arguments.of("(x + 1 + (y + 2)", 0, 0, "x*"),
+                Arguments.of("(x + 1 + (y + 2)", 6, 0, ")"),
+                Arguments.of("x/(y - y)", 7, 1, "1"),
+                Arguments.of("x + 1", 0, 5, ""),
+                Arguments.of("", 0, 0, "x^2 + 2x"),
+                Arguments.of("2x + 3x", 3, 1, "  +  "),
+                Arguments.of("y2 + 1", 1, 1, "")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("edits")
+    void editTest(String text, int offset, int removedLength, String insertedText) {
+        Map<String, String> variables = Map.of("y", "3");
+        var expression = IncrementalExpression.parse(text, Bindings.of(variables), SimplifierBudget.DEFAULT);
+        assertEquals(run(text, "y=3"), result(expression));
+
+        IncrementalExpression edited = expression.edit(offset, removedLength, insertedText);
+        String newText = text.substring(0, offset) + insertedText + text.substring(offset + removedLength);
+        assertEquals(newText, edited.getText());
+        assertEquals(run(newText, "y=3"), result(edited));
+        // The previous version is unchanged.
+        assertEquals(run(text, "y=3"), result(expression));
+    }
+
+    @Test
+    void typingTest() {
+        String text = "3(x + 1)^2 - (x - y)(x + y)/(2x) + 4x^3 - -2 + 1/2*x";
+        var expression = IncrementalExpression.parse("", Bindings.EMPTY, SimplifierBudget.DEFAULT);
+        for (int idx = 0; idx < text.length(); idx++) {
+            expression = expression.edit(idx, 0, text.substring(idx, idx + 1));
+            assertEquals(run(text.substring(0, idx + 1)), result(expression));
+        }
+
+        for (int idx = text.length(); idx > 0; idx--) {
+            expression = expression.edit(idx - 1, 1, "");
+            assertEquals(run(text.substring(0, idx - 1)), result(expression));
+        }
+    }
+
+    @Test
+    void randomEditTest() {
+        var random = new Random(39);
+        String alphabet = "xy12.+-*/^()  ";
+        var expression = IncrementalExpression.parse("(x + 1)*(y - 2) + x/y", Bindings.of(Map.of("x", "1/3")), SimplifierBudget.DEFAULT);
+        for (int step = 0; step < 2_000; step++) {
+            String text = expression.getText();
+            int offset = random.nextInt(text.length() + 1);
+            int removedLength = random.nextInt(Math.min(3, text.length() - offset) + 1);
+            var inserted = new StringBuilder();
+            for (int idx = random.nextInt(3); idx > 0; idx--) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            // Keeps the expression from growing without bound.
+            if (text.length() > 40) {
+                removedLength = Math.min(text.length() - offset, 4);
+            }
+
+            expression = expression.edit(offset, removedLength, inserted.toString());
+            assertEquals(run(expression.getText(), "x=1/3"), result(expression), expression.getText());
+        }
+    }
+
+    @Test
+    void reuseTest() throws InvalidExpressionException {
+        var terms = new StringBuilder("(a + b)*(c + d)");
+        for (int idx = 0; idx < 100; idx++) {
+            terms.append(" + ").append(idx).append("x");
+        }
+
+        var expression = IncrementalExpression.parse(terms.toString(), Bindings.EMPTY, SimplifierBudget.DEFAULT);
+        // Each term is +, the coefficient, an implicit * and x.
+        assertEquals(3 + 4 * 100, expression.getRelexedTokens());
+        SyntaxTree before = expression.getTree();
+        expression.getSimplified();
+
+        // Changing c to e reparses only the second factor, and relexes only the token holding it.
+        IncrementalExpression edited = expression.edit(9, 1, "e");
+        assertEquals(1, edited.getRelexedTokens());
+        SyntaxTree product = leftmostOperand(edited.getTree(), 100);
+        SyntaxTree oldProduct = leftmostOperand(before, 100);
+        assertNotNull(product.left);
+        assertSame(oldProduct.left, product.left);
+        assertEquals(run(edited.getText()), edited.getSimplified().toString());
+
+        // Changing a coefficient relexes a few tokens around it.
+        IncrementalExpression coefficient = edited.edit(terms.indexOf("50x"), 2, "7");
+        assertTrue(coefficient.getRelexedTokens() <= 3);
+        assertEquals(run(coefficient.getText()), coefficient.getSimplified().toString());
+    }
+
+    @Test
+    void budgetTest() {
+        // Cached subexpressions reused deeper, or more than once, must exceed the budget as they would from scratch.
+        SimplifierBudget shallow = SimplifierBudget.UNLIMITED.withMaxDepth(4);
+        assertEquals(parseOutcome("(a + (b + c)) + (a + (a + (b + c)))", shallow),
+                editOutcome("(a + (b + c)) + y", 16, 1, "(a + (a + (b + c)))", shallow));
+        int edits = 0;
+        for (int maxNodes = 1; maxNodes < 40; maxNodes++) {
+            SimplifierBudget budget = SimplifierBudget.UNLIMITED.withMaxNodes(maxNodes);
+            String edited = editOutcome("(a + b*c)", 9, 0, " + (a + b*c)*(a + b*c)", budget);
+            if (edited != null) {
+                assertEquals(parseOutcome("(a + b*c) + (a + b*c)*(a + b*c)", budget), edited, "max nodes " + maxNodes);
+                edits++;
+            }
+        }
+
+        assertTrue(edits > 10);
+    }
+
+    private static String parseOutcome(String text, SimplifierBudget budget) {
+        try {
+            return IncrementalExpression.parse(text, Bindings.EMPTY, budget).getTree().toString();
+        } catch (InvalidExpressionException | BudgetExceededException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * @return the outcome of the edit, or null if the text before it is already over budget.
+     */
+    private static String editOutcome(String text, int offset, int removedLength, String insertedText, SimplifierBudget budget) {
+        IncrementalExpression expression;
+        try {
+            expression = IncrementalExpression.parse(text, Bindings.EMPTY, budget);
+        } catch (BudgetExceededException e) {
+            return null;
+        }
+
+        try {
+            return expression.edit(offset, removedLength, insertedText).getTree().toString();
+        } catch (InvalidExpressionException | BudgetExceededException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static SyntaxTree leftmostOperand(SyntaxTree tree, int depth) {
+        for (int idx = 0; idx < depth; idx++) {
+            assertNotNull(tree.left);
+            tree = tree.left;
+        }
+
+        return tree;
+    }
+
+    private static String run(String text, String... variableValues) {
+        if (text.isBlank()) {
+            return "Invalid expression";
+        }
+
+        List<String> args = new ArrayList<>(List.of(text));
+        args.addAll(List.of(variableValues));
+        return ExpressionSimplifier.run(args.toArray(String[]::new));
+    }
+
+    private static String result(IncrementalExpression expression) {
+        try {
+            return expression.getSimplified().toString();
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.tools.ToolProvider;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class JavaSourceGeneratorTest {
+    public static @NotNull Stream<Arguments> javaExpressions() {
+        return Stream.of(
+                Arguments.of("x+1", "x + 1.0"),
+                Arguments.of("x/3", "x / 3.0"),
+                Arguments.of("(1/3)x", "1.0 / 3.0 * x"),
+                Arguments.of("a-(b-c)", "a - (b - c)"),
+                Arguments.of("a*(b*c)", "a * (b * c)"),
+                Arguments.of("(a+b)*c", "(a + b) * c"),
+                Arguments.of("x^2^y", "Math.pow(Math.pow(x, 2.0), y)"),
+                Arguments.of("-x", "-1.0 * x"),
+                Arguments.of("x - (-2)y", "x - -2.0 * y"),
+                Arguments.of("int+2", "int_ + 2.0"),
+                Arguments.of("Math^x", "Math.pow(Math_, x)")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("javaExpressions")
+    void toJavaTest(String expr, String expected) throws InvalidExpressionException {
+        assertEquals(expected, JavaSourceGenerator.toJava(ExpressionSimplifier.parseExpr(expr)));
+    }
+
+    @Test
+    void compiledClassTest(@TempDir Path dir) throws Exception {
+        List<String> exprs = List.of("3(x^2+1)/(x^2+1+y)", "a-(b-c)*a", "(x+y)^2*(x+y)^3", "int/2", "7", "Math^x + 1");
+        List<SyntaxTree> trees = new ArrayList<>();
+        List<String> methodNames = new ArrayList<>();
+        for (var expr : exprs) {
+            trees.add(ExpressionSimplifier.simplifyTree(expr, Bindings.EMPTY, SimplifierBudget.UNLIMITED.start()));
+            methodNames.add("f" + methodNames.size());
+        }
+
+        String source = JavaSourceGenerator.generate("generated", "Formulas", methodNames, trees);
+        Path sourceFile = dir.resolve("generated").resolve("Formulas.java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.writeString(sourceFile, source);
+        int status = ToolProvider.getSystemJavaCompiler().run(null, null, null, "-d", dir.toString(), sourceFile.toString());
+        assertEquals(0, status, source);
+
+        try (var loader = new URLClassLoader(new java.net.URL[]{dir.toUri().toURL()})) {
+            Class<?> formulas = loader.loadClass("generated.Formulas");
+            for (int idx = 0; idx < trees.size(); idx++) {
+                SyntaxTree tree = trees.get(idx);
+                Method method = findMethod(formulas, methodNames.get(idx));
+                List<String> variables = new ArrayList<>();
+                Object[] arguments = new Object[method.getParameterCount()];
+                double[] values = new double[arguments.length];
+                // Parameters are in alphabetical order, which is the order of the names in the source.
+                String parameters = source.split("double " + methodNames.get(idx) + "\\(")[1].split("\\)")[0];
+                for (var parameter : parameters.isEmpty() ? new String[0] : parameters.split(", ")) {
+                    String name = parameter.substring("double ".length());
+                    variables.add(name.endsWith("_") ? name.substring(0, name.length() - 1) : name);
+                    values[variables.size() - 1] = 0.5 + variables.size();
+                    arguments[variables.size() - 1] = values[variables.size() - 1];
+                }
+
+                var tape = EvaluationTape.compile(tree, variables);
+                assertEquals(tape.evaluate(values, tape.newWorkBuffer()), (double) method.invoke(null, arguments), exprs.get(idx));
+            }
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        for (var method : type.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+
+        throw new AssertionError("Missing method " + name);
+    }
+}
@@ -0,0 +1,88 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelParserTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutdown() {
+        POOL.shutdown();
+    }
+
+    private static SyntaxTree parse(String expr, int segmentLength) throws InvalidExpressionException {
+        return ParallelParser.parse(expr, SimplifierBudget.UNLIMITED.start(), POOL, segmentLength);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2(x + 1)*3(y)x - 4x^2(z) + (x)(y)/2y", "-x - -2 + x*-y - 2^-3 + (-x)", "a - b - c*d/e^f^g",
+            "x2 + 3.5x - 2.(y) + 10z10", "  x  +\t2 y  -  ( z ) ", "((x + 1) - (y - 2))^2 + 1"})
+    void implicitMultiplicationTest(String expr) throws InvalidExpressionException {
+        // Every segment length, so that each operator is cut at, next to every kind of token.
+        SyntaxTree expected = ExpressionSimplifier.parseExpr(expr);
+        for (int segmentLength = 1; segmentLength <= expr.length(); segmentLength++) {
+            assertEquals(expected, parse(expr, segmentLength), "segment length " + segmentLength);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"x + (y", "x + y)", "x) + (y", "x ++ y", "x + $", "x +", "+ x", "x + ()", "x(y) + 1",
+            "x + y - ", "(x + y) 2 + 1", "x * - ", "x..2 + 1"})
+    void invalidTest(String expr) {
+        var expected = assertThrows(InvalidExpressionException.class, () -> ExpressionSimplifier.parseExpr(expr));
+        for (int segmentLength = 1; segmentLength <= expr.length(); segmentLength++) {
+            int length = segmentLength;
+            var actual = assertThrows(InvalidExpressionException.class, () -> parse(expr, length));
+            assertEquals(expected.getMessage(), actual.getMessage(), "segment length " + segmentLength);
+        }
+    }
+
+    @Test
+    void generatedTest() throws InvalidExpressionException {
+        var random = new Random(46);
+        var sums = new ExpressionGenerator(46, 10, 12, 0.2);
+        var products = new ExpressionGenerator(47, 10, 30, 0.2);
+        for (int idx = 0; idx < 100; idx++) {
+            String expr = idx % 2 == 0 ? sums.generateSum(1 + random.nextInt(100), 1 + random.nextInt(20))
+                    : products.generate(1 + random.nextInt(400));
+            SyntaxTree expected = ExpressionSimplifier.parseExpr(expr);
+            assertEquals(expected, parse(expr, 1 + random.nextInt(200)), expr);
+        }
+    }
+
+    @Test
+    void budgetTest() throws InvalidExpressionException {
+        String expr = new ExpressionGenerator(48, 10, 8, 0).generateSum(100, 10);
+        // The fewest nodes sequential parsing needs, which counts each operator token as well as its node.
+        int low = 1;
+        int high = Integer.MAX_VALUE;
+        while (low < high) {
+            int mid = low + (high - low) / 2;
+            try {
+                ExpressionSimplifier.parseExpr(expr, SimplifierBudget.UNLIMITED.withMaxNodes(mid).start());
+                high = mid;
+            } catch (BudgetExceededException e) {
+                low = mid + 1;
+            }
+        }
+
+        int nodes = low;
+        assertEquals(ExpressionSimplifier.parseExpr(expr),
+                ParallelParser.parse(expr, SimplifierBudget.UNLIMITED.withMaxNodes(nodes).start(), POOL, 64));
+        var actual = assertThrows(BudgetExceededException.class,
+                () -> ParallelParser.parse(expr, SimplifierBudget.UNLIMITED.withMaxNodes(nodes - 1).start(), POOL, 64));
+        assertEquals("Expression has more than " + (nodes - 1) + " nodes", actual.getMessage());
+
+        assertThrows(BudgetExceededException.class,
+                () -> ParallelParser.parse(expr, SimplifierBudget.UNLIMITED.withMaxInputLength(100).start(), POOL, 64));
+    }
+
+}
@@ -0,0 +1,76 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PreparedExpressionTest {
+    @Test
+    void variablesTest() throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.parseExpr("(x + 1)*(y + 2) + 3");
+        assertTrue(tree.hasVariables());
+        assertEquals(bit("x") | bit("y"), tree.getVariableMask());
+        assertEquals(0, SyntaxTree.variableBit(SymbolTable.NO_SYMBOL));
+
+        assertNotNull(tree.left);
+        assertNotNull(tree.right);
+        assertTrue(tree.left.hasVariables());
+        assertFalse(tree.right.hasVariables());
+
+        // Ids far past the first few, for names kept in use.
+        List<SymbolTable.Symbol> names = new ArrayList<>();
+        for (int idx = 0; idx < 200; idx++) {
+            names.add(SymbolTable.symbol("v" + idx));
+        }
+
+        SyntaxTree wide = ExpressionSimplifier.parseExpr("v199*x + v0");
+        assertEquals(bit("v199") | bit("x") | bit("v0"), wide.getVariableMask());
+        assertEquals(200, names.size());
+    }
+
+    private static long bit(String name) {
+        return SyntaxTree.variableBit(SymbolTable.intern(name));
+    }
+
+    @Test
+    void sharingTest() throws InvalidExpressionException {
+        var prepared = PreparedExpression.parse("(x + 1)*(y + 2) + 3z", SimplifierBudget.UNLIMITED);
+        SyntaxTree tree = prepared.getTree();
+        assertSame(tree, prepared.substitute(Bindings.EMPTY));
+        assertSame(tree, prepared.substitute(Bindings.parse(List.of("w=2"))));
+
+        SyntaxTree substituted = prepared.substitute(Bindings.parse(List.of("x=2")));
+        assertNotSame(tree, substituted);
+        assertEquals(ExpressionSimplifier.parseExpr("(2 + 1)*(y + 2) + 3z"), substituted);
+        assertNotNull(tree.left);
+        assertNotNull(substituted.left);
+        assertSame(tree.right, substituted.right);
+        assertSame(tree.left.right, substituted.left.right);
+    }
+
+    @Test
+    void simplifyTest() throws InvalidExpressionException {
+        String expr = "(x + 1)^2*(y - 2) + (z + 1)/(z - 1) + x*y*z - 2(y + 1)^3";
+        var prepared = PreparedExpression.parse(expr, SimplifierBudget.DEFAULT);
+        var random = new Random(42);
+        String[] names = {"x", "y", "z"};
+        for (int idx = 0; idx < 200; idx++) {
+            List<String> values = List.of(names[random.nextInt(names.length)] + "=" + (random.nextInt(7) - 3));
+            String expected = ExpressionSimplifier.run(expr, values.get(0));
+            String actual;
+            try {
+                actual = prepared.simplify(Bindings.parse(values)).toString();
+            } catch (InvalidExpressionException e) {
+                actual = e.getMessage();
+            }
+
+            assertEquals(expected, actual, values.toString());
+        }
+
+        assertEquals(ExpressionSimplifier.run(expr), prepared.simplify(Bindings.EMPTY).toString());
+    }
+}
@@ -0,0 +1,80 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RationalTest {
+    public static @NotNull Stream<Arguments> tokens() {
+        return Stream.of(
+                Arguments.of("3", "3"),
+                Arguments.of("-3", "-3"),
+                Arguments.of("6/4", "3/2"),
+                Arguments.of("-6/4", "-3/2"),
+                Arguments.of("6/-4", "-3/2"),
+                Arguments.of("2.50", "2.5"),
+                Arguments.of("0.0", "0.0"),
+                Arguments.of("123456789012345678901234567890", "123456789012345678901234567890"),
+                Arguments.of("246913578024691357802469135780/2", "123456789012345678901234567890")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("tokens")
+    void parseAndPrintTest(String token, String expected) {
+        assertEquals(expected, Rational.parse(token).toString());
+    }
+
+    @Test
+    void overflowPromotesToBigIntegerTest() {
+        var large = Rational.valueOf(Long.MAX_VALUE);
+        assertEquals("85070591730234615847396907784232501249", large.multiply(large).toString());
+        assertEquals("18446744073709551614", large.add(large).toString());
+        assertEquals(large, large.multiply(large).divide(large));
+    }
+
+    @Test
+    void unreducedOperandsAreReducedBeforePromotingTest() {
+        Rational third = Rational.ONE.divide(Rational.valueOf(3));
+        Rational sum = Rational.ZERO;
+        for (int i = 0; i < 300; i++) {
+            sum = sum.add(third);
+        }
+
+        assertEquals(Rational.valueOf(100), sum);
+        assertEquals("100", sum.toString());
+    }
+
+    @Test
+    void equalsIgnoresRepresentationTest() {
+        assertEquals(Rational.of(2, 4), Rational.parse("0.5"));
+        assertEquals(Rational.of(2, 4).hashCode(), Rational.parse("0.5").hashCode());
+        assertEquals(0, Rational.parse("1/3").compareTo(Rational.of(-2, -6)));
+        assertTrue(Rational.parse("1/3").compareTo(Rational.parse("0.3333")) > 0);
+    }
+
+    @Test
+    void decimalsPrintAsFractionsWhenNonTerminatingTest() {
+        Rational value = Rational.parse("1.0").divide(Rational.valueOf(3));
+        assertEquals("1/3", value.toString());
+        assertNull(value.toBigDecimal());
+        assertEquals("0.25", Rational.parse("1.0").divide(Rational.valueOf(4)).toString());
+    }
+
+    @Test
+    void divisionByZeroTest() {
+        assertThrows(ArithmeticException.class, () -> Rational.ONE.divide(Rational.ZERO));
+        assertThrows(ArithmeticException.class, () -> Rational.ZERO.pow(Rational.valueOf(-1)));
+    }
+
+    @Test
+    void nonIntegerPowerOutOfRangeTest() {
+        assertThrows(ArithmeticException.class, () -> Rational.valueOf(10).pow(Rational.parse("400.5")));
+    }
+}
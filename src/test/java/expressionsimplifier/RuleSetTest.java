@@ -0,0 +1,81 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static expressionsimplifier.Pattern.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuleSetTest {
+    private static SyntaxTree leaf(String token, TokenType type) {
+        return new SyntaxTree(new LexNode(token, type));
+    }
+
+    private static SyntaxTree tree(Operator operator, SyntaxTree left, SyntaxTree right) {
+        return new SyntaxTree(new LexNode(operator.token, TokenType.OPERATOR), left, right);
+    }
+
+    @Test
+    void mostSpecificRuleWinsByPriorityTest() {
+        var ruleSet = new RuleSet(List.of(
+                new RewriteRule("literal", op(Operator.ADD, ONE, any("a")), ZERO),
+                new RewriteRule("number", op(Operator.ADD, number("n"), any("a")), any("a")),
+                new RewriteRule("any", op(Operator.ADD, any("a"), any("b")), any("b"))
+        ));
+
+        SyntaxTree x = leaf("x", TokenType.VARIABLE);
+        SyntaxTree y = leaf("y", TokenType.VARIABLE);
+        assertEquals(SyntaxTree.ZERO, ruleSet.simplify(tree(Operator.ADD, SyntaxTree.ONE, x)));
+        assertEquals(x, ruleSet.simplify(tree(Operator.ADD, leaf("2", TokenType.NUMBER), x)));
+        assertEquals(x, ruleSet.simplify(tree(Operator.ADD, y, x)));
+
+        SyntaxTree product = tree(Operator.MUL, y, x);
+        assertSame(product, ruleSet.simplify(product));
+
+        Map<String, Long> hits = ruleSet.hitCounts();
+        assertEquals(Map.of("literal", 1L, "number", 1L, "any", 1L), hits);
+    }
+
+    @Test
+    void nonLinearPatternsAndGuardsTest() {
+        var ruleSet = new RuleSet(List.of(
+                new RewriteRule("sub-self", op(Operator.SUB, any("a"), any("a")), ZERO),
+                new RewriteRule("positive", op(Operator.MUL, number("n"), variable("v")), variable("v"),
+                        bindings -> Rational.parse(bindings.get("n").getToken()).signum() > 0)
+        ));
+
+        SyntaxTree x = leaf("x", TokenType.VARIABLE);
+        SyntaxTree y = leaf("y", TokenType.VARIABLE);
+        assertEquals(SyntaxTree.ZERO, ruleSet.simplify(tree(Operator.SUB, x, x)));
+        assertEquals(tree(Operator.SUB, x, y), ruleSet.simplify(tree(Operator.SUB, x, y)));
+        assertEquals(x, ruleSet.simplify(tree(Operator.MUL, leaf("2", TokenType.NUMBER), x)));
+
+        SyntaxTree negative = tree(Operator.MUL, leaf("-2", TokenType.NUMBER), x);
+        assertSame(negative, ruleSet.simplify(negative));
+    }
+
+    @Test
+    void reorderedByHitsTest() {
+        var ruleSet = new RuleSet(List.of(
+                new RewriteRule("rare", op(Operator.ADD, ONE, any("a")), any("a")),
+                new RewriteRule("common", op(Operator.ADD, any("a"), ZERO), any("a"))
+        ));
+
+        SyntaxTree x = leaf("x", TokenType.VARIABLE);
+        for (int i = 0; i < 3; i++) {
+            ruleSet.simplify(tree(Operator.ADD, x, SyntaxTree.ZERO));
+        }
+
+        RuleSet reordered = ruleSet.reorderedByHits();
+        assertEquals("common", reordered.getRules().get(0).name);
+        assertEquals(x, reordered.simplify(tree(Operator.ADD, SyntaxTree.ONE, x)));
+    }
+
+    @Test
+    void replacementMustOnlyUseBoundNamesTest() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new RewriteRule("unbound", op(Operator.ADD, any("a"), ZERO), any("b")));
+    }
+}
@@ -0,0 +1,146 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the work done grows no faster than expected as inputs double, so that quadratic or exponential blowups
+ * fail a test rather than going unnoticed on small inputs.
+ * <p>
+ * Allocation is deterministic enough to bound tightly. Time is noisy, so its bound only catches quadratic growth,
+ * and it is taken as the best of a few runs, each after a full collection. It is the CPU time of the test thread,
+ * which leaves out the compiler and collector threads.
+ */
+class ScalingTest {
+    private static final int[] SIZES = {1_000, 2_000, 4_000, 8_000};
+    private static final int RUNS = 5;
+    // Per doubling of the input: n log n grows by a little over 2, and n^2 by 4.
+    private static final double MAX_ALLOCATION_GROWTH = 2.6;
+    private static final double MAX_TIME_GROWTH = 3.2;
+
+    @Test
+    void simplifyRandomTest() throws Exception {
+        assertScales("simplify random", size -> new ExpressionGenerator(43, 5, 40, 0.2).generate(size),
+                expr -> ExpressionSimplifier.simplifyExpr(expr));
+    }
+
+    @Test
+    void simplifySumTest() throws Exception {
+        assertScales("simplify sum", size -> new ExpressionGenerator(44, 50, 8, 0.1).generateSum(size / 4, 4),
+                expr -> ExpressionSimplifier.simplifyExpr(expr));
+    }
+
+    @Test
+    void simplifyRepeatedTest() throws Exception {
+        assertScales("simplify repeated", size -> new ExpressionGenerator(45, 3, 40, 0.8).generate(size),
+                expr -> ExpressionSimplifier.simplifyExpr(expr));
+    }
+
+    @Test
+    void lopsidedTest() throws Exception {
+        // Deep chains of operators, as in a long sum written out in one line.
+        assertScales("lopsided", size -> new ExpressionGenerator(46, 20, size, 0).generate(size),
+                expr -> ExpressionSimplifier.simplifyExpr(expr));
+    }
+
+    @Test
+    void distinctVariablesTest() throws Exception {
+        // A sum of many different variables, which must not keep a set of variables per node. Larger sizes, since
+        // such sets only outgrow the rest of parsing at a few thousand variables.
+        assertScales("distinct variables", new int[]{4_000, 8_000, 16_000, 32_000}, size -> {
+            var expr = new StringBuilder("v0a");
+            for (int idx = 1; idx < size; idx++) {
+                expr.append(" + v").append(idx).append('a');
+            }
+
+            return expr.toString();
+        }, ExpressionSimplifier::parseExpr);
+    }
+
+    @Test
+    void nestedTest() throws Exception {
+        // Each level of parentheses must be lexed once, not again for every level enclosing it.
+        assertScales("nested", new int[]{250, 500, 1_000, 2_000}, size -> "(x+".repeat(size) + "x" + ")".repeat(size),
+                ExpressionSimplifier::parseExpr);
+    }
+
+    @Test
+    void printTest() throws Exception {
+        assertScales("print", size -> {
+            try {
+                return ExpressionSimplifier.parseExpr(new ExpressionGenerator(47, 20, 40, 0).generateSum(size / 4, 4));
+            } catch (InvalidExpressionException e) {
+                throw new IllegalStateException(e);
+            }
+        }, SyntaxTree::toString);
+    }
+
+    private interface Workload<T> {
+        Object run(T input) throws Exception;
+    }
+
+    private static <T> void assertScales(String name, IntFunction<T> inputs, Workload<T> workload) throws Exception {
+        assertScales(name, SIZES, inputs, workload);
+    }
+
+    private static <T> void assertScales(String name, int[] sizes, IntFunction<T> inputs, Workload<T> workload) throws Exception {
+        var allocation = new long[sizes.length];
+        var nanos = new long[sizes.length];
+        for (int idx = 0; idx < sizes.length; idx++) {
+            T input = inputs.apply(sizes[idx]);
+            // Warms up the code on the input before measuring it.
+            workload.run(input);
+            allocation[idx] = Long.MAX_VALUE;
+            nanos[idx] = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                // Starts each run on an empty heap, so garbage left by other tests is not collected during it.
+                System.gc();
+                long bytesBefore = allocatedBytes();
+                long start = cpuNanos();
+                workload.run(input);
+                nanos[idx] = Math.min(nanos[idx], cpuNanos() - start);
+                allocation[idx] = Math.min(allocation[idx], allocatedBytes() - bytesBefore);
+            }
+        }
+
+        String report = report(name, sizes, allocation, nanos);
+        assertTrue(growth(allocation) <= MAX_ALLOCATION_GROWTH, () -> "Allocation grows too fast: " + report);
+        assertTrue(growth(nanos) <= MAX_TIME_GROWTH, () -> "Time grows too fast: " + report);
+    }
+
+    /**
+     * @return the average growth per doubling, from the first size to the last.
+     */
+    private static double growth(long[] values) {
+        return Math.pow((double) values[values.length - 1] / values[0], 1.0 / (values.length - 1));
+    }
+
+    private static String report(String name, int[] sizes, long[] allocation, long[] nanos) {
+        List<String> parts = new ArrayList<>();
+        for (int idx = 0; idx < sizes.length; idx++) {
+            parts.add(String.format("%d: %d KB in %.2f ms", sizes[idx], allocation[idx] / 1024, nanos[idx] / 1e6));
+        }
+
+        return String.format("%s, growth %.2f bytes and %.2f time per doubling [%s]",
+                name, growth(allocation), growth(nanos), String.join(", ", parts));
+    }
+
+    private static long allocatedBytes() {
+        var threads = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads instanceof com.sun.management.ThreadMXBean, "Allocation is not measured");
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long cpuNanos() {
+        var threads = ManagementFactory.getThreadMXBean();
+        Assumptions.assumeTrue(threads.isCurrentThreadCpuTimeSupported(), "Time is not measured");
+        return threads.getCurrentThreadCpuTime();
+    }
+}
@@ -0,0 +1,220 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimplifierDaemonTest {
+    public static Stream<Arguments> commands() {
+        return Stream.of(
+                Arguments.of(List.of("x+x")),
+                Arguments.of(List.of("x*y", "x=2", "y=3")),
+                Arguments.of(List.of("--cse", "(x+1)^2", "(x+1)*y")),
+                Arguments.of(List.of("1/0")),
+                Arguments.of(List.of("x+é")),
+                Arguments.of(List.of("")),
+                Arguments.of(List.of("--serve", "0"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("commands")
+    void requestTest(List<String> args) throws IOException {
+        try (var daemon = new SimplifierDaemon(ExpressionSimplifier::runCommand, 0, 2, 16, 4)) {
+            String expected = ExpressionSimplifier.runCommand(args.toArray(String[]::new));
+            assertEquals(expected, SimplifierDaemon.request(daemon.getPort(), args));
+            assertEquals(expected, ExpressionSimplifier.run(prepend("--client", String.valueOf(daemon.getPort()), args)));
+        }
+    }
+
+    @Test
+    void concurrentRequestTest() throws Exception {
+        List<String> exprs = new ArrayList<>();
+        ExpressionSimplifierTest.expressions().forEach(arguments -> exprs.add((String) arguments.get()[0]));
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try (var daemon = new SimplifierDaemon(ExpressionSimplifier::runCommand, 0, 2, 1024, 8)) {
+            List<Future<String>> responses = new ArrayList<>();
+            for (var expr : exprs) {
+                responses.add(clients.submit(() -> SimplifierDaemon.request(daemon.getPort(), List.of(expr, "x=2"))));
+            }
+
+            for (int idx = 0; idx < exprs.size(); idx++) {
+                assertEquals(ExpressionSimplifier.run(exprs.get(idx), "x=2"), responses.get(idx).get());
+            }
+
+            SimplifierDaemon.Stats stats = daemon.stats();
+            assertEquals(exprs.size(), stats.completed);
+            assertEquals(0, stats.rejected);
+            assertTrue(stats.batches > 0 && stats.batches <= stats.completed);
+            assertTrue(stats.latencyPercentileMillis(0.5) <= stats.latencyPercentileMillis(0.99));
+            assertTrue(SimplifierDaemon.request(daemon.getPort(), List.of(SimplifierDaemon.STATS_REQUEST))
+                    .startsWith(exprs.size() + " requests, 0 rejected"));
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void backpressureTest() throws Exception {
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+        ExecutorService clients = Executors.newFixedThreadPool(3);
+        try (var daemon = new SimplifierDaemon(args -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return args[0];
+        }, 0, 1, 1, 1)) {
+            // The first request occupies the only worker, so of the next two one is queued and one is rejected.
+            Future<String> first = clients.submit(() -> SimplifierDaemon.request(daemon.getPort(), List.of("first")));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> second = clients.submit(() -> SimplifierDaemon.request(daemon.getPort(), List.of("second")));
+            Future<String> third = clients.submit(() -> SimplifierDaemon.request(daemon.getPort(), List.of("third")));
+            while (daemon.stats().rejected == 0) {
+                Thread.sleep(1);
+            }
+
+            release.countDown();
+            assertEquals("first", first.get(10, TimeUnit.SECONDS));
+            var responses = List.of(second.get(10, TimeUnit.SECONDS), third.get(10, TimeUnit.SECONDS));
+            assertTrue(responses.equals(List.of("second", SimplifierDaemon.BUSY))
+                    || responses.equals(List.of(SimplifierDaemon.BUSY, "third")));
+            assertEquals(1, daemon.stats().rejected);
+        } finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void handlerErrorTest() throws IOException {
+        try (var daemon = new SimplifierDaemon(args -> {
+            if (args[0].equals("overflow")) {
+                throw new StackOverflowError();
+            }
+
+            return args[0];
+        }, 0, 1, 4, 1)) {
+            // The connection is closed rather than left waiting, and the only worker still serves the next request.
+            assertThrows(IOException.class, () -> SimplifierDaemon.request(daemon.getPort(), List.of("overflow")));
+            assertEquals("next", SimplifierDaemon.request(daemon.getPort(), List.of("next")));
+        }
+    }
+
+    @Test
+    void requestLengthTest() throws IOException {
+        try (var daemon = new SimplifierDaemon(args -> args[0], 0, 1, 4, 1);
+             var socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            // Each frame is allowed on its own, but not both in one request.
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            writeSecret(out, daemon.getPort());
+            out.writeInt(2);
+            out.writeInt(10 << 20);
+            out.write(new byte[10 << 20]);
+            out.writeInt(10 << 20);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    void unauthorizedTest(@TempDir Path dir) throws IOException {
+        var calls = new AtomicInteger();
+        try (var daemon = new SimplifierDaemon(args -> {
+            calls.incrementAndGet();
+            return args[0];
+        }, 0, 1, 4, 1, dir.resolve("secrets"));
+             var socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            Path secretFile = SimplifierDaemon.secretFile(dir.resolve("secrets"), daemon.getPort());
+            if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(secretFile));
+                assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(secretFile.getParent()));
+            }
+
+            var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(32);
+            out.write(new byte[32]);
+            out.writeInt(2);
+            writeFrame(out, "--file");
+            writeFrame(out, "/etc/passwd");
+            out.flush();
+            var in = new DataInputStream(socket.getInputStream());
+            assertEquals(1, in.readUnsignedByte());
+            var response = new byte[in.readInt()];
+            in.readFully(response);
+            assertEquals(SimplifierDaemon.UNAUTHORIZED, new String(response, StandardCharsets.UTF_8));
+            assertEquals(-1, in.read());
+
+            assertEquals("x", SimplifierDaemon.request(dir.resolve("secrets"), daemon.getPort(), List.of("x")));
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    void clientPathsTest() throws IOException {
+        // The daemon may run in another directory than the client.
+        List<String[]> received = new CopyOnWriteArrayList<>();
+        try (var daemon = new SimplifierDaemon(args -> {
+            received.add(args);
+            return null;
+        }, 0, 1, 4, 1)) {
+            String port = String.valueOf(daemon.getPort());
+            ExpressionSimplifier.run("--client", port, "--file", "expr.txt", "x=1");
+            ExpressionSimplifier.run("--client", port, "--bulk", "in.txt", "out.txt");
+            ExpressionSimplifier.run("--client", port, "--csv", "x + 1", "in.csv", "out.csv");
+            ExpressionSimplifier.run("--client", port, "x + 1", "x=1");
+        }
+
+        assertArrayEquals(new String[]{"--file", absolute("expr.txt"), "x=1"}, received.get(0));
+        assertArrayEquals(new String[]{"--bulk", absolute("in.txt"), absolute("out.txt")}, received.get(1));
+        assertArrayEquals(new String[]{"--csv", "x + 1", absolute("in.csv"), absolute("out.csv")}, received.get(2));
+        assertArrayEquals(new String[]{"x + 1", "x=1"}, received.get(3));
+    }
+
+    private static String absolute(String path) {
+        return Path.of(path).toAbsolutePath().toString();
+    }
+
+    private static void writeSecret(DataOutputStream out, int port) throws IOException {
+        byte[] secret = Files.readAllBytes(SimplifierDaemon.secretFile(SimplifierDaemon.DEFAULT_SECRET_DIRECTORY, port));
+        out.writeInt(secret.length);
+        out.write(secret);
+    }
+
+    private static void writeFrame(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String[] prepend(String first, String second, List<String> rest) {
+        List<String> args = new ArrayList<>(List.of(first, second));
+        args.addAll(rest);
+        return args.toArray(String[]::new);
+    }
+}
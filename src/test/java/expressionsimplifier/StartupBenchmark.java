@@ -0,0 +1,82 @@
+package expressionsimplifier;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the time from starting a JVM on the command line to reading its first line of output, with and without
+ * the class data sharing archive of the {@code appcds} profile.
+ * <p>
+ * Run after {@code mvn -Pappcds package} with
+ * {@code java -cp target/test-classes expressionsimplifier.StartupBenchmark [runs]}. It is not a test, since the
+ * numbers depend on the machine.
+ *
+ * @author Moussa
+ */
+final class StartupBenchmark {
+    private static final Path JAR = Path.of("target", "expr_simplifier-0.1.0.jar");
+    private static final Path ARCHIVE = Path.of("target", "expr_simplifier.jsa");
+    private static final List<String> COMMAND = List.of("(x + 1)^3*(x - 1)^2 + x*0 - y/y", "y=2");
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        if (!Files.exists(JAR)) {
+            throw new IllegalStateException("Build the jar first with mvn -Pappcds package");
+        }
+
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+
+        List<String> plain = new ArrayList<>(List.of(java, "-Xshare:auto", "-jar", JAR.toString()));
+        plain.addAll(COMMAND);
+        report("default CDS", plain, runs);
+
+        if (Files.exists(ARCHIVE)) {
+            List<String> archived = new ArrayList<>(List.of(java, "-XX:SharedArchiveFile=" + ARCHIVE, "-jar", JAR.toString()));
+            archived.addAll(COMMAND);
+            report("AppCDS", archived, runs);
+        }
+    }
+
+    private static void report(String name, List<String> command, int runs) throws IOException, InterruptedException {
+        // The first runs warm the file system cache.
+        for (int idx = 0; idx < 3; idx++) {
+            timeToFirstLine(command);
+        }
+
+        var millis = new double[runs];
+        for (int idx = 0; idx < runs; idx++) {
+            millis[idx] = timeToFirstLine(command) / 1e6;
+        }
+
+        Arrays.sort(millis);
+        //NOPMD - suppressed SystemPrintln
+        System.out.printf("%-12s min %6.1f ms, median %6.1f ms, p90 %6.1f ms%n",
+                name, millis[0], millis[runs / 2], millis[(int) (0.9 * (runs - 1))]);
+    }
+
+    private static long timeToFirstLine(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String line;
+        try (var reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            line = reader.readLine();
+            long elapsed = System.nanoTime() - start;
+            if (line == null) {
+                throw new IllegalStateException("No output from " + command);
+            }
+
+            process.waitFor();
+            return elapsed;
+        }
+    }
+}
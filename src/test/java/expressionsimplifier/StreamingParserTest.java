@@ -0,0 +1,165 @@
+package expressionsimplifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingParserTest {
+    private static SyntaxTree parse(String expr) throws IOException, InvalidExpressionException {
+        return StreamingParser.parse(new StringReader(expr), SimplifierBudget.UNLIMITED.start());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"x", "2x", "2(x + 1)", "(x)(y)", "(x)y", "-x^2", "x^-y", "2^-3", "--x", "-(x + 1)", "x*-2",
+            "2 - -3", "x y + 1 2", "3.5x/2", "2^3^2", "a - b - c", "a/b/c*d", "1 + 2*3^4 - 5/6", "-2(y)x", "((x))",
+            "x2 + y10", "(-x)", "x + (-2)", "\tx\n+\r1 ", "2 x y"})
+    void parityTest(String expr) throws IOException, InvalidExpressionException {
+        SyntaxTree expected = ExpressionSimplifier.parseExpr(expr);
+        SyntaxTree actual = parse(expr);
+        assertEquals(expected, actual);
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    void generatedTest() throws IOException, InvalidExpressionException {
+        var generator = new ExpressionGenerator(52, 6, 16, 0.2);
+        var random = new Random(52);
+        for (int idx = 0; idx < 1000; idx++) {
+            String expr = generator.generate(1 + random.nextInt(200));
+            assertEquals(ExpressionSimplifier.parseExpr(expr), parse(expr), expr);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "+", "x +", "+x", "x + * y", "()", "(x + )", "(x)2", "x(y)", "(x", "x)", "(x))(",
+            "x*-", "(x*-)", "2 $ 3", "x + -", "-", "(-)", "(x $) )", "(+x)(y $)", "(x(y) + 1", "(x +) + ((y + *))",
+            "(()) + ($)", "x(", "(x(", "(-"})
+    void invalidTest(String expr) {
+        var expected = assertThrows(InvalidExpressionException.class, () -> ExpressionSimplifier.parseExpr(expr));
+        var actual = assertThrows(InvalidExpressionException.class, () -> parse(expr));
+        assertEquals(expected.getMessage(), actual.getMessage(), expr);
+    }
+
+    @Test
+    void mutatedTest() throws IOException {
+        // Valid and invalid edits of valid expressions must parse alike, and fail alike.
+        var generator = new ExpressionGenerator(53, 3, 8, 0);
+        var random = new Random(53);
+        String alphabet = "()+-*/^x2. ";
+        for (int idx = 0; idx < 2000; idx++) {
+            var expr = new StringBuilder(generator.generate(1 + random.nextInt(20)));
+            int position = random.nextInt(expr.length() + 1);
+            int end = Math.min(expr.length(), position + random.nextInt(3));
+            expr.replace(position, end, String.valueOf(alphabet.charAt(random.nextInt(alphabet.length()))));
+
+            SyntaxTree expected;
+            try {
+                expected = ExpressionSimplifier.parseExpr(expr.toString());
+            } catch (InvalidExpressionException e) {
+                var actual = assertThrows(InvalidExpressionException.class, () -> parse(expr.toString()), expr::toString);
+                assertEquals(e.getMessage(), actual.getMessage(), expr::toString);
+                continue;
+            }
+
+            try {
+                assertEquals(expected, parse(expr.toString()), expr::toString);
+            } catch (InvalidExpressionException e) {
+                fail(expr + ": " + e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    void randomTest() throws IOException {
+        // Mostly invalid text with several errors, which must report the same one.
+        var random = new Random(54);
+        String alphabet = "()()+-*/^xy2. $";
+        for (int idx = 0; idx < 20_000; idx++) {
+            var expr = new StringBuilder();
+            int length = 1 + random.nextInt(16);
+            for (int chr = 0; chr < length; chr++) {
+                expr.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            String message = null;
+            try {
+                ExpressionSimplifier.parseExpr(expr.toString());
+            } catch (InvalidExpressionException e) {
+                message = e.getMessage();
+            }
+
+            try {
+                parse(expr.toString());
+                assertNull(message, expr::toString);
+            } catch (InvalidExpressionException e) {
+                assertEquals(message, e.getMessage(), expr::toString);
+            }
+        }
+    }
+
+    @Test
+    void bufferBoundaryTest() throws IOException, InvalidExpressionException {
+        // Tokens and negative signs split across reads, and across refills of the buffer.
+        String expr = "12345.5x + " + "y".repeat(3 * StreamingLexer.BUFFER_SIZE) + " * -(3 - 42)";
+        Reader oneCharAtATime = new StringReader(expr) {
+            @Override
+            public int read(char[] buffer, int offset, int length) throws IOException {
+                return super.read(buffer, offset, Math.min(length, 1));
+            }
+        };
+
+        SyntaxTree expected = ExpressionSimplifier.parseExpr(expr);
+        assertEquals(expected, StreamingParser.parse(oneCharAtATime, SimplifierBudget.UNLIMITED.start()));
+        assertEquals(expected, parse(expr));
+    }
+
+    @Test
+    void channelTest() throws IOException, InvalidExpressionException {
+        String expr = "2π r + θ^2";
+        var channel = Channels.newChannel(new ByteArrayInputStream(expr.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(ExpressionSimplifier.parseExpr(expr), StreamingParser.parse(channel, SimplifierBudget.UNLIMITED.start()));
+
+        var malformed = Channels.newChannel(new ByteArrayInputStream(new byte[]{'x', '+', (byte) 0xFF}));
+        assertThrows(IOException.class, () -> StreamingParser.parse(malformed, SimplifierBudget.UNLIMITED.start()));
+    }
+
+    @Test
+    void deepNestingTest() throws IOException, InvalidExpressionException {
+        int depth = 100_000;
+        String nested = "(".repeat(depth) + "x + 1" + ")".repeat(depth);
+        assertEquals(ExpressionSimplifier.parseExpr("x + 1"), parse(nested));
+
+        String tooDeep = "(".repeat(SimplifierBudget.DEFAULT.maxDepth) + "x" + ")".repeat(SimplifierBudget.DEFAULT.maxDepth);
+        assertThrows(BudgetExceededException.class, () -> StreamingParser.parse(new StringReader(tooDeep), SimplifierBudget.DEFAULT.start()));
+        assertThrows(BudgetExceededException.class, () -> ExpressionSimplifier.parseExpr(tooDeep, SimplifierBudget.DEFAULT.start()));
+    }
+
+    @Test
+    void budgetTest() {
+        SimplifierBudget budget = SimplifierBudget.UNLIMITED.withMaxInputLength(10);
+        assertThrows(BudgetExceededException.class, () -> StreamingParser.parse(new StringReader("x + y + z + w"), budget.start()));
+        assertThrows(BudgetExceededException.class, () -> StreamingParser.parse(new StringReader("x + y + z"),
+                SimplifierBudget.UNLIMITED.withMaxNodes(4).start()));
+    }
+
+    @Test
+    void fileTest(@TempDir Path dir) throws IOException {
+        Path input = dir.resolve("expr.txt");
+        Files.writeString(input, "(x + 1)^2 -\n  x^2\n");
+        assertEquals(ExpressionSimplifier.run("(x + 1)^2 - x^2"), ExpressionSimplifier.run("--file", input.toString()));
+        assertEquals("5", ExpressionSimplifier.run("--file", input.toString(), "x=2"));
+    }
+}
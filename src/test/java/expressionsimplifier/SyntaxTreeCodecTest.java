@@ -0,0 +1,92 @@
+package expressionsimplifier;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.ByteBuffer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntaxTreeCodecTest {
+    public static @NotNull Stream<Arguments> encodings() {
+        return Stream.of(
+                Arguments.of((Object) new byte[]{}),
+                Arguments.of((Object) new byte[]{2, 0, 1, 6, 2}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 0}),
+                Arguments.of((Object) new byte[]{1, 0, 2, 6, 2, 6, 4}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 5, 0}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 10, 0}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 42}),
+                Arguments.of((Object) new byte[]{1, 0, 100, 6, 2}),
+                Arguments.of((Object) new byte[]{1, 1, 5, 'x'}),
+                // A decimal with a huge scale, a zero denominator, and text the lexer would not read.
+                Arguments.of((Object) new byte[]{1, 0, 1, 8, 2, (byte) 0x80, (byte) 0x9e, (byte) 0xa8, (byte) 0xcb, 5}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 7, 2, 0}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 9, 3, 'a', 'b', 'c'}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 9, 3, '1', '/', '0'}),
+                Arguments.of((Object) new byte[]{1, 0, 1, 9, 3, '1', 'e', '5'}),
+                Arguments.of((Object) new byte[]{1, 1, 2, '1', 'x', 1, 5, 0}),
+                Arguments.of((Object) new byte[]{1, 1, 3, 'x', '+', 'y', 1, 5, 0})
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("expressionsimplifier.ExpressionSimplifierTest#expressions")
+    void roundTripTest(String expr, String simplified) throws InvalidExpressionException {
+        for (var text : new String[]{expr, simplified}) {
+            SyntaxTree tree = ExpressionSimplifier.parseExpr(text);
+            SyntaxTree decoded = SyntaxTreeCodec.decode(SyntaxTreeCodec.encode(tree));
+            assertEquals(tree, decoded);
+            assertEquals(tree.toString(), decoded.toString());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("expressionsimplifier.ExpressionSimplifierTest#expressions")
+    void directBufferTest(String expr) throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.parseExpr(expr);
+        byte[] encoded = SyntaxTreeCodec.encode(tree);
+
+        // Two records back to back, to check that decoding stops at the end of the first.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * encoded.length);
+        buffer.put(encoded).put(encoded).flip();
+        assertEquals(tree, SyntaxTreeCodec.decode(buffer));
+        assertEquals(tree, SyntaxTreeCodec.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void largeScaleTest() throws InvalidExpressionException {
+        // Written as text rather than as a decimal, and still decoded exactly.
+        String small = "0." + "0".repeat(100) + "1";
+        SyntaxTree tree = ExpressionSimplifier.parseExpr(small + "x");
+        byte[] encoded = SyntaxTreeCodec.encode(tree);
+        assertTrue(encoded.length > small.length());
+        assertEquals(tree, SyntaxTreeCodec.decode(encoded));
+    }
+
+    @ParameterizedTest
+    @MethodSource("encodings")
+    void malformedTest(byte[] encoded) {
+        assertThrows(InvalidExpressionException.class, () -> SyntaxTreeCodec.decode(encoded));
+    }
+
+    @ParameterizedTest
+    @MethodSource("expressionsimplifier.ExpressionSimplifierTest#expressions")
+    void sharedSubtreesTest(String expr) throws InvalidExpressionException {
+        SyntaxTree tree = ExpressionSimplifier.parseExpr(expr);
+        var doubled = new SyntaxTree(LexNode.MUL, tree, tree);
+        byte[] encoded = SyntaxTreeCodec.encode(doubled);
+        SyntaxTree decoded = SyntaxTreeCodec.decode(encoded);
+        assertEquals(doubled, decoded);
+
+        if (!tree.isLeaf()) {
+            assertTrue(encoded.length < 2 * SyntaxTreeCodec.encode(tree).length);
+            assertSame(decoded.left, decoded.right);
+        }
+    }
+}